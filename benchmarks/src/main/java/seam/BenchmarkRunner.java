@@ -0,0 +1,56 @@
+package seam;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+/**
+ * Entry point of the benchmark jar.  Accepts the usual JMH command line
+ * and always adds the GC profiler so that allocation rate (gc.alloc.rate.norm,
+ * bytes per operation) is reported alongside time.  When the jar holds the
+ * SIMD energy kernel, jdk.incubator.vector is added to the forked JVMs.
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar EnergyBenchmark -p size=256
+ * </pre>
+ * @author James Pope
+ */
+public class BenchmarkRunner
+{
+    public static void main(String[] args) throws Exception
+    {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if( cmd.shouldHelp() )
+        {
+            cmd.showHelp();
+            return;
+        }
+
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(cmd);
+        boolean hasGC = false;
+        for( ProfilerConfig profiler : cmd.getProfilers() )
+        {
+            if( profiler.getKlass().equals(GCProfiler.class.getName()) ) hasGC = true;
+        }
+        if( !hasGC ) builder.addProfiler(GCProfiler.class);
+
+        // Built on Java 17 or later, the SIMD energy kernel needs its module
+        if( BenchmarkRunner.class.getResource("VectorEnergyKernel.class") != null )
+        {
+            List<String> jvmArgs = new ArrayList<String>();
+            if( cmd.getJvmArgsAppend().hasValue() ) jvmArgs.addAll(cmd.getJvmArgsAppend().get());
+            jvmArgs.add("--add-modules=jdk.incubator.vector");
+            builder.jvmArgsAppend(jvmArgs.toArray(new String[0]));
+        }
+        Options options = builder.build();
+
+        Runner runner = new Runner(options);
+        if( cmd.shouldList() ) runner.list();
+        else                   runner.run();
+    }
+}
@@ -0,0 +1,70 @@
+package seam;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of filtering with a kernel that is not separable, directly and
+ * through the FFT (FourierFilter), over a range of kernel sizes.  The
+ * smallest size at which the FFT is faster sets FourierFilter.CROSSOVER
+ * for a Matrix and FourierFilter.PICTURE_CROSSOVER for a Picture, from
+ * which applyFilter uses it.
+ * @author James Pope
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConvolutionBenchmark
+{
+    @Param({"256", "1024"})
+    int size;
+
+    @Param({"3", "5", "7", "9", "11", "13", "15", "17", "21", "31", "63"})
+    int kernelSize;
+
+    Picture picture;
+    Matrix matrix;
+    Matrix kernel;
+
+    @Setup
+    public void setup()
+    {
+        picture = Images.randomPicture(size);
+        matrix  = new Matrix(size, size);
+        for (int row = 0; row < size; row++)
+        {
+            for (int col = 0; col < size; col++)
+            {
+                matrix.set(row, col, picture.getPacked(col, row) & 0xFF);
+            }
+        }
+        kernel = KernelFactory.verticalLineFilter(kernelSize, kernelSize / 4.0);
+    }
+
+    @Benchmark
+    public Picture pictureDirect()
+    {
+        return picture.applyDirectFilter(kernel, new Picture(size, size));
+    }
+
+    @Benchmark
+    public Picture pictureFourier()
+    {
+        return picture.applyFourierFilter(kernel, new Picture(size, size));
+    }
+
+    @Benchmark
+    public Matrix matrixDirect()
+    {
+        return matrix.applyDirectFilter(kernel);
+    }
+
+    @Benchmark
+    public Matrix matrixFourier()
+    {
+        return matrix.applyFourierFilter(kernel);
+    }
+}
@@ -0,0 +1,82 @@
+package seam;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of computing pixel energy, one pixel and a full energy map: one
+ * pixel at a time, and a row at a time by the scalar and SIMD kernels
+ * ({@link EnergyKernel#create()} is the scalar kernel when the jar was
+ * built before Java 17).
+ * @author James Pope
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnergyBenchmark
+{
+    @Param({"64", "256", "1024", "4096"})
+    int size;
+
+    SeamDoppelganger sd;
+    Picture picture;
+    int[] map;
+    EnergyKernel scalar;
+    EnergyKernel vector;
+    int x, y;
+
+    @Setup
+    public void setup()
+    {
+        sd = new SeamDoppelganger(Images.randomPicture(size));
+        picture = sd.picture();
+        map = new int[size * size];
+        scalar = new EnergyKernel();
+        vector = EnergyKernel.create();
+        x = size / 2;
+        y = size / 2;
+    }
+
+    @Benchmark
+    public int energy()
+    {
+        return sd.energy(x, y);
+    }
+
+    @Benchmark
+    public int[] makeEnergy()
+    {
+        SeamDoppelganger.makeEnergy(sd, map);
+        return map;
+    }
+
+    @Benchmark
+    public int[] perPixelEnergy()
+    {
+        for (int y = 0; y < size; y++)
+        {
+            for (int x = 0; x < size; x++)
+            {
+                map[y*size + x] = sd.energy(x, y);
+            }
+        }
+        return map;
+    }
+
+    @Benchmark
+    public int[] scalarKernel()
+    {
+        scalar.energy(picture, map);
+        return map;
+    }
+
+    @Benchmark
+    public int[] vectorKernel()
+    {
+        vector.energy(picture, map);
+        return map;
+    }
+}
@@ -0,0 +1,107 @@
+package seam;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of filtering a whole picture or matrix with a Gaussian kernel, both
+ * through the separable two pass path and, for comparison, the direct 2-D
+ * path with the same kernel held as a plain Matrix.  A box filter (a
+ * kernel of ones) is also run both directly and through a summed-area
+ * table, whose cost does not grow with the kernel, and the Gaussian is
+ * also run as a recursive filter, whose cost does not either.
+ * @author James Pope
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark
+{
+    @Param({"64", "256", "1024", "4096"})
+    int size;
+
+    @Param({"3", "7", "15"})
+    int kernelSize;
+
+    Picture picture;
+    Matrix matrix;
+    Matrix kernel;
+    Matrix fullKernel;
+    Matrix boxKernel;
+    Matrix recursiveKernel;
+
+    @Setup
+    public void setup()
+    {
+        picture = Images.randomPicture(size);
+        matrix  = new Matrix(size, size);
+        for (int row = 0; row < size; row++)
+        {
+            for (int col = 0; col < size; col++)
+            {
+                matrix.set(row, col, picture.getPacked(col, row) & 0xFF);
+            }
+        }
+        kernel = KernelFactory.gaussianBlur(kernelSize, 1.0);
+        fullKernel = new Matrix(kernel);
+        boxKernel = new Matrix(kernelSize, kernelSize, 1.0);
+        recursiveKernel = KernelFactory.recursiveGaussian(kernelSize, 1.0);
+    }
+
+    @Benchmark
+    public Picture pictureApplyFilter()
+    {
+        return picture.applyFilter(kernel);
+    }
+
+    @Benchmark
+    public Matrix matrixApplyFilter()
+    {
+        return matrix.applyFilter(kernel);
+    }
+
+    @Benchmark
+    public Picture pictureApplyFullFilter()
+    {
+        return picture.applyFilter(fullKernel);
+    }
+
+    @Benchmark
+    public Matrix matrixApplyFullFilter()
+    {
+        return matrix.applyFilter(fullKernel);
+    }
+
+    @Benchmark
+    public Picture pictureApplyRecursiveFilter()
+    {
+        return picture.applyFilter(recursiveKernel);
+    }
+
+    @Benchmark
+    public Matrix matrixApplyRecursiveFilter()
+    {
+        return matrix.applyFilter(recursiveKernel);
+    }
+
+    @Benchmark
+    public Matrix matrixApplyBoxKernel()
+    {
+        return matrix.applyFilter(boxKernel);
+    }
+
+    @Benchmark
+    public Matrix matrixBoxFilter()
+    {
+        return matrix.boxFilter(kernelSize);
+    }
+
+    @Benchmark
+    public SummedAreaTable matrixSummedAreaTable()
+    {
+        return matrix.summedAreaTable();
+    }
+}
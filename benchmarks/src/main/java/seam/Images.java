@@ -0,0 +1,39 @@
+package seam;
+
+/**
+ * Reproducible benchmark inputs.
+ * @author James Pope
+ */
+final class Images
+{
+    static final long SEED = 20210204L;
+
+    private Images() { }
+
+    /**
+     * Random size-by-size picture from a fixed seed.
+     */
+    static Picture randomPicture(int size)
+    {
+        return randomPicture(size, SEED);
+    }
+
+    static Picture randomPicture(int size, long seed)
+    {
+        StdRandom.setSeed(seed);
+        return SCUtility.randomPicture(size, size);
+    }
+
+    /**
+     * A vertical seam that zig-zags around the middle column.
+     */
+    static int[] verticalSeam(int width, int height)
+    {
+        int[] seam = new int[height];
+        for (int y = 0; y < height; y++)
+        {
+            seam[y] = width/2 + (y % 2);
+        }
+        return seam;
+    }
+}
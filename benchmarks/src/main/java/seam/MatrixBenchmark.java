@@ -0,0 +1,102 @@
+package seam;
+
+import java.lang.reflect.Method;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of element-wise Matrix operations: a function applied through
+ * reflection against the same function as a lambda, and a comparison
+ * producing a 0/1 matrix against one producing a bit mask.  Matrices of
+ * 1024 squared and up run in parallel on the common pool.  A four step
+ * normalisation chain is run eagerly, one new matrix per step, and fused
+ * through Matrix.lazy(), into a new matrix and into an existing one.
+ * @author James Pope
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixBenchmark
+{
+    @Param({"64", "256", "1024", "4096"})
+    int size;
+
+    Matrix matrix;
+    Matrix other;
+    Matrix target;
+    Method sqrt;
+    double min;
+    double scale;
+
+    @Setup
+    public void setup()
+    {
+        Picture picture = Images.randomPicture(size);
+        matrix = new Matrix(size, size);
+        for (int row = 0; row < size; row++)
+        {
+            for (int col = 0; col < size; col++)
+            {
+                matrix.set(row, col, picture.getPacked(col, row) & 0xFF);
+            }
+        }
+        sqrt = Matrix.getMathOperation("sqrt");
+        other  = matrix.multiply(0.5);
+        target = new Matrix(size, size);
+        min    = matrix.min();
+        scale  = 1.0 / (matrix.max() - min);
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public Matrix applyMethod()
+    {
+        return matrix.applyMethod(sqrt);
+    }
+
+    @Benchmark
+    public Matrix map()
+    {
+        return matrix.map(Math::sqrt);
+    }
+
+    @Benchmark
+    public Matrix zipWith()
+    {
+        return matrix.zipWith(matrix, (a, b) -> a * b + 1.0);
+    }
+
+    @Benchmark
+    public Matrix logicalOp()
+    {
+        return matrix.logicalOp(">=", 128.0);
+    }
+
+    @Benchmark
+    public BitSet mask()
+    {
+        return matrix.mask(Matrix.Comparison.GREATER_EQUAL, 128.0);
+    }
+
+    @Benchmark
+    public Matrix eagerChain()
+    {
+        return matrix.substract(min).multiply(scale).add(other).divide(2.0);
+    }
+
+    @Benchmark
+    public Matrix fusedChain()
+    {
+        return matrix.lazy().substract(min).multiply(scale).add(other).divide(2.0).evaluate();
+    }
+
+    @Benchmark
+    public Matrix fusedChainInto()
+    {
+        return matrix.lazy().substract(min).multiply(scale).add(other).divide(2.0).evaluateInto(target);
+    }
+}
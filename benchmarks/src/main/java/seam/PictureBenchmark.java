@@ -0,0 +1,109 @@
+package seam;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of whole-picture operations used by the demos, including saving
+ * and loading as PNG and as a raw raster.
+ * @author James Pope
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PictureBenchmark
+{
+    @Param({"64", "256", "1024", "4096"})
+    int size;
+
+    Picture picture;
+    int randomPixels;
+    File png;
+    File raw;
+    PngWriter fastest;
+    PngWriter stored;
+
+    @Setup
+    public void setup()
+    {
+        picture = Images.randomPicture(size);
+        // About what a 5% seam replacement changes
+        randomPixels = size * size / 10;
+
+        try
+        {
+            png = File.createTempFile("picture", ".png");
+            raw = File.createTempFile("picture", RawRaster.EXTENSION);
+        }
+        catch( IOException e )
+        {
+            throw new RuntimeException(e);
+        }
+        picture.save(png);
+        picture.save(raw);
+        fastest = new PngWriter(PngWriter.FASTEST);
+        stored  = new PngWriter(PngWriter.STORE);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        png.delete();
+        raw.delete();
+    }
+
+    @Benchmark
+    public Picture transpose()
+    {
+        return picture.transpose();
+    }
+
+    @Benchmark
+    public Picture replaceRandom()
+    {
+        return picture.replaceRandom(randomPixels);
+    }
+
+    @Benchmark
+    public Picture savePng()
+    {
+        picture.save(png);
+        return picture;
+    }
+
+    @Benchmark
+    public long writePngFastest() throws IOException
+    {
+        return fastest.write(picture, png);
+    }
+
+    @Benchmark
+    public long writePngStored() throws IOException
+    {
+        return stored.write(picture, png);
+    }
+
+    @Benchmark
+    public Picture loadPng()
+    {
+        return new Picture(png);
+    }
+
+    @Benchmark
+    public Picture saveRaw()
+    {
+        picture.save(raw);
+        return picture;
+    }
+
+    @Benchmark
+    public Picture loadRaw()
+    {
+        return new Picture(raw);
+    }
+}
@@ -0,0 +1,78 @@
+package seam;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Speed and accuracy of the coarse to fine {@link PyramidSeamFinder}
+ * against the exact {@link DynamicSeamFinder}, finding one vertical seam
+ * in a precomputed energy map.  The speedup is the ratio of the
+ * exactMinimumSeam and pyramidMinimumSeam scores.  The seam energy gap,
+ * how much more energy the pyramid seam has than the exact one, is
+ * printed at the end of each trial.
+ * @author James Pope
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PyramidBenchmark
+{
+    @Param({"256", "1024", "4096"})
+    int size;
+
+    @Param({"1", "4", "16"})
+    int band;
+
+    int[] energy;
+    SeamWorkspace ws;
+    int[] seam;
+    DynamicSeamFinder exact;
+    PyramidSeamFinder pyramid;
+    double gap;
+
+    @Setup
+    public void setup()
+    {
+        energy  = new int[size * size];
+        SeamDoppelganger.makeEnergy(new SeamDoppelganger(Images.randomPicture(size)), energy);
+        ws      = new SeamWorkspace();
+        seam    = new int[size];
+        exact   = new DynamicSeamFinder();
+        pyramid = new PyramidSeamFinder(band);
+
+        exact.findMinimumSeam(energy, size, size, ws, seam);
+        long exactEnergy = seamEnergy();
+        pyramid.findMinimumSeam(energy, size, size, ws, seam);
+        gap = 100.0 * (seamEnergy() - exactEnergy) / exactEnergy;
+    }
+
+    private long seamEnergy()
+    {
+        long sum = 0;
+        for (int y = 0; y < size; y++) sum += energy[y*size + seam[y]];
+        return sum;
+    }
+
+    @TearDown
+    public void report()
+    {
+        System.out.printf("%nsize %d band %d: pyramid seam energy %+.3f%% of exact%n", size, band, gap);
+    }
+
+    @Benchmark
+    public int[] exactMinimumSeam()
+    {
+        exact.findMinimumSeam(energy, size, size, ws, seam);
+        return seam;
+    }
+
+    @Benchmark
+    public int[] pyramidMinimumSeam()
+    {
+        pyramid.findMinimumSeam(energy, size, size, ws, seam);
+        return seam;
+    }
+}
@@ -0,0 +1,65 @@
+package seam;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of removing one seam from a SeamCarver.  The picture is not
+ * compacted, so this is the in-place removal alone.
+ * <p>
+ * Removal changes the picture, so each iteration starts from a fresh
+ * carver, made before the iteration is timed, and times a batch of
+ * {@link #SEAMS} removals one after another, each call removing one seam.
+ * The score is the time per seam.  The seam zig-zags around a quarter
+ * of the width, so it stays inside while the batch narrows the picture.
+ * Removal allocates nothing, so gc.alloc.rate.norm is only the copy of
+ * the picture made for the iteration, spread over its seams.
+ * @author James Pope
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20, batchSize = SeamCarverBenchmark.SEAMS)
+@Measurement(iterations = 20, batchSize = SeamCarverBenchmark.SEAMS)
+@OperationsPerInvocation(SeamCarverBenchmark.SEAMS)
+@Fork(1)
+public class SeamCarverBenchmark
+{
+    /** Seams removed per iteration, half the smallest size */
+    static final int SEAMS = 32;
+
+    @Param({"64", "256", "1024", "4096"})
+    int size;
+
+    Picture picture;
+    int[] seam;
+    SeamCarver sc;
+
+    @Setup(Level.Trial)
+    public void setupTrial()
+    {
+        picture = Images.randomPicture(size);
+        seam    = Images.verticalSeam(size/2, size);
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration()
+    {
+        sc = new SeamCarver(picture);
+    }
+
+    @Benchmark
+    public SeamCarver removeVerticalSeam()
+    {
+        sc.removeVerticalSeam(seam);
+        return sc;
+    }
+
+    @Benchmark
+    public SeamCarver removeHorizontalSeam()
+    {
+        // The picture is square, so the same seam fits across it
+        sc.removeHorizontalSeam(seam);
+        return sc;
+    }
+}
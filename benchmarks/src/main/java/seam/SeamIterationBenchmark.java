@@ -0,0 +1,48 @@
+package seam;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * One steady state iteration of the ReplaceDemo loop: find and replace a
+ * horizontal and a vertical seam, with the seams found into reused
+ * buffers.  The gc.alloc.rate.norm figure from the GC profiler should be
+ * (close to) zero bytes per operation.
+ * @author James Pope
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeamIterationBenchmark
+{
+    @Param({"64", "256", "1024"})
+    int size;
+
+    SeamDoppelganger sd;
+    int[] horizontalSeam;
+    int[] verticalSeam;
+
+    @Setup
+    public void setup()
+    {
+        sd = new SeamDoppelganger(Images.randomPicture(size));
+        horizontalSeam = new int[size];
+        verticalSeam   = new int[size];
+
+        // First iteration builds the energy maps
+        replaceSeams();
+    }
+
+    @Benchmark
+    public SeamDoppelganger replaceSeams()
+    {
+        sd.findSmallestHorizontalSeam(horizontalSeam);
+        sd.replaceHorizontalSeamRandom(horizontalSeam);
+        sd.findSmallestVerticalSeam(verticalSeam);
+        sd.replaceVerticalSeamRandom(verticalSeam);
+        return sd;
+    }
+}
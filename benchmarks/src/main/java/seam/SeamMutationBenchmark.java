@@ -0,0 +1,56 @@
+package seam;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of applying one vertical seam replacement, swap or convolution,
+ * including the energy map bookkeeping.
+ * @author James Pope
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeamMutationBenchmark
+{
+    @Param({"64", "256", "1024", "4096"})
+    int size;
+
+    SeamDoppelganger sd;
+    Picture swap;
+    Matrix kernel;
+    int[] seam;
+
+    @Setup
+    public void setup()
+    {
+        sd     = new SeamDoppelganger(Images.randomPicture(size));
+        swap   = Images.randomPicture(size, Images.SEED + 1);
+        kernel = KernelFactory.gaussianBlur(3, 1.0);
+        seam   = sd.findSmallestVerticalSeam();
+    }
+
+    @Benchmark
+    public Picture replaceVerticalSeamRandom()
+    {
+        sd.replaceVerticalSeamRandom(seam);
+        return sd.picture();
+    }
+
+    @Benchmark
+    public Picture swapVerticalSeamRandom()
+    {
+        sd.swapVerticalSeamRandom(seam, swap);
+        return sd.picture();
+    }
+
+    @Benchmark
+    public Picture convolveVerticalSeam()
+    {
+        sd.convolveVerticalSeam(seam, kernel);
+        return sd.picture();
+    }
+}
@@ -0,0 +1,88 @@
+package seam;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of finding one vertical seam in a precomputed energy map, with the
+ * greedy walk from a single start column, the full greedy search and the
+ * exact dynamic programming search, and of finding a quarter of the width
+ * in disjoint seams at once with {@link SeamSet}.  The streaming search
+ * computes energy as it goes, so it is compared with building the energy
+ * map and then searching it.
+ * @author James Pope
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeamSearchBenchmark
+{
+    @Param({"64", "256", "1024", "4096"})
+    int size;
+
+    Picture picture;
+    SeamDoppelganger sd;
+    int[] energy;
+    SeamWorkspace ws;
+    int[] seam;
+    GreedySeamFinder greedy;
+    DynamicSeamFinder dynamic;
+
+    @Setup
+    public void setup()
+    {
+        picture = Images.randomPicture(size);
+        sd      = new SeamDoppelganger(picture);
+        energy  = new int[size * size];
+        SeamDoppelganger.makeEnergy(sd, energy);
+        ws      = new SeamWorkspace();
+        seam    = new int[size];
+        greedy  = new GreedySeamFinder();
+        dynamic = new DynamicSeamFinder();
+    }
+
+    @Benchmark
+    public int[] leastShortestPath()
+    {
+        GreedySeamFinder.leastShortestPath(energy, size, size, size / 2, seam);
+        return seam;
+    }
+
+    @Benchmark
+    public int[] greedyMinimumSeam()
+    {
+        greedy.findMinimumSeam(energy, size, size, ws, seam);
+        return seam;
+    }
+
+    @Benchmark
+    public int[] dynamicMinimumSeam()
+    {
+        dynamic.findMinimumSeam(energy, size, size, ws, seam);
+        return seam;
+    }
+
+    @Benchmark
+    public SeamSet disjointSeams()
+    {
+        return SeamSet.findSmallest(energy, size, size, size / 4);
+    }
+
+    @Benchmark
+    public int[] denseEnergyAndSeam()
+    {
+        SeamDoppelganger.makeEnergy(sd, energy);
+        dynamic.findMinimumSeam(energy, size, size, ws, seam);
+        return seam;
+    }
+
+    @Benchmark
+    public int[] streamingMinimumSeam()
+    {
+        StreamingSeamFinder.findMinimumSeam(picture, ws, seam);
+        return seam;
+    }
+}
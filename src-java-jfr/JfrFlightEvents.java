@@ -0,0 +1,196 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * {@link FlightEvents} that emits Java Flight Recorder events.  Needs Java
+ * 11 or later, see FlightEvents for how it is found and enabled.  Every
+ * event is disabled by default, and then begin allocates an event that
+ * does not escape, and end does nothing more.
+ * @author James Pope
+ */
+class JfrFlightEvents extends FlightEvents
+{
+    private static final String CATEGORY = "Seam Doppelganger";
+
+    @Name("seam.ImageJob")
+    @Label("Image Job")
+    @Description("An image read, seam processed and written")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static class ImageJob extends Event
+    {
+        @Label("File")
+        String file;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        @Label("Percentage")
+        @Description("Largest percentage of rows and columns replaced, e.g. 0.1")
+        float percentage;
+    }
+
+    @Name("seam.SeamIteration")
+    @Label("Seam Iteration")
+    @Description("A seam found, including bringing the energy map up to date")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static class SeamIteration extends Event
+    {
+        @Label("Orientation")
+        String orientation;
+
+        @Label("Index")
+        @Description("Number of seams found before this one by the same carver")
+        int index;
+
+        @Label("Energy")
+        @Description("Total energy of the seam")
+        long energy;
+    }
+
+    @Name("seam.EnergyRebuild")
+    @Label("Energy Rebuild")
+    @Description("An energy map computed from scratch")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static class EnergyRebuild extends Event
+    {
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+    }
+
+    @Name("seam.Filter")
+    @Label("Filter")
+    @Description("A convolution filter applied to a picture or a matrix")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static class Filter extends Event
+    {
+        @Label("Kernel Size")
+        int kernelSize;
+
+        @Label("Separable")
+        boolean separable;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+    }
+
+    JfrFlightEvents()
+    {
+    }
+
+    /**
+     * @return the event begun, or null if it is disabled
+     */
+    private static <E extends Event> E begin(E event)
+    {
+        if( !event.isEnabled() ) return null;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    Object beginImageJob()
+    {
+        return begin(new ImageJob());
+    }
+
+    @Override
+    void endImageJob(Object handle, String file, int width, int height, float percentage)
+    {
+        if( handle == null ) return;
+        ImageJob event = (ImageJob) handle;
+        event.end();
+        if( event.shouldCommit() )
+        {
+            event.file = file;
+            event.width = width;
+            event.height = height;
+            event.percentage = percentage;
+            event.commit();
+        }
+    }
+
+    @Override
+    Object beginSeamIteration()
+    {
+        return begin(new SeamIteration());
+    }
+
+    @Override
+    void endSeamIteration(Object handle, boolean vertical, int index, int[] e, int columns, int[] seam)
+    {
+        if( handle == null ) return;
+        SeamIteration event = (SeamIteration) handle;
+        event.end();
+        if( event.shouldCommit() )
+        {
+            event.orientation = vertical ? "vertical" : "horizontal";
+            event.index = index;
+            event.energy = seamEnergy(e, columns, seam);
+            event.commit();
+        }
+    }
+
+    @Override
+    Object beginEnergyRebuild()
+    {
+        return begin(new EnergyRebuild());
+    }
+
+    @Override
+    void endEnergyRebuild(Object handle, int width, int height)
+    {
+        if( handle == null ) return;
+        EnergyRebuild event = (EnergyRebuild) handle;
+        event.end();
+        if( event.shouldCommit() )
+        {
+            event.width = width;
+            event.height = height;
+            event.commit();
+        }
+    }
+
+    @Override
+    Object beginFilter()
+    {
+        return begin(new Filter());
+    }
+
+    @Override
+    void endFilter(Object handle, int kernelSize, boolean separable, int width, int height)
+    {
+        if( handle == null ) return;
+        Filter event = (Filter) handle;
+        event.end();
+        if( event.shouldCommit() )
+        {
+            event.kernelSize = kernelSize;
+            event.separable = separable;
+            event.width = width;
+            event.height = height;
+            event.commit();
+        }
+    }
+}
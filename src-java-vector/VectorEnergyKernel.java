@@ -0,0 +1,61 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link EnergyKernel} computing a row in SIMD lanes with the incubating
+ * Vector API, the columns left over after the last full vector with the
+ * scalar loop.  Needs Java 17 or later and --add-modules
+ * jdk.incubator.vector both to compile and to run;
+ * {@link EnergyKernel#create()} falls back to the scalar kernel when
+ * either is missing.  The energies are exactly those of the scalar
+ * kernel, as running EnergyKernel checks.
+ * @author James Pope
+ */
+public class VectorEnergyKernel extends EnergyKernel
+{
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final IntVector BORDER = IntVector.broadcast(SPECIES, SeamDoppelganger.BORDER_ENERGY);
+    private static final IntVector LANES  = IntVector.zero(SPECIES).addIndex(1);
+
+    public VectorEnergyKernel()
+    {
+    }
+
+    @Override
+    public String name()
+    {
+        return "vector " + SPECIES.vectorBitSize() + "-bit";
+    }
+
+    @Override
+    void energyRow(int[] e, int off, int w, int up, int mid, int dn)
+    {
+        int[] r = this.r, g = this.g, b = this.b;
+        int x = 0;
+        for (int bound = SPECIES.loopBound(w); x < bound; x += SPECIES.length())
+        {
+            IntVector v = gradient(r, up, mid, dn, x)
+                     .add(gradient(g, up, mid, dn, x))
+                     .add(gradient(b, up, mid, dn, x));
+
+            // Lanes on the first and last column take the border energy
+            IntVector col = LANES.add(x);
+            VectorMask<Integer> border = col.compare(VectorOperators.EQ, 0)
+                                        .or(col.compare(VectorOperators.EQ, w-1));
+            v.blend(BORDER, border).intoArray(e, off+x);
+        }
+        energyColumns(e, off, w, up, mid, dn, x);
+    }
+
+    /**
+     * @return dx*dx + dy*dy of one channel plane for columns [x, x + lanes)
+     */
+    private static IntVector gradient(int[] c, int up, int mid, int dn, int x)
+    {
+        IntVector dx = IntVector.fromArray(SPECIES, c, mid+x+1).sub(IntVector.fromArray(SPECIES, c, mid+x-1));
+        IntVector dy = IntVector.fromArray(SPECIES, c,  dn+x  ).sub(IntVector.fromArray(SPECIES, c,  up+x  ));
+        return dx.mul(dx).add(dy.mul(dy));
+    }
+}
@@ -0,0 +1,590 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent engine for processing a directory of images as in PaperDemo.
+ * Every image passes through four stages connected by bounded queues:
+ * <pre>
+ *   decode -> seam -> random baseline -> encode
+ * </pre>
+ * The seam and random baseline stages run on a fixed number of platform
+ * threads.  The decode stage mostly waits on the disk, so it can run on
+ * virtual threads when the JVM has them (Java 21 and later), otherwise on
+ * platform threads.  PNG encoding is mostly deflate, so the encode stage
+ * is its own pool of platform threads, each reusing one ImageWriter (see
+ * {@link PngWriter}), and the seam workers only hand pictures over.  The
+ * bounded queues keep only a few images per stage in memory and hold back
+ * the decoders when the seam workers fall behind.
+ * <p>
+ * The time each stage spends working is measured, so that the summary
+ * reports encode throughput separately from the seam computation.  The
+ * PNG compression level can be lowered for intermediates, down to stored.
+ * Per image stage times, and the images, pixels and failures, are also
+ * reported to {@link Metrics} for the life of the process.
+ * <p>
+ * A file that fails in any stage is reported and dropped; the rest of the
+ * run carries on.
+ * <p>
+ * A run may sweep several percentages at once.  Every image then goes
+ * through the seam stage once, up to the largest percentage, and each
+ * level is written as _seam_p10.png, _rand_p10.png and so on.
+ * <p>
+ * Outputs may be written as {@link RawRaster} files instead of PNG, for
+ * intermediates read back by a later step, and decoded inputs may be
+ * cached as raw files so that later runs over the same images skip the
+ * decode.  Inputs may themselves be raw files.
+ * <p>
+ * Note that StdRandom is shared by all workers, so the random baseline
+ * pixels of a given image depend on the order in which workers run.
+ * @author James Pope
+ */
+public class BatchEngine
+{
+    private static final Metrics.Timer DECODE = Metrics.timer("batch_decode", "Batch decode stage, per image");
+    private static final Metrics.Timer SEAM   = Metrics.timer("batch_seam", "Batch seam stage, per image");
+    private static final Metrics.Timer RANDOM = Metrics.timer("batch_random", "Batch random baseline stage, per image");
+    private static final Metrics.Timer ENCODE = Metrics.timer("batch_encode", "Batch encode stage, per image");
+    private static final Metrics.Counter IMAGES   = Metrics.counter("batch_images", "Images written by batch runs");
+    private static final Metrics.Counter PIXELS   = Metrics.counter("batch_pixels", "Input pixels of the images written");
+    private static final Metrics.Counter FAILURES = Metrics.counter("batch_failures", "Images dropped after failing a stage");
+
+    private final int workers;
+    private final int ioThreads;
+    private final boolean virtualThreads;
+    private final int queueCapacity;
+    private String outputExtension = ".png";
+    private File inputCache;
+    private PngWriter pngWriter = new PngWriter(PngWriter.DEFAULT);
+    private int encoders;
+
+    // Per run state
+    private File outputdir;
+    private float[] levels;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder pixels = new LongAdder();
+    private final LongAdder decodeNanos  = new LongAdder();
+    private final LongAdder computeNanos = new LongAdder();
+    private final LongAdder encodeNanos  = new LongAdder();
+    private final LongAdder encodedFiles = new LongAdder();
+    private final LongAdder encodedBytes = new LongAdder();
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Creates new BatchEngine with specified parameters.
+     * @param workers number of threads for each of the seam and random stages
+     * @param ioThreads number of threads for each of the decode and encode stages,
+     *        see {@link #setEncoders(int)}
+     * @param virtualThreads whether to use virtual threads for decode
+     * @param queueCapacity number of images that may wait between two stages
+     */
+    public BatchEngine(int workers, int ioThreads, boolean virtualThreads, int queueCapacity)
+    {
+        if( workers < 1 || ioThreads < 1 || queueCapacity < 1 )
+        {
+            throw new IllegalArgumentException("Invalid batch engine configuration");
+        }
+        this.workers        = workers;
+        this.ioThreads      = ioThreads;
+        this.virtualThreads = virtualThreads;
+        this.queueCapacity  = queueCapacity;
+        this.encoders       = ioThreads;
+    }
+
+    /**
+     * Sets the deflate level of PNG outputs, e.g. {@link PngWriter#FASTEST}
+     * for intermediates.
+     * @param level 0 to 9, or {@link PngWriter#DEFAULT}
+     */
+    public void setPngCompression(int level)
+    {
+        this.pngWriter = new PngWriter(level);
+    }
+
+    /**
+     * Sets the number of threads in the encode pool.
+     * @param encoders
+     */
+    public void setEncoders(int encoders)
+    {
+        if( encoders < 1 )
+        {
+            throw new IllegalArgumentException("Invalid number of encoders " + encoders);
+        }
+        this.encoders = encoders;
+    }
+
+    /**
+     * Sets whether outputs are written as raw rasters rather than PNG.
+     * @param raw
+     */
+    public void setRawOutput(boolean raw)
+    {
+        this.outputExtension = raw ? RawRaster.EXTENSION : ".png";
+    }
+
+    /**
+     * Sets a directory in which decoded inputs are kept as raw rasters.  An
+     * input with a cached copy no older than itself is loaded from the
+     * cache instead of being decoded.
+     * @param dir cache directory, or null for no cache
+     */
+    public void setInputCache(File dir)
+    {
+        this.inputCache = dir;
+    }
+
+    /**
+     * Processes every input file, writing the _seam.png and _rand.png
+     * outputs to the output directory.  Blocks until all files are done.
+     * @param inputs
+     * @param outputdir
+     * @param p percentage of rows and columns to replace
+     * @return summary of the run
+     * @throws InterruptedException
+     */
+    public Summary run(List<File> inputs, File outputdir, float p)
+        throws InterruptedException
+    {
+        return run(inputs, outputdir, new float[]{ p });
+    }
+
+    /**
+     * Processes every input file at each of the percentages, writing
+     * _seam_pNN.png and _rand_pNN.png outputs for percentage NN (only
+     * _seam.png and _rand.png if there is a single percentage).
+     * @param inputs
+     * @param outputdir
+     * @param levels percentages of rows and columns to replace, ascending
+     * @return summary of the run
+     * @throws InterruptedException
+     */
+    public synchronized Summary run(List<File> inputs, File outputdir, float[] levels)
+        throws InterruptedException
+    {
+        for (int i = 1; i < levels.length; i++)
+        {
+            if( levels[i] < levels[i-1] )
+            {
+                throw new IllegalArgumentException("Percentages must be ascending " + Arrays.toString(levels));
+            }
+        }
+        this.outputdir = outputdir;
+        this.levels = levels.clone();
+        this.completed.reset();
+        this.pixels.reset();
+        this.decodeNanos.reset();
+        this.computeNanos.reset();
+        this.encodeNanos.reset();
+        this.encodedFiles.reset();
+        this.encodedBytes.reset();
+        this.failures.clear();
+
+        BlockingQueue<Job> files = new LinkedBlockingQueue<Job>();
+        for( File file : inputs ) files.add(new Job(file));
+        files.add(Job.END);
+
+        BlockingQueue<Job> decoded = new ArrayBlockingQueue<Job>(queueCapacity);
+        BlockingQueue<Job> seamed  = new ArrayBlockingQueue<Job>(queueCapacity);
+        BlockingQueue<Job> ready   = new ArrayBlockingQueue<Job>(queueCapacity);
+
+        ThreadFactory io      = ioThreadFactory(virtualThreads);
+        ThreadFactory compute = platformThreadFactory();
+
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<Thread>();
+        threads.addAll(stage("decode", files,   decoded, ioThreads, io,      decodeNanos,  DECODE, this::decode));
+        threads.addAll(stage("seam",   decoded, seamed,  workers,   compute, computeNanos, SEAM,   this::seam));
+        threads.addAll(stage("random", seamed,  ready,   workers,   compute, computeNanos, RANDOM, this::random));
+        threads.addAll(stage("encode", ready,   null,    encoders,  compute, encodeNanos,  ENCODE, this::encode));
+        for( Thread t : threads ) t.start();
+        for( Thread t : threads ) t.join();
+        long elapsed = System.nanoTime() - start;
+
+        return new Summary(completed.intValue(), new ArrayList<String>(failures), pixels.sum(), elapsed,
+                           decodeNanos.sum(), computeNanos.sum(), encodeNanos.sum(),
+                           encodedFiles.intValue(), encodedBytes.sum());
+    }
+
+    //------------------------------------------------------------------------//
+    // Stages
+    //------------------------------------------------------------------------//
+    private void decode(Job job) throws IOException
+    {
+        job.event = FlightEvents.EVENTS.beginImageJob();
+        if( inputCache == null || RawRaster.isRaw(job.file) )
+        {
+            job.input = new Picture(job.file);
+            return;
+        }
+        File cached = new File( inputCache, baseName(job.file) + RawRaster.EXTENSION );
+        if( cached.isFile() && cached.lastModified() >= job.file.lastModified() )
+        {
+            job.input = new Picture(cached);
+            return;
+        }
+        job.input = new Picture(job.file);
+
+        // Written aside, forced to disk and renamed, so a reader never sees half a file
+        File partial = new File( inputCache, baseName(job.file) + ".partial" + RawRaster.EXTENSION );
+        try
+        {
+            job.input.write(partial);
+            force(partial);
+        }
+        catch( IOException e )
+        {
+            partial.delete();
+            throw e;
+        }
+        if( !partial.renameTo(cached) )
+        {
+            cached.delete();
+            if( !partial.renameTo(cached) )
+            {
+                partial.delete();
+                throw new IOException("Could not rename " + partial + " to " + cached);
+            }
+        }
+    }
+
+    /**
+     * Flushes a written file to the storage device.
+     */
+    private static void force(File file) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        try
+        {
+            channel.force(true);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    private void seam(Job job)
+    {
+        Picture inputImg = job.input;
+        job.removeCols = new int[ levels.length ];
+        job.removeRows = new int[ levels.length ];
+        for (int i = 0; i < levels.length; i++)
+        {
+            job.removeCols[i] = Math.round( levels[i] * inputImg.width()  );
+            job.removeRows[i] = Math.round( levels[i] * inputImg.height() );
+        }
+        job.seam = ReplaceDemo.process( inputImg, job.removeCols, job.removeRows );
+    }
+
+    private void random(Job job)
+    {
+        Picture inputImg = job.input;
+
+        int[] seamPixels = new int[ levels.length ];
+        for (int i = 0; i < levels.length; i++)
+        {
+            // Estimate number of pixels changed in seam doppelanger
+            seamPixels[i] = (job.removeCols[i]*inputImg.width()) + (job.removeRows[i]*inputImg.height())
+                          - ( job.removeCols[i] + job.removeRows[i] );
+
+            // Debugging
+            int imagepositions = inputImg.width() * inputImg.height();
+            if( seamPixels[i] > imagepositions )
+            {
+                System.out.println("There is a problem: " + job.file.getName());
+                System.out.println("             width: " + inputImg.width());
+                System.out.println("            height: " + inputImg.height());
+                System.out.println("        seamPixels: " + seamPixels[i]);
+                System.out.println("    imagepositions: " + imagepositions);
+            }
+        }
+
+        // Nested, so each level's random pixels include the level below
+        job.rand = inputImg.replaceRandom( seamPixels );
+    }
+
+    private void encode(Job job) throws IOException
+    {
+        // NB: Save as PNG (or raw)
+        String filename = baseName(job.file);
+        for (int i = 0; i < levels.length; i++)
+        {
+            String suffix = suffix(i);
+            write( job.seam[i], new File( outputdir, filename + "_seam" + suffix + outputExtension ) );
+            write( job.rand[i], new File( outputdir, filename + "_rand" + suffix + outputExtension ) );
+        }
+
+        long n = (long) job.input.width() * job.input.height();
+        completed.increment();
+        pixels.add( n );
+        IMAGES.increment();
+        PIXELS.add( n );
+        FlightEvents.EVENTS.endImageJob( job.event, job.file.getPath(), job.input.width(), job.input.height(),
+                                         levels[levels.length-1] );
+    }
+
+    private void write(Picture picture, File file) throws IOException
+    {
+        if( RawRaster.isRaw(file) )
+        {
+            picture.write(file);
+            encodedBytes.add( file.length() );
+        }
+        else
+        {
+            encodedBytes.add( pngWriter.write(picture, file) );
+        }
+        encodedFiles.increment();
+    }
+
+    /**
+     * Output name suffix for a level, e.g. _p10 for 0.10, or none when
+     * there is only one level.
+     */
+    private String suffix(int level)
+    {
+        if( levels.length == 1 ) return "";
+        return String.format("_p%02d", Math.round( levels[level] * 100 ));
+    }
+
+    /**
+     * File name without its extension.
+     */
+    private static String baseName(File file)
+    {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0) ? name.substring(0, dot) : name;
+    }
+
+    //------------------------------------------------------------------------//
+    // Plumbing
+    //------------------------------------------------------------------------//
+    private interface Step
+    {
+        void apply(Job job) throws Exception;
+    }
+
+    /**
+     * Creates the threads of one stage.  Each takes jobs from in, applies the
+     * step, adding the time taken to busy and to timer, and passes the job
+     * to out.  The END marker is put back for the other threads of the
+     * stage, and the last thread to finish passes it on.
+     */
+    private List<Thread> stage(final String name, final BlockingQueue<Job> in, final BlockingQueue<Job> out,
+                               int n, ThreadFactory factory, final LongAdder busy,
+                               final Metrics.Timer timer, final Step step)
+    {
+        final AtomicInteger running = new AtomicInteger(n);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < n; i++)
+        {
+            Runnable r = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        while( true )
+                        {
+                            Job job = in.take();
+                            if( job == Job.END )
+                            {
+                                in.put(Job.END);
+                                break;
+                            }
+                            long start = System.nanoTime();
+                            try
+                            {
+                                step.apply(job);
+                            }
+                            catch( Exception e )
+                            {
+                                fail(job, name, e);
+                                continue;
+                            }
+                            finally
+                            {
+                                long nanos = System.nanoTime() - start;
+                                busy.add(nanos);
+                                timer.recordNanos(nanos);
+                            }
+                            if( out != null ) out.put(job);
+                        }
+                    }
+                    catch( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally
+                    {
+                        if( running.decrementAndGet() == 0 && out != null ) end(out);
+                    }
+                }
+            };
+            Thread t = factory.newThread(r);
+            t.setName(name + "-" + i);
+            threads.add(t);
+        }
+        return threads;
+    }
+
+    private static void end(BlockingQueue<Job> out)
+    {
+        try
+        {
+            out.put(Job.END);
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fail(Job job, String stage, Exception e)
+    {
+        String message = job.file + " failed in " + stage + ": " + e;
+        System.out.println(message);
+        failures.add(message);
+        FAILURES.increment();
+    }
+
+    private static ThreadFactory platformThreadFactory()
+    {
+        return new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                return new Thread(r);
+            }
+        };
+    }
+
+    /**
+     * Virtual thread factory if requested and available, found by reflection
+     * so that this still compiles and runs on Java 8.
+     */
+    private static ThreadFactory ioThreadFactory(boolean virtualThreads)
+    {
+        if( virtualThreads )
+        {
+            try
+            {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            }
+            catch( ReflectiveOperationException e )
+            {
+                System.out.println("Virtual threads not available, using platform threads");
+            }
+        }
+        return platformThreadFactory();
+    }
+
+    /**
+     * One image moving through the stages.
+     */
+    private static final class Job
+    {
+        static final Job END = new Job(null);
+
+        final File file;
+        Picture input;
+        Picture[] seam;             // one per level
+        Picture[] rand;
+        int[] removeCols;
+        int[] removeRows;
+        Object event;               // flight recorder image job, decode to encode
+
+        Job(File file)
+        {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Outcome of a run.
+     */
+    public static final class Summary
+    {
+        public final int images;
+        public final List<String> failures;
+        public final long pixels;
+        public final long elapsedNanos;
+        public final long decodeNanos;      // summed over the threads of the stage
+        public final long computeNanos;     // seam and random stages
+        public final long encodeNanos;
+        public final int encodedFiles;
+        public final long encodedBytes;
+
+        Summary(int images, List<String> failures, long pixels, long elapsedNanos,
+                long decodeNanos, long computeNanos, long encodeNanos, int encodedFiles, long encodedBytes)
+        {
+            this.images       = images;
+            this.failures     = failures;
+            this.pixels       = pixels;
+            this.elapsedNanos = elapsedNanos;
+            this.decodeNanos  = decodeNanos;
+            this.computeNanos = computeNanos;
+            this.encodeNanos  = encodeNanos;
+            this.encodedFiles = encodedFiles;
+            this.encodedBytes = encodedBytes;
+        }
+
+        public double imagesPerSecond()
+        {
+            return images / (elapsedNanos / 1e9);
+        }
+
+        public double pixelsPerSecond()
+        {
+            return pixels / (elapsedNanos / 1e9);
+        }
+
+        /**
+         * @return output files written per second of encode thread time
+         */
+        public double encodedFilesPerThreadSecond()
+        {
+            return encodedFiles / (encodeNanos / 1e9);
+        }
+
+        /**
+         * @return pixels seam processed per second of compute thread time
+         */
+        public double computedPixelsPerThreadSecond()
+        {
+            return pixels / (computeNanos / 1e9);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Processed %d images (%d failed) in %.2f s: %.2f images/sec, %.0f pixels/sec%n"
+                                 + "  decode  %8.2f thread-s%n"
+                                 + "  compute %8.2f thread-s, %.0f pixels/thread-s%n"
+                                 + "  encode  %8.2f thread-s, %d files (%.1f MB), %.2f files/thread-s",
+                                 images, failures.size(), elapsedNanos / 1e9,
+                                 imagesPerSecond(), pixelsPerSecond(),
+                                 decodeNanos / 1e9,
+                                 computeNanos / 1e9, computedPixelsPerThreadSecond(),
+                                 encodeNanos / 1e9, encodedFiles, encodedBytes / 1e6,
+                                 encodedFilesPerThreadSecond());
+        }
+    }
+}
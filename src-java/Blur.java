@@ -1,9 +1,11 @@
 /*************************************************************************
  *  Compilation:  javac Blur.java
- *  Execution:    java Blur input.png 5 1.0
+ *  Execution:    java Blur input.png 5 1.0 [iir]
  *  Dependencies: Picture.java Matrix.java
  *
  *  Reads image and applies Gaussian blur, saves blurred image to file.
+ *  Given iir, the blur is applied recursively (see RecursiveGaussian),
+ *  which is much faster for large kernels.
  *
  *************************************************************************/
 
@@ -11,16 +13,17 @@ public class Blur
 {
     public static void main(String[] args)
     {
-        if (args.length != 3)
+        if (args.length != 3 && !(args.length == 4 && args[3].equals("iir")))
         {
-            System.out.println("Usage:\njava Blur <image filename> <kernel size> <stdev>");
+            System.out.println("Usage:\njava Blur <image filename> <kernel size> <stdev> [iir]");
             return;
         }
 
         Picture origPicture = new Picture(        args[0] );
         int n               = Integer.parseInt(   args[1] );
         double s            = Double.parseDouble( args[2] );
-        Matrix kernel = KernelFactory.gaussianBlur(n,s);
+        Matrix kernel = (args.length == 4) ? KernelFactory.recursiveGaussian(n,s)
+                                           : KernelFactory.gaussianBlur(n,s);
 
 
         System.out.printf("Original image is %d columns by %d rows\n", origPicture.width(), origPicture.height());
@@ -0,0 +1,103 @@
+/**
+ * Exact seam search by dynamic programming.  One top to bottom pass builds
+ * the cumulative cost of the best seam ending at every pixel, recording for
+ * each pixel which of the three pixels above it was taken (-1, 0, +1) in a
+ * byte backpointer.  The seam is then recovered by backtracking from the
+ * best pixel in the last row.  This finds the true minimum (or maximum)
+ * seam in O(w*h).
+ * <p>
+ * Ties are broken towards the straight step, then west, then east, and
+ * towards the lowest column in the last row.  This is not the preference
+ * of {@link GreedySeamFinder}: when west and east tie and both beat
+ * straight, this steps west where the greedy walk goes straight, so equal
+ * energy seams from the two may differ.
+ * <p>
+ * For the maximum seam, border pixels count as 0 energy (as in the greedy
+ * search) so that the seam does not simply hug the left or right edge.
+ * <p>
+ * The cost rows and backpointers are borrowed from a
+ * {@link SeamWorkspace}, so repeated searches do not allocate.  Costs are
+ * longs, so they do not overflow however tall the picture.
+ * @author James Pope
+ */
+public class DynamicSeamFinder implements SeamFinder
+{
+    private static final byte WEST     = -1;
+    private static final byte STRAIGHT =  0;
+    private static final byte EAST     =  1;
+
+    @Override
+    public void findMinimumSeam(int[] e, int w, int h, SeamWorkspace ws, int[] seam)
+    {
+        findSeam(e, w, h, ws, seam, false);
+    }
+
+    @Override
+    public void findMaximumSeam(int[] e, int w, int h, SeamWorkspace ws, int[] seam)
+    {
+        findSeam(e, w, h, ws, seam, true);
+    }
+
+    private static void findSeam(int[] e, int w, int h, SeamWorkspace ws, int[] seam, boolean largest)
+    {
+        // Only two rows of cumulative cost are needed, the choices are kept
+        byte[] back = ws.backpointers(w*h);
+        long[] cost = ws.costs(w);
+        int prev = 0;
+        int curr = w;
+
+        for (int x = 0; x < w; x++)
+        {
+            cost[prev+x] = cost(e[x], largest);
+        }
+
+        for (int y = 1; y < h; y++)
+        {
+            int base = y*w;
+            for (int x = 0; x < w; x++)
+            {
+                long best = cost[prev+x];
+                byte step = STRAIGHT;
+                if( x > 0 && better(cost[prev+x-1], best, largest) )
+                {
+                    best = cost[prev+x-1];
+                    step = WEST;
+                }
+                if( x < w-1 && better(cost[prev+x+1], best, largest) )
+                {
+                    best = cost[prev+x+1];
+                    step = EAST;
+                }
+                cost[curr+x] = best + cost(e[base+x], largest);
+                back[base+x] = step;
+            }
+            int t = prev; prev = curr; curr = t;
+        }
+
+        // Best end point in the last row
+        int x = 0;
+        for (int i = 1; i < w; i++)
+        {
+            if( better(cost[prev+i], cost[prev+x], largest) ) x = i;
+        }
+
+        // Backtrack
+        for (int y = h-1; y > 0; y--)
+        {
+            seam[y] = x;
+            x += back[y*w+x];
+        }
+        seam[0] = x;
+    }
+
+    private static int cost(int energy, boolean largest)
+    {
+        if( largest && energy == SeamDoppelganger.BORDER_ENERGY ) return 0;
+        return energy;
+    }
+
+    private static boolean better(long a, long b, boolean largest)
+    {
+        return largest ? a > b : a < b;
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Hooks for Java Flight Recorder events: an image job, a seam iteration,
+ * an energy map rebuild and a filter application.  Each is a begin call,
+ * returning a handle, and an end call given the handle and the event's
+ * fields.
+ * <p>
+ * This class does nothing, so the calls cost nothing once inlined.  The
+ * events themselves are jdk.jfr.Event types in src-java-jfr, which needs
+ * Java 11 or later and is compiled by the Maven build when it runs on such
+ * a JDK.  When they are present {@link #EVENTS} is the JFR implementation
+ * instead, found by reflection so that this still compiles and runs on
+ * Java 8.  The events are disabled by default; a recording enables them
+ * through its settings, e.g.
+ * <pre>
+ * java -XX:StartFlightRecording:filename=run.jfr,settings=default,settings=src-java-jfr/seam.jfc ...
+ * </pre>
+ * and then end calls also compute fields, such as a seam's energy, that
+ * are not otherwise needed.
+ * @author James Pope
+ */
+class FlightEvents
+{
+    private static final String JFR_EVENTS = "JfrFlightEvents";
+
+    /** Where the hooks go, the JFR events if they are available */
+    static final FlightEvents EVENTS = create();
+
+    FlightEvents()
+    {
+    }
+
+    private static FlightEvents create()
+    {
+        // Same package as this class, which is "seam" in the benchmarks
+        String name = FlightEvents.class.getName();
+        name = name.substring(0, name.lastIndexOf('.') + 1) + JFR_EVENTS;
+        try
+        {
+            return (FlightEvents) Class.forName(name).getDeclaredConstructor().newInstance();
+        }
+        catch( ReflectiveOperationException | LinkageError | RuntimeException e )
+        {
+            // Not compiled in, or a JVM without jdk.jfr
+            return new FlightEvents();
+        }
+    }
+
+    /**
+     * @return handle for {@link #endImageJob}, may be null
+     */
+    Object beginImageJob()
+    {
+        return null;
+    }
+
+    /**
+     * An image read, seam processed and written.
+     * @param event handle from {@link #beginImageJob()}
+     * @param file input file
+     * @param width
+     * @param height
+     * @param percentage largest percentage of rows and columns replaced, e.g. 0.1
+     */
+    void endImageJob(Object event, String file, int width, int height, float percentage)
+    {
+    }
+
+    /**
+     * @return handle for {@link #endSeamIteration}, may be null
+     */
+    Object beginSeamIteration()
+    {
+        return null;
+    }
+
+    /**
+     * A seam found, including bringing the energy map up to date.
+     * @param event handle from {@link #beginSeamIteration()}
+     * @param vertical orientation of the seam
+     * @param index number of seams found before this one, by the same carver
+     * @param e energy map searched, row-major
+     * @param columns number of columns of e
+     * @param seam column in each row of e
+     */
+    void endSeamIteration(Object event, boolean vertical, int index, int[] e, int columns, int[] seam)
+    {
+    }
+
+    /**
+     * @return handle for {@link #endEnergyRebuild}, may be null
+     */
+    Object beginEnergyRebuild()
+    {
+        return null;
+    }
+
+    /**
+     * An energy map computed from scratch.
+     * @param event handle from {@link #beginEnergyRebuild()}
+     * @param width
+     * @param height
+     */
+    void endEnergyRebuild(Object event, int width, int height)
+    {
+    }
+
+    /**
+     * @return handle for {@link #endFilter}, may be null
+     */
+    Object beginFilter()
+    {
+        return null;
+    }
+
+    /**
+     * A convolution filter applied to a picture or a matrix.
+     * @param event handle from {@link #beginFilter()}
+     * @param kernelSize rows (and columns) of the kernel
+     * @param separable whether applied as two 1-D passes
+     * @param width columns of the picture or matrix
+     * @param height rows of the picture or matrix
+     */
+    void endFilter(Object event, int kernelSize, boolean separable, int width, int height)
+    {
+    }
+
+    /**
+     * @return total energy of a seam through a row-major energy map
+     */
+    static long seamEnergy(int[] e, int columns, int[] seam)
+    {
+        long sum = 0;
+        for (int i = 0; i < seam.length; i++) sum += e[i*columns + seam[i]];
+        return sum;
+    }
+}
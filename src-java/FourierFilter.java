@@ -0,0 +1,363 @@
+import java.util.Arrays;
+
+/**
+ * Correlates a matrix with an arbitrary square kernel through the fast
+ * Fourier transform, for kernels too large to apply directly and not
+ * separable.  The image is cut into square blocks, and each block is
+ * zero padded to a power of two, transformed, multiplied by the spectrum
+ * of the kernel and transformed back.  The results of overlapping blocks
+ * are added together (overlap-add), so only one padded block is held at a
+ * time however large the image.  The cost per entry grows with the log of
+ * the block size rather than with n^2.
+ * <p>
+ * The transforms are real-to-complex: each row of a block is transformed
+ * as a complex sequence of half the length, giving the half plus one
+ * bins that determine a real signal's spectrum, and only those columns are
+ * then transformed.  The block size is chosen for each image and kernel to
+ * minimise the work, counting the padding of the blocks at the edges.
+ * <p>
+ * The result is that of the direct correlation in
+ * {@link Matrix#applyFilter} up to rounding, which is relative to the
+ * largest values rather than to each result.  A filter keeps its block
+ * between calls and is not thread safe.
+ * @author James Pope
+ */
+public class FourierFilter
+{
+    /**
+     * Kernel size from which {@link Matrix#applyFilter} uses this for
+     * kernels that are not separable.  In ConvolutionBenchmark the FFT is
+     * level with the direct loop of a Matrix at 7 and ahead from 9.
+     */
+    public static final int CROSSOVER = 9;
+
+    /**
+     * Kernel size from which {@link Picture#applyFilter} uses this for
+     * kernels that are not separable.  The direct loop of a Picture works
+     * on each channel of a packed pixel, so it is dearer than that of a
+     * Matrix.  In ConvolutionBenchmark it is ahead at 3, and the FFT is
+     * ahead from 5.
+     */
+    public static final int PICTURE_CROSSOVER = 5;
+
+    private final int n;            // kernel size
+    private final int size;         // block size once padded, a power of two
+    private final int block;        // image entries per block side
+    private final int half;         // bins per row of a spectrum, size/2 + 1
+
+    /* cos and sin of 2 pi k / size, for k < size/2 */
+    private final double[] cos;
+    private final double[] sin;
+
+    /* Spectrum of the flipped kernel, size rows of half bins, scaled by
+       1 / (size * size/2) to undo the inverse transforms */
+    private final double[] kr;
+    private final double[] ki;
+
+    /* Spectrum of the current block, and one row of it */
+    private final double[] re;
+    private final double[] im;
+    private final double[] zr;
+    private final double[] zi;
+    private final double[] line;
+
+    /**
+     * Prepares to correlate rows-by-cols matrices with a kernel.
+     * @param kernel square kernel
+     * @param transposed whether kernel entry (i, j) weights row offset j and
+     *        column offset i, as in {@link Picture#applyFilter}, rather than
+     *        row offset i and column offset j
+     * @param rows rows of the matrices filtered
+     * @param cols columns of the matrices filtered
+     */
+    FourierFilter(Matrix kernel, boolean transposed, int rows, int cols)
+    {
+        this.n = kernel.getRowSize();
+        this.size = blockSize(n, rows, cols);
+        this.block = size - n + 1;
+        this.half = size/2 + 1;
+
+        this.cos = new double[size/2];
+        this.sin = new double[size/2];
+        for (int k = 0; k < size/2; k++)
+        {
+            double angle = 2.0 * Math.PI * k / size;
+            cos[k] = Math.cos(angle);
+            sin[k] = Math.sin(angle);
+        }
+
+        this.re = new double[size*half];
+        this.im = new double[size*half];
+        this.zr = new double[size/2];
+        this.zi = new double[size/2];
+        this.line = new double[size];
+
+        // Correlation is convolution with the kernel flipped both ways
+        double[] k = new double[size*size];
+        for (int i = 0; i < n; i++)
+        {
+            for (int j = 0; j < n; j++)
+            {
+                double v = transposed ? kernel.get(j, i) : kernel.get(i, j);
+                k[(n-1-i)*size + (n-1-j)] = v;
+            }
+        }
+        forward(k, 0, size, n, n);
+        double scale = 1.0 / ((double) size * (size/2));
+        this.kr = new double[size*half];
+        this.ki = new double[size*half];
+        for (int i = 0; i < kr.length; i++)
+        {
+            kr[i] = re[i] * scale;
+            ki[i] = im[i] * scale;
+        }
+    }
+
+    /**
+     * @return side of the padded blocks transformed
+     */
+    public int blockSize()
+    {
+        return this.size;
+    }
+
+    /**
+     * Correlates the rows-by-cols matrix whose entry (r, c) is
+     * src[offset + r*stride + c] with the kernel, adding the sums into
+     * dst, rows-by-cols with no gaps.  As in {@link Matrix#applyFilter},
+     * entry (r, c) of the result weights the entries from half a kernel
+     * before, and only entries at least half a kernel from the border are
+     * written.
+     */
+    void correlate(double[] src, int offset, int stride, int rows, int cols, double[] dst)
+    {
+        int mp = n / 2;
+        int lag = n - 1 - mp;       // full convolution (p, q) is result (p - lag, q - lag)
+        for (int r0 = 0; r0 < rows; r0 += block)
+        {
+            int h = Math.min(block, rows - r0);
+            for (int c0 = 0; c0 < cols; c0 += block)
+            {
+                int w = Math.min(block, cols - c0);
+                forward(src, offset + r0*stride + c0, stride, h, w);
+                for (int i = 0; i < re.length; i++)
+                {
+                    double a = re[i];
+                    double b = im[i];
+                    re[i] = a*kr[i] - b*ki[i];
+                    im[i] = a*ki[i] + b*kr[i];
+                }
+                transformColumns(true);
+
+                // Block convolution (p, q) lies at r0 + p, c0 + q of the full one
+                int top    = Math.max(0, mp + lag - r0);
+                int bottom = Math.min(h + n - 1, rows - mp + lag - r0);
+                int left   = Math.max(0, mp + lag - c0);
+                int right  = Math.min(w + n - 1, cols - mp + lag - c0);
+                for (int p = top; p < bottom; p++)
+                {
+                    inverseRow(p);
+                    int d = (r0 + p - lag)*cols + c0 - lag;
+                    for (int q = left; q < right; q++)
+                    {
+                        dst[d+q] += line[q];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Transforms the h-by-w block at src[offset], zero padded to size by
+     * size, into re and im.
+     */
+    private void forward(double[] src, int offset, int stride, int h, int w)
+    {
+        int m = size / 2;
+        for (int p = 0; p < size; p++)
+        {
+            int o = p*half;
+            if( p >= h )
+            {
+                Arrays.fill(re, o, o + half, 0.0);
+                Arrays.fill(im, o, o + half, 0.0);
+                continue;
+            }
+
+            // Even entries as real parts, odd as imaginary
+            int s = offset + p*stride;
+            for (int k = 0; k < m; k++)
+            {
+                zr[k] = (2*k   < w) ? src[s + 2*k]   : 0.0;
+                zi[k] = (2*k+1 < w) ? src[s + 2*k+1] : 0.0;
+            }
+            fft(zr, zi, m, false);
+
+            // Untangle the spectra of the even and odd entries
+            re[o]   = zr[0] + zi[0];
+            im[o]   = 0.0;
+            re[o+m] = zr[0] - zi[0];
+            im[o+m] = 0.0;
+            for (int k = 1; k < m; k++)
+            {
+                double ar = zr[k],   ai = zi[k];
+                double br = zr[m-k], bi = zi[m-k];
+                double er = 0.5*(ar + br), ei = 0.5*(ai - bi);
+                double fr = 0.5*(ai + bi), fi = -0.5*(ar - br);
+                double wr = cos[k], wi = -sin[k];
+                re[o+k] = er + wr*fr - wi*fi;
+                im[o+k] = ei + wr*fi + wi*fr;
+            }
+        }
+        transformColumns(false);
+    }
+
+    /**
+     * Inverse transforms row p of re and im, whose columns are already
+     * inverse transformed, into line.
+     */
+    private void inverseRow(int p)
+    {
+        int m = size / 2;
+        int o = p*half;
+        for (int k = 0; k < m; k++)
+        {
+            double ar = re[o+k],   ai = im[o+k];
+            double br = re[o+m-k], bi = im[o+m-k];
+            double er = 0.5*(ar + br), ei = 0.5*(ai - bi);
+            double gr = 0.5*(ar - br), gi = 0.5*(ai + bi);
+            double wr = cos[k], wi = sin[k];
+            double fr = gr*wr - gi*wi;
+            double fi = gr*wi + gi*wr;
+            zr[k] = er - fi;
+            zi[k] = ei + fr;
+        }
+        fft(zr, zi, m, true);
+        for (int k = 0; k < m; k++)
+        {
+            line[2*k]   = zr[k];
+            line[2*k+1] = zi[k];
+        }
+    }
+
+    /**
+     * In place radix-2 transform of the first length entries of ar and ai,
+     * unscaled, length dividing size.
+     */
+    private void fft(double[] ar, double[] ai, int length, boolean inverse)
+    {
+        for (int i = 1, j = 0; i < length; i++)
+        {
+            int bit = length >> 1;
+            for (; (j & bit) != 0; bit >>= 1) j ^= bit;
+            j ^= bit;
+            if( i < j )
+            {
+                double t = ar[i]; ar[i] = ar[j]; ar[j] = t;
+                t = ai[i]; ai[i] = ai[j]; ai[j] = t;
+            }
+        }
+        for (int len = 2; len <= length; len <<= 1)
+        {
+            int h = len >> 1;
+            int step = size / len;
+            for (int i = 0; i < length; i += len)
+            {
+                for (int j = 0; j < h; j++)
+                {
+                    double wr = cos[j*step];
+                    double wi = inverse ? sin[j*step] : -sin[j*step];
+                    int u = i + j;
+                    int v = u + h;
+                    double xr = ar[v]*wr - ai[v]*wi;
+                    double xi = ar[v]*wi + ai[v]*wr;
+                    ar[v] = ar[u] - xr;
+                    ai[v] = ai[u] - xi;
+                    ar[u] += xr;
+                    ai[u] += xi;
+                }
+            }
+        }
+    }
+
+    /**
+     * In place radix-2 transform down every column of re and im, unscaled.
+     * The butterflies combine whole rows, so the spectrum is read in order.
+     */
+    private void transformColumns(boolean inverse)
+    {
+        for (int i = 1, j = 0; i < size; i++)
+        {
+            int bit = size >> 1;
+            for (; (j & bit) != 0; bit >>= 1) j ^= bit;
+            j ^= bit;
+            if( i < j )
+            {
+                swapRows(re, i, j);
+                swapRows(im, i, j);
+            }
+        }
+        for (int len = 2; len <= size; len <<= 1)
+        {
+            int h = len >> 1;
+            int step = size / len;
+            for (int i = 0; i < size; i += len)
+            {
+                for (int j = 0; j < h; j++)
+                {
+                    double wr = cos[j*step];
+                    double wi = inverse ? sin[j*step] : -sin[j*step];
+                    int u = (i + j)*half;
+                    int v = u + h*half;
+                    for (int c = 0; c < half; c++)
+                    {
+                        double xr = re[v+c]*wr - im[v+c]*wi;
+                        double xi = re[v+c]*wi + im[v+c]*wr;
+                        re[v+c] = re[u+c] - xr;
+                        im[v+c] = im[u+c] - xi;
+                        re[u+c] += xr;
+                        im[u+c] += xi;
+                    }
+                }
+            }
+        }
+    }
+
+    private void swapRows(double[] a, int i, int j)
+    {
+        int u = i*half;
+        int v = j*half;
+        for (int c = 0; c < half; c++)
+        {
+            double t = a[u+c]; a[u+c] = a[v+c]; a[v+c] = t;
+        }
+    }
+
+    /**
+     * Padded block size with the least work for the image: each block
+     * costs about size^2 log(size), and the image needs one per block of
+     * size - n + 1 entries a side.  Blocks beyond four times the kernel
+     * save little and only cost memory.
+     */
+    static int blockSize(int n, int rows, int cols)
+    {
+        int smallest = 4;
+        while( smallest < n + 1 ) smallest <<= 1;
+        int largest = 4*smallest;
+        int best = smallest;
+        double bestCost = Double.MAX_VALUE;
+        for (int f = smallest; f <= largest; f <<= 1)
+        {
+            int b = f - n + 1;
+            double blocks = (double) ((rows + b - 1) / b) * ((cols + b - 1) / b);
+            double cost = blocks * f * f * (Integer.numberOfTrailingZeros(f) + 1);
+            if( cost < bestCost )
+            {
+                bestCost = cost;
+                best = f;
+            }
+            if( b >= rows && b >= cols ) break;
+        }
+        return best;
+    }
+}
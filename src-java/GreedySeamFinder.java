@@ -0,0 +1,291 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Original seam search.  From every start column it walks down greedily,
+ * always stepping to the smallest (or largest) of the three pixels below,
+ * then keeps the path with the best total energy.  This costs O(w*h) per
+ * start column, so O(w*w*h) per seam, and is not guaranteed to find the
+ * true minimum seam.  Kept so that results can be compared against
+ * {@link DynamicSeamFinder}.
+ * <p>
+ * Start columns are independent, so they are split across a fork/join
+ * pool and combined with a min (or max) reduction.  The best complete seam
+ * energy found so far is shared through an atomic and a walk is abandoned
+ * as soon as it can no longer beat it.  Ties go to the lowest start
+ * column, so the result is the same as a sequential scan.  Path energies
+ * are summed as longs, so they do not overflow on very tall pictures.
+ * <p>
+ * The search needs no buffers, but the fork/join tasks are allocated
+ * afresh for every seam.
+ * @author James Pope
+ */
+public class GreedySeamFinder implements SeamFinder
+{
+    /** Start columns walked by one task before it stops splitting */
+    private static final int THRESHOLD = 16;
+
+    /** Largest possible energy of any single pixel, dx^2 + dy^2 */
+    private static final long MAX_PIXEL_ENERGY = 2L * SeamDoppelganger.BORDER_ENERGY;
+
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a greedy finder that runs on the common fork/join pool.
+     */
+    public GreedySeamFinder()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a greedy finder that runs on the specified pool.
+     * @param pool
+     */
+    public GreedySeamFinder(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    @Override
+    public void findMinimumSeam(int[] e, int w, int h, SeamWorkspace ws, int[] seam)
+    {
+        AtomicLong bound = new AtomicLong(Long.MAX_VALUE);
+        Best best = pool.invoke(new Search(e, w, h, 0, w, false, bound));
+        leastShortestPath(e, w, h, best.column, seam);
+    }
+
+    @Override
+    public void findMaximumSeam(int[] e, int w, int h, SeamWorkspace ws, int[] seam)
+    {
+        AtomicLong bound = new AtomicLong(Long.MIN_VALUE);
+        Best best = pool.invoke(new Search(e, w, h, 0, w, true, bound));
+        greatestShortestPath(e, w, h, best.column, seam);
+    }
+
+    /**
+     * Energy and start column of a complete walk.  A walk abandoned because
+     * it cannot beat the bound gives null.
+     */
+    private static final class Best
+    {
+        final long energy;
+        final int column;
+
+        Best(long energy, int column)
+        {
+            this.energy = energy;
+            this.column = column;
+        }
+    }
+
+    /**
+     * @return the better of two results, the lower column on a tie
+     */
+    private static Best better(Best a, Best b, boolean largest)
+    {
+        if( a == null ) return b;
+        if( b == null ) return a;
+        if( a.energy != b.energy )
+        {
+            return ((a.energy > b.energy) == largest) ? a : b;
+        }
+        return (a.column <= b.column) ? a : b;
+    }
+
+    /**
+     * Walks start columns [lo, hi), splitting the range while it is large.
+     */
+    private static class Search extends RecursiveTask<Best>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] e;
+        private final int w, h;
+        private final int lo, hi;
+        private final boolean largest;
+        private final AtomicLong bound;
+
+        Search(int[] e, int w, int h, int lo, int hi, boolean largest, AtomicLong bound)
+        {
+            this.e = e;
+            this.w = w;
+            this.h = h;
+            this.lo = lo;
+            this.hi = hi;
+            this.largest = largest;
+            this.bound = bound;
+        }
+
+        @Override
+        protected Best compute()
+        {
+            if( hi - lo <= THRESHOLD )
+            {
+                Best best = null;
+                for (int x = lo; x < hi; x++)
+                {
+                    Best r = largest ? walkGreatest(e, w, h, x, bound) : walkLeast(e, w, h, x, bound);
+                    best = better(best, r, largest);
+                }
+                return best;
+            }
+            int mid = (lo + hi) >>> 1;
+            Search left = new Search(e, w, h, lo, mid, largest, bound);
+            left.fork();
+            Best right = new Search(e, w, h, mid, hi, largest, bound).compute();
+            return better(left.join(), right, largest);
+        }
+    }
+
+    /**
+     * Walks the least path from s without storing it.
+     * @return energy and start column, or null if pruned
+     */
+    private static Best walkLeast(int[] e, int w, int h, int s, AtomicLong bound)
+    {
+        int x = s;
+        long sum = e[x];
+        for (int y = 1; y < h; y++)
+        {
+            // Energies are not negative, so once past the bound it stays past
+            if( sum > bound.get() ) return null;
+            x = nextLeast(e, y*w, x, w);
+            sum += e[y*w+x];
+        }
+        if( sum > bound.get() ) return null;
+        bound.accumulateAndGet(sum, Math::min);
+        return new Best(sum, s);
+    }
+
+    /**
+     * Walks the greatest path from s without storing it.
+     * @return energy and start column, or null if pruned
+     */
+    private static Best walkGreatest(int[] e, int w, int h, int s, AtomicLong bound)
+    {
+        int x = s;
+        long sum = e[x];
+        for (int y = 1; y < h; y++)
+        {
+            // Even the largest possible remaining energy cannot catch up
+            if( sum + (h-y) * MAX_PIXEL_ENERGY < bound.get() ) return null;
+            x = nextGreatest(e, y*w, x, w);
+            sum += e[y*w+x];
+        }
+        if( sum < bound.get() ) return null;
+        bound.accumulateAndGet(sum, Math::max);
+        return new Best(sum, s);
+    }
+
+    /**
+     * Gets the energy values along the specified path.
+     * @param e energy, e[row*w + column]
+     * @param w
+     * @param a
+     * @return
+     */
+    static long pathEnergy(int[] e, int w, int[] a)
+    {
+        long s = 0;
+        for (int y = 0; y < a.length; y++)
+        {
+            s += e[y*w+a[y]];
+        }
+        return s;
+    }
+
+    /**
+     * Find the path of least energy from top to bottom.
+     * @param e energy, e[row*w + column]
+     * @param w
+     * @param h
+     * @param s
+     * @param sp receives the path, length at least h
+     */
+    static void leastShortestPath(int[] e, int w, int h, int s, int[] sp)
+    {
+        int x = s;
+        sp[0] = x;
+        for (int y = 1; y < h; y++)
+        {
+            x = nextLeast(e, y*w, x, w);
+            sp[y] = x;
+        }
+    }
+
+    /**
+     * Find the path of greatest energy from top to bottom.
+     * @param e energy, e[row*w + column]
+     * @param w
+     * @param h
+     * @param s
+     * @param sp receives the path, length at least h
+     */
+    static void greatestShortestPath(int[] e, int w, int h, int s, int[] sp)
+    {
+        if( s == w )
+        {
+            String err = String.format("Specified width s %d is width of energy %d", s, w);
+            throw new IllegalArgumentException(err);
+        }
+
+        int x = s;
+        sp[0] = x;
+        for (int y = 1; y < h; y++)
+        {
+            x = nextGreatest(e, y*w, x, w);
+            sp[y] = x;
+        }
+    }
+
+    /**
+     * Chooses the next column from x, stepping to the strictly smallest of
+     * the three pixels below, otherwise straight down.
+     * @param e energy
+     * @param below index of the first pixel of the next row
+     * @param x
+     * @param w
+     * @return next column
+     */
+    private static int nextLeast(int[] e, int below, int x, int w)
+    {
+        // Southwest edge
+        int sw = (x > 0) ?   e[below+x-1] : Integer.MAX_VALUE;
+        int ss = e[below+x];
+        int se = (x < w-1) ? e[below+x+1] : Integer.MAX_VALUE;
+
+        if( sw < ss && sw < se ) return x-1;
+        if( se < sw && se < ss ) return x+1;
+        return x;
+    }
+
+    /**
+     * Chooses the next column from x, stepping to the strictly largest of
+     * the three pixels below, otherwise straight down.  Border pixels count
+     * as 0 so that the path does not run along the edge.
+     * @param e energy
+     * @param below index of the first pixel of the next row
+     * @param x
+     * @param w
+     * @return next column
+     */
+    private static int nextGreatest(int[] e, int below, int x, int w)
+    {
+        // Southwest edge
+        int sw = (x > 0) ?   e[below+x-1] : Integer.MIN_VALUE;
+        int ss = e[below+x];
+        int se = (x < w-1) ? e[below+x+1] : Integer.MIN_VALUE;
+
+        // If edge, set to 0
+        if( sw == SeamDoppelganger.BORDER_ENERGY ) sw = 0;
+        if( ss == SeamDoppelganger.BORDER_ENERGY ) ss = 0;
+        if( se == SeamDoppelganger.BORDER_ENERGY ) se = 0;
+
+        if( sw > ss && sw > se ) return x-1;
+        if( se > sw && se > ss ) return x+1;
+        return x;
+    }
+}
@@ -13,6 +13,10 @@ public class KernelFactory
      * My approach  is based on
      * https://en.wikipedia.org/wiki/Gaussian_blur
      *
+     * The Gaussian is separable, so the kernel is returned as a
+     * {@link SeparableKernel} whose factors are the 1-D Gaussian
+     * 1 / sqrt(2 pi s^2) exp(-a^2 / 2 s^2).
+     *
      * @param n
      * @param sigma - sigma value in Gaussian function
      * @return matrix containing the spatial filter
@@ -47,7 +51,15 @@ public class KernelFactory
             }
         }
         
-        return gmat;
+        // One dimensional factors, the product of which is the above
+        double coeff1 = 1.0 / Math.sqrt( 2.0*Math.PI*sigma*sigma );
+        double[] g = new double[n];
+        for( int x = 0; x < n; x++ )
+        {
+            int a = x - n / 2;
+            g[x] = coeff1 * Math.exp( -(a*a) / twoSigma2 );
+        }
+        return new SeparableKernel(gmat, g, g);
     }
     
     public static Matrix gaussianBlur(double sigma)
@@ -59,6 +71,27 @@ public class KernelFactory
         return gaussianBlur(n, sigma);
     }
     
+    /**
+     * Gaussian blur applied recursively, see {@link RecursiveGaussian}.  It
+     * costs the same per pixel for any sigma, where the kernel returned by
+     * {@link #gaussianBlur(int, double)} costs O(n) per pixel, and gives
+     * nearly the same result.  The size n sets the border band left
+     * unfiltered and the total weight, as for the FIR kernel.
+     *
+     * @param n
+     * @param sigma - sigma value in Gaussian function, at least 0.5
+     * @return matrix containing the spatial filter
+     */
+    public static Matrix recursiveGaussian(int n, double sigma)
+    {
+        return new RecursiveGaussian( (SeparableKernel)gaussianBlur(n, sigma), sigma );
+    }
+    
+    public static Matrix recursiveGaussian(double sigma)
+    {
+        return new RecursiveGaussian( (SeparableKernel)gaussianBlur(sigma), sigma );
+    }
+    
     public static Matrix verticalLineFilter( int n, double sigma )
     {
         //double[][] lineRemovalFilter1 =
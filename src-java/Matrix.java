@@ -1,5 +1,13 @@
 import java.awt.Color;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 
 /**
  * <P>
@@ -16,15 +24,54 @@ import java.lang.reflect.Method;
  * No liability for damage can extend to the author of this library. Use at your
  * own risk.</P>
  *
+ * <P>
+ * Elements are held row by row in one flat array: element (row, col) is
+ * data[offset + row*stride + col].  A matrix made by a constructor or an
+ * operation owns its array, with offset 0 and stride equal to the number
+ * of columns.  {@link #crop}, {@link #row} and {@link #column} instead
+ * return views that share the array of the matrix they come from, so
+ * setting an element of either is seen by both.  Element-wise operations
+ * run as one loop over the elements, first copying an operand that is a
+ * view with gaps between its rows.</P>
+ *
+ * <P>
+ * {@link #map}, {@link #mapInPlace} and {@link #zipWith} apply a lambda to
+ * every element, and {@link #mask} compares every element with a value.
+ * Matrices of {@value #PARALLEL_THRESHOLD} elements or more are split into
+ * blocks of rows run on the common fork/join pool, so the lambdas must not
+ * depend on the order in which elements are visited.</P>
+ *
+ * <P>
+ * Each arithmetic operation returns a new matrix, so a chain of them
+ * writes and reads a whole intermediate matrix per step.  {@link #lazy()}
+ * instead records the steps and runs them fused, in one pass over memory:
+ * <pre>
+ * Matrix n = m.lazy().substract(min).multiply(scale).add(x).evaluate();
+ * </pre></P>
+ *
  * @author Tennessee Carmel-Veilleux (http://www.tentech.ca)
  */
 public class Matrix
 {
 
+    /** Elements from which map, zipWith and mask run in parallel */
+    public static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    /** Elements given to one fork/join task */
+    private static final int GRAIN = 1 << 14;
+
     /**
-     * Contents of Matrix
+     * Contents of Matrix, possibly shared with other views
      */
-    private double[][] data;
+    private double[] data;
+    /**
+     * Index in data of element (0, 0)
+     */
+    private int offset;
+    /**
+     * Distance in data between the starts of successive rows
+     */
+    private int stride;
     /**
      * Number of rows
      */
@@ -41,21 +88,32 @@ public class Matrix
      */
     public Matrix(int nRows, int nCols)
     {
-        this.data = new double[nRows][nCols];
-        this.nRows = nRows;
-        this.nCols = nCols;
+        this(new double[nRows*nCols], 0, nCols, nRows, nCols);
     }
     
     /**
-     * Constructor from dimensions with no contents initialization
-     * @param data
+     * Constructor from the contents of a 2-D array, which are copied
+     * @param data - data[row][col], all rows the same length
      */
     public Matrix(double[][] data)
     {
-        // CONSIDER MAKING DEFENSIVE COPY?
+        this(data.length, data[0].length);
+        for (int i = 0; i < nRows; i++)
+        {
+            System.arraycopy(data[i], 0, this.data, i*nCols, nCols);
+        }
+    }
+
+    /**
+     * View of part of an array.
+     */
+    private Matrix(double[] data, int offset, int stride, int nRows, int nCols)
+    {
         this.data = data;
-        this.nRows = data.length;
-        this.nCols = data[0].length;
+        this.offset = offset;
+        this.stride = stride;
+        this.nRows = nRows;
+        this.nCols = nCols;
     }
 
     /**
@@ -76,12 +134,15 @@ public class Matrix
      */
     public Matrix(Matrix copy)
     {
-        this.nRows = copy.getRowSize();
-        this.nCols = copy.getColumnSize();
-        this.data = new double[nRows][nCols];
-        for (int i = 0; i < this.data.length; i++)
+        this(copy.getRowSize(), copy.getColumnSize());
+        if( copy.isContiguous() )
         {
-            System.arraycopy(copy.data[i], 0, this.data[i], 0, this.data[0].length);
+            System.arraycopy(copy.data, copy.offset, this.data, 0, this.data.length);
+            return;
+        }
+        for (int i = 0; i < nRows; i++)
+        {
+            System.arraycopy(copy.data, copy.index(i, 0), this.data, i*nCols, nCols);
         }
     }
 
@@ -133,7 +194,7 @@ public class Matrix
      */
     public double get(int row, int col)
     {
-        return data[row][col];
+        return data[index(row, col)];
     }
 
     /**
@@ -147,7 +208,7 @@ public class Matrix
     {
         int row = index / this.nCols;
         int col = index % this.nCols;
-        return data[row][col];
+        return data[index(row, col)];
     }
 
     /**
@@ -159,7 +220,39 @@ public class Matrix
      */
     public void set(int row, int col, double value)
     {
-        this.data[row][col] = value;
+        this.data[index(row, col)] = value;
+    }
+
+    /**
+     * @return index in data of element (row, col)
+     */
+    private int index(int row, int col)
+    {
+        return offset + row*stride + col;
+    }
+
+    /**
+     * @return whether the elements are one run of data, row after row
+     */
+    private boolean isContiguous()
+    {
+        return stride == nCols || nRows == 1;
+    }
+
+    /**
+     * @return this if its elements are one run of data, otherwise a copy
+     */
+    private Matrix contiguous()
+    {
+        return isContiguous() ? this : new Matrix(this);
+    }
+
+    /**
+     * @return number of elements
+     */
+    private int size()
+    {
+        return nRows * nCols;
     }
 
 //    /**
@@ -182,12 +275,15 @@ public class Matrix
      */
     public void fill(double value)
     {
-        for (int i = 0; i < this.data.length; i++)
+        if( isContiguous() )
         {
-            for (int j = 0; j < this.data[0].length; j++)
-            {
-                this.data[i][j] = value;
-            }
+            Arrays.fill(this.data, offset, offset + size(), value);
+            return;
+        }
+        for (int i = 0; i < nRows; i++)
+        {
+            int from = index(i, 0);
+            Arrays.fill(this.data, from, from + nCols, value);
         }
     }
 
@@ -212,14 +308,15 @@ public class Matrix
      */
     public double min()
     {
-        double min = this.data[0][0];
-        for (int i = 0; i < data.length; i++)
+        Matrix a = this.contiguous();
+        double[] d = a.data;
+        int from = a.offset;
+        int to = from + size();
+        double min = d[from];
+        for (int i = from; i < to; i++)
         {
-            for (int j = 0; j < data[0].length; j++)
-            {
-                double value = data[i][j];
-                if( value < min ) min = value;
-            }
+            double value = d[i];
+            if( value < min ) min = value;
         }
         return min;
     }
@@ -230,14 +327,15 @@ public class Matrix
      */
     public double max()
     {
-        double max = this.data[0][0];
-        for (int i = 0; i < data.length; i++)
+        Matrix a = this.contiguous();
+        double[] d = a.data;
+        int from = a.offset;
+        int to = from + size();
+        double max = d[from];
+        for (int i = from; i < to; i++)
         {
-            for (int j = 0; j < data[0].length; j++)
-            {
-                double value = data[i][j];
-                if( value > max ) max = value;
-            }
+            double value = d[i];
+            if( value > max ) max = value;
         }
         return max;
     }
@@ -260,12 +358,10 @@ public class Matrix
     {
         Matrix m = new Matrix(this);
         // Add constant to every item
-        for (int i = 0; i < data.length; i++)
+        double[] md = m.data;
+        for (int i = 0; i < md.length; i++)
         {
-            for (int j = 0; j < data[0].length; j++)
-            {
-                m.data[i][j] += value;
-            }
+            md[i] += value;
         }
         return m;
     }
@@ -283,12 +379,13 @@ public class Matrix
         Matrix m = new Matrix(this);
 
         // Add items elementwise
-        for (int i = 0; i < data.length; i++)
+        Matrix b = matrix.contiguous();
+        double[] md = m.data;
+        double[] bd = b.data;
+        int bo = b.offset;
+        for (int i = 0; i < md.length; i++)
         {
-            for (int j = 0; j < data[0].length; j++)
-            {
-                m.data[i][j] += matrix.data[i][j];
-            }
+            md[i] += bd[bo+i];
         }
 
         return m;
@@ -303,12 +400,10 @@ public class Matrix
     {
         Matrix m = new Matrix(this);
         // Add constant to every item
-        for (int i = 0; i < data.length; i++)
+        double[] md = m.data;
+        for (int i = 0; i < md.length; i++)
         {
-            for (int j = 0; j < data[0].length; j++)
-            {
-                m.data[i][j] -= value;
-            }
+            md[i] -= value;
         }
         return m;
     }
@@ -321,15 +416,16 @@ public class Matrix
      */
     public Matrix substractThisFrom(double value)
     {
-        Matrix m = new Matrix(nRows, nCols, 0.0);
+        Matrix m = new Matrix(nRows, nCols);
 
         // Substract constant from every item
-        for (int i = 0; i < data.length; i++)
+        Matrix a = this.contiguous();
+        double[] md = m.data;
+        double[] ad = a.data;
+        int ao = a.offset;
+        for (int i = 0; i < md.length; i++)
         {
-            for (int j = 0; j < data[0].length; j++)
-            {
-                m.data[i][j] = value - this.data[i][j];
-            }
+            md[i] = value - ad[ao+i];
         }
 
         return m;
@@ -352,12 +448,13 @@ public class Matrix
         }
 
         // Add items elementwise
-        for (int i = 0; i < data.length; i++)
+        Matrix b = matrix.contiguous();
+        double[] md = m.data;
+        double[] bd = b.data;
+        int bo = b.offset;
+        for (int i = 0; i < md.length; i++)
         {
-            for (int j = 0; j < data[0].length; j++)
-            {
-                m.data[i][j] -= matrix.data[i][j];
-            }
+            md[i] -= bd[bo+i];
         }
 
         return m;
@@ -372,12 +469,10 @@ public class Matrix
     {
         Matrix m = new Matrix(this);
         // Multiply every item by constant
-        for (int i = 0; i < data.length; i++)
+        double[] md = m.data;
+        for (int i = 0; i < md.length; i++)
         {
-            for (int j = 0; j < data[0].length; j++)
-            {
-                m.data[i][j] = data[i][j] * value;
-            }
+            md[i] *= value;
         }
         return m;
     }
@@ -392,14 +487,18 @@ public class Matrix
         // Validate parameters
         this.compatible(matrix);
         
-        Matrix m = new Matrix(nRows, nCols, 0.0);
+        Matrix m = new Matrix(nRows, nCols);
         // Multiply items elementwise
-        for (int i = 0; i < data.length; i++)
+        Matrix a = this.contiguous();
+        Matrix b = matrix.contiguous();
+        double[] md = m.data;
+        double[] ad = a.data;
+        double[] bd = b.data;
+        int ao = a.offset;
+        int bo = b.offset;
+        for (int i = 0; i < md.length; i++)
         {
-            for (int j = 0; j < data[0].length; j++)
-            {
-                m.data[i][j] = data[i][j] * matrix.data[i][j];
-            }
+            md[i] = ad[ao+i] * bd[bo+i];
         }
         return m;
     }
@@ -414,12 +513,10 @@ public class Matrix
     {
         Matrix m = new Matrix(this);
         // Divide every item by constant
-        for (int i = 0; i < data.length; i++)
+        double[] md = m.data;
+        for (int i = 0; i < md.length; i++)
         {
-            for (int j = 0; j < data[0].length; j++)
-            {
-                m.data[i][j] /= divisor;
-            }
+            md[i] /= divisor;
         }
         return m;
     }
@@ -436,14 +533,18 @@ public class Matrix
         // Validate parameters
         this.compatible(divisor);
         
-        Matrix m = new Matrix(nRows, nCols, 0.0);
+        Matrix m = new Matrix(nRows, nCols);
         // Divide items elementwise
-        for (int i = 0; i < data.length; i++)
+        Matrix a = this.contiguous();
+        Matrix b = divisor.contiguous();
+        double[] md = m.data;
+        double[] ad = a.data;
+        double[] bd = b.data;
+        int ao = a.offset;
+        int bo = b.offset;
+        for (int i = 0; i < md.length; i++)
         {
-            for (int j = 0; j < data[0].length; j++)
-            {
-                m.data[i][j] = this.data[i][j] / divisor.data[i][j];
-            }
+            md[i] = ad[ao+i] / bd[bo+i];
         }
         return m;
     }
@@ -453,29 +554,79 @@ public class Matrix
      * the correlation operator. Uses 0-padding for pixels around the image.
      * This is equivalent to MATLAB:
      * <pre>result = filter2(kernel, this);</pre>
+     * Only entries at least half a kernel width from the border are filtered,
+     * the border band of the result is left at 0.
+     * <p>
+     * A {@link SeparableKernel} is applied as two 1-D passes, along the
+     * columns and then along the rows, giving the same result (up to
+     * rounding) in O(n) rather than O(n^2) per entry, unless it has been
+     * changed since it was created.  A {@link RecursiveGaussian}, on the
+     * same terms, is applied recursively, in O(1) per entry.
+     * Other kernels of {@link FourierFilter#CROSSOVER} or more entries a
+     * side are applied through the FFT, in O(log n) per entry.
      *
      * @param kernel - Filter kernel matrix
      * @return a new matrix with the result
      */
     public Matrix applyFilter(Matrix kernel)
     {
-        // We do not zero pad or properly filter near edges.
-        // Instead, filtering starts at half kernel width.
-        // Iterate over matrix
-        
-        Matrix m = new Matrix(nRows, nCols);
-        
+        Object event = FlightEvents.EVENTS.beginFilter();
+        Matrix m = filter( kernel );
+        FlightEvents.EVENTS.endFilter( event, kernel.nRows,
+                                       kernel instanceof SeparableKernel && ((SeparableKernel)kernel).isSeparable(),
+                                       this.nCols, this.nRows );
+        return m;
+    }
+
+    private Matrix filter(Matrix kernel)
+    {
         if( kernel.nCols != kernel.nRows )
         {
             String e = "Kernel must be symetric";
             throw new IllegalArgumentException(e);
         }
         
+        if( kernel instanceof RecursiveGaussian && ((RecursiveGaussian)kernel).isSeparable() )
+        {
+            return applyRecursiveFilter( (RecursiveGaussian)kernel );
+        }
+        
+        if( kernel instanceof SeparableKernel && ((SeparableKernel)kernel).isSeparable() )
+        {
+            return applySeparableFilter( (SeparableKernel)kernel );
+        }
+        
+        if( kernel.nRows >= FourierFilter.CROSSOVER )
+        {
+            return applyFourierFilter( kernel );
+        }
+        
+        return applyDirectFilter( kernel );
+    }
+
+    /**
+     * Direct version of applyFilter, O(n^2) per entry.
+     */
+    Matrix applyDirectFilter(Matrix kernel)
+    {
+        // We do not zero pad or properly filter near edges.
+        // Instead, filtering starts at half kernel width.
+        // Iterate over matrix
+        
+        Matrix m = new Matrix(nRows, nCols);
+        
         //int height = this.data.length;
         //int width  = this.data[0].length;
         
-        int width = this.data.length;
-        int height = this.data[0].length;
+        int width = this.nRows;
+        int height = this.nCols;
+        
+        // Kernel row i starts at ko + i*ks
+        double[] kd = kernel.data;
+        int ko = kernel.offset;
+        int ks = kernel.stride;
+        double[] src = this.data;
+        double[] dst = m.data;
         
         int n = kernel.nRows;
         int n2= n*n;
@@ -488,20 +639,179 @@ public class Matrix
                 // Apply the filter, careful to handle near edges
                 for (int i = 0; i < n; i++)
                 {
+                    // Row x-mp+i of this from column y-mp, row i of the kernel
+                    int s = this.index(x-mp+i, y-mp);
+                    int k = ko + i*ks;
                     for (int j = 0; j < n; j++)
                     {
-                        // Be careful near the edges???
-                        // Not sure about this, looks like col,row access????
-                        double intensity = this.data[x-mp+i][y-mp+j];
-                        double kernelValue = kernel.data[i][j];
-                        kernelSum += (intensity*kernelValue);
+                        kernelSum += (src[s+j]*kd[k+j]);
                     }
                 }
                 double kernelAverage = kernelSum / n2;
-                m.data[x][y] = kernelAverage;
+                dst[x*nCols + y] = kernelAverage;
+            }
+        }
+
+        return m;
+    }
+
+    /**
+     * FFT version of applyFilter, see {@link FourierFilter}.  The result
+     * covers the same interior and is also divided by n^2.
+     */
+    Matrix applyFourierFilter(Matrix kernel)
+    {
+        Matrix m = new Matrix(nRows, nCols);
+        
+        int n = kernel.nRows;
+        if( nRows < n || nCols < n ) return m;
+        
+        FourierFilter filter = new FourierFilter(kernel, false, nRows, nCols);
+        filter.correlate(this.data, this.offset, this.stride, nRows, nCols, m.data);
+        
+        double n2 = n*n;
+        int mp = n / 2;
+        for (int x = mp; x < nRows-mp; x++)
+        {
+            int d = x*nCols;
+            for (int y = mp; y < nCols-mp; y++)
+            {
+                m.data[d+y] /= n2;
             }
         }
+        
+        return m;
+    }
 
+    /**
+     * Separable version of applyFilter.  The first pass filters each row
+     * along its columns into a temporary buffer, for every row since the
+     * second pass needs the rows within half a kernel width of the output.
+     * The second pass filters that buffer down the rows.  The result covers
+     * the same interior as applyFilter and is also divided by n^2.
+     */
+    private Matrix applySeparableFilter(SeparableKernel kernel)
+    {
+        Matrix m = new Matrix(nRows, nCols);
+        
+        int n = kernel.getRowSize();
+        int n2= n*n;
+        int mp = n / 2;
+        if( nRows < n || nCols < n ) return m;
+        
+        double[] rowFactors = new double[n];
+        double[] colFactors = new double[n];
+        for (int i = 0; i < n; i++)
+        {
+            rowFactors[i] = kernel.rowFactor(i);
+            colFactors[i] = kernel.columnFactor(i);
+        }
+        
+        // Along the columns, t[x][y] = sum_j data[x][y-mp+j] * colFactors[j]
+        double[] src = this.data;
+        double[] t = new double[nRows*nCols];
+        for (int x = 0; x < nRows; x++)
+        {
+            int s = this.index(x, 0) - mp;
+            int d = x*nCols;
+            for (int y = mp; y < nCols-mp; y++)
+            {
+                double sum = 0.0;
+                for (int j = 0; j < n; j++)
+                {
+                    sum += src[s+y+j] * colFactors[j];
+                }
+                t[d+y] = sum;
+            }
+        }
+        
+        // Down the rows, m[x][y] = sum_i t[x-mp+i][y] * rowFactors[i]
+        double[] dst = m.data;
+        for (int x = mp; x < nRows-mp; x++)
+        {
+            int d = x*nCols;
+            for (int i = 0; i < n; i++)
+            {
+                int s = (x-mp+i)*nCols;
+                double f = rowFactors[i];
+                for (int y = mp; y < nCols-mp; y++)
+                {
+                    dst[d+y] += t[s+y] * f;
+                }
+            }
+            for (int y = mp; y < nCols-mp; y++)
+            {
+                dst[d+y] /= n2;
+            }
+        }
+        
+        return m;
+    }
+
+    /**
+     * Recursive version of applyFilter.  The whole matrix is filtered along
+     * the rows and then down the columns, each pass costing the same per
+     * entry for any sigma.  The result is scaled to the total weight of the
+     * FIR kernel and divided by n^2, and covers the same interior.
+     */
+    private Matrix applyRecursiveFilter(RecursiveGaussian kernel)
+    {
+        Matrix m = new Matrix(nRows, nCols);
+        
+        int n = kernel.getRowSize();
+        int mp = n / 2;
+        if( nRows < n || nCols < n ) return m;
+        
+        double[] t = new double[nRows*nCols];
+        for (int x = 0; x < nRows; x++)
+        {
+            System.arraycopy(this.data, this.index(x, 0), t, x*nCols, nCols);
+        }
+        kernel.filterRows(t, nRows, nCols);
+        kernel.filterColumns(t, nRows, nCols);
+        
+        double scale = kernel.rowGain() * kernel.columnGain();
+        double n2 = n*n;
+        double[] dst = m.data;
+        for (int x = mp; x < nRows-mp; x++)
+        {
+            int d = x*nCols;
+            for (int y = mp; y < nCols-mp; y++)
+            {
+                dst[d+y] = t[d+y] * scale / n2;
+            }
+        }
+        
+        return m;
+    }
+
+    /**
+     * Box filter, the mean of every n-by-n window.  This is applyFilter
+     * with a kernel of ones, up to rounding, and leaves the same border
+     * band at 0.  The window sums come from a {@link SummedAreaTable}, so
+     * the cost per entry does not depend on n.
+     *
+     * @param n - window size, at least 1
+     * @return a new matrix with the result
+     */
+    public Matrix boxFilter(int n)
+    {
+        if( n < 1 )
+        {
+            throw new IllegalArgumentException("Invalid window size " + n);
+        }
+        Matrix m = new Matrix(nRows, nCols);
+        SummedAreaTable table = summedAreaTable();
+        double n2 = (double) n * n;
+        int mp = n / 2;
+        for (int x = mp; x < nRows-mp; x++)
+        {
+            int d = x*nCols;
+            for (int y = mp; y < nCols-mp; y++)
+            {
+                m.data[d+y] = table.region(x-mp, y-mp, x-mp+n, y-mp+n) / n2;
+            }
+        }
         return m;
     }
 
@@ -510,18 +820,21 @@ public class Matrix
      * since it does not ensure even separation in order-of-magnitude domains.
      * It does however use a higher resolution (double) accumulator.
      *
+     * For many region sums, or a compensated total, use
+     * {@link #summedAreaTable()}.
+     *
      * @return the elementwise sum of all the elements in this matrix
      */
     public double sum()
     {
         double theSum = 0.0;
         // Add items Together
-        for (int i = 0; i < data.length; i++)
+        Matrix a = this.contiguous();
+        double[] ad = a.data;
+        int to = a.offset + size();
+        for (int i = a.offset; i < to; i++)
         {
-            for (int j = 0; j < data[0].length; j++)
-            {
-                theSum += this.data[i][j];
-            }
+            theSum += ad[i];
         }
         return theSum;
     }
@@ -532,6 +845,10 @@ public class Matrix
      * return value and a single double argument. This is very useful to apply a
      * Java.Math operation. In case of an exception occuring, all elements are
      * filled with Double.NaN.
+     * <P>
+     * Each element costs a reflective call and boxing, which the JIT cannot
+     * inline, so {@link #map} with a method reference is much faster:
+     * <pre>Matrix result = m.map(Math::sin);</pre>
      *
      * <P>
      * Example:</P>
@@ -545,7 +862,9 @@ public class Matrix
      *
      * @param method - Method to apply to every element
      * @return a new matrix with the result
+     * @deprecated use {@link #map(DoubleUnaryOperator)}
      */
+    @Deprecated
     public Matrix applyMethod(Method method)
     {
         Matrix m = new Matrix(this);
@@ -555,13 +874,11 @@ public class Matrix
         try
         {
             // Apply method elementwise
-            for (int i = 0; i < data.length; i++)
+            double[] md = m.data;
+            for (int i = 0; i < md.length; i++)
             {
-                for (int j = 0; j < data[0].length; j++)
-                {
-                    input[0] = data[i][j];
-                    m.data[i][j] = ((Double) (method.invoke(this, (Object[]) input)));
-                }
+                input[0] = md[i];
+                md[i] = ((Double) (method.invoke(this, (Object[]) input)));
             }
         }
         catch (Exception e1)
@@ -630,12 +947,16 @@ public class Matrix
         // Create output Matrix
         Matrix m = new Matrix( num.nRows, num.nCols );
         // Apply atan2 elementwise
-        for (int i = 0; i < num.nRows; i++)
+        Matrix a = num.contiguous();
+        Matrix b = denom.contiguous();
+        double[] md = m.data;
+        double[] ad = a.data;
+        double[] bd = b.data;
+        int ao = a.offset;
+        int bo = b.offset;
+        for (int i = 0; i < md.length; i++)
         {
-            for (int j = 0; j < num.nCols; j++)
-            {
-                m.data[i][j] = Math.atan2( num.data[i][j], denom.data[i][j] );
-            }
+            md[i] = Math.atan2( ad[ao+i], bd[bo+i] );
         }
         return m;
     }
@@ -666,119 +987,577 @@ public class Matrix
      */
     static public Matrix logicalOp(Matrix source, String operation, double value)
     {
-        // Initialize matrices
-        Matrix out = new Matrix(source.getRowSize(), source.getColumnSize());
-        int rows = source.data.length;
-        int cols = source.data[0].length;
-        double[][] sa = source.data; // alias for shortness
-        double[][] oa = out.data;
+        // "!" has always compared for equality with the value
+        Comparison op = operation.equals("!") ? Comparison.EQUAL : Comparison.of(operation);
+        if( op == null )
+        {
+            return new Matrix(source.getRowSize(), source.getColumnSize(), Double.NaN);
+        }
+        return source.logicalOp(op, value);
+    }
 
-        // Apply operations elementwise
-        if (operation.equals("<"))
+    /**
+     * Applies a comparison elementwise between this matrix (as left-hand
+     * side) and a constant value.
+     * @param op - comparison
+     * @param value - constant to use (right-hand-side of operator)
+     * @return a new matrix with 1.0 where the comparison holds, 0.0 elsewhere
+     */
+    public Matrix logicalOp(Comparison op, double value)
+    {
+        Matrix out = new Matrix(nRows, nCols);
+        BitSet mask = mask(op, value);
+        for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i+1))
         {
-            for (int i = 0; i < rows; i++)
+            out.data[i] = 1.0;
+        }
+        return out;
+    }
+
+    /**
+     * <P>
+     * Applies a logical operation elementwise between this matrix (as operator
+     * left-hand-side) and a constant value. In case of the unary not operator
+     * (!), the value is ignored. Result matrix contains 1.0f when condition is
+     * true, 0.0f when false. Order of operation is: result = source (OP) value.
+     * Be aware that to do: result = value (OP) source, you will have to reverse
+     * the operation.</P>
+     *
+     * <P>
+     * Operations can be one of: "<", "<=", "==", "!=", ">=", ">", "!"</P>
+     *
+     * <P>
+     * If the operation is not recognized, the result matrix is filled with
+     * Double.NaN.</P>
+     *
+     * <P>
+     * Example: MatrixF result = logicalOp(">=", 3.3f); // result = (this >=
+     * 3.3); in MATLAB</P>
+     *
+     * @param operation - string containing the Java-syntax logical operation
+     * @param value - constant to use (right-hand-side of operator)
+     * @return a new matrix with the result
+     */
+    public Matrix logicalOp(String operation, double value)
+    {
+        return logicalOp(this, operation, value);
+    }
+
+    /**
+     * Builds the summed-area table of this matrix in one pass, for the sum
+     * or mean of any rectangle in O(1).
+     * @return the table
+     */
+    public SummedAreaTable summedAreaTable()
+    {
+        return new SummedAreaTable(data, offset, stride, nRows, nCols);
+    }
+
+    //------------------------------------------------------------------------//
+    // Functional element-wise operations
+    //------------------------------------------------------------------------//
+    /**
+     * Comparison of an element (left-hand side) with a value, for
+     * {@link #mask} and {@link #logicalOp(Comparison, double)}.
+     */
+    public enum Comparison
+    {
+        LESS("<"), LESS_EQUAL("<="), EQUAL("=="), NOT_EQUAL("!="), GREATER_EQUAL(">="), GREATER(">");
+
+        private final String symbol;
+
+        Comparison(String symbol)
+        {
+            this.symbol = symbol;
+        }
+
+        /**
+         * @return the Java operator, e.g. "<="
+         */
+        public String symbol()
+        {
+            return this.symbol;
+        }
+
+        /**
+         * @param a - left-hand side
+         * @param b - right-hand side
+         * @return a (op) b
+         */
+        public boolean test(double a, double b)
+        {
+            switch( this )
             {
-                for (int j = 0; j < cols; j++)
-                {
-                    oa[i][j] = (sa[i][j] < value) ? 1.0 : 0.0;
-                }
+                case LESS:          return a <  b;
+                case LESS_EQUAL:    return a <= b;
+                case EQUAL:         return a == b;
+                case NOT_EQUAL:     return a != b;
+                case GREATER_EQUAL: return a >= b;
+                default:            return a >  b;
             }
         }
-        else if (operation.equals("<="))
+
+        /**
+         * Compares d[from, to), at most 64 elements, with b.
+         * @return bit k set if d[from+k] (op) b
+         */
+        long bits(double[] d, int from, int to, double b)
         {
-            for (int i = 0; i < rows; i++)
+            // One loop per comparison, so each compiles to a conditional move
+            long bits = 0L;
+            int n = to - from;
+            switch( this )
             {
-                for (int j = 0; j < cols; j++)
-                {
-                    oa[i][j] = (sa[i][j] <= value) ? 1.0 : 0.0;
-                }
+                case LESS:          for (int k = 0; k < n; k++) bits |= (d[from+k] <  b ? 1L : 0L) << k; break;
+                case LESS_EQUAL:    for (int k = 0; k < n; k++) bits |= (d[from+k] <= b ? 1L : 0L) << k; break;
+                case EQUAL:         for (int k = 0; k < n; k++) bits |= (d[from+k] == b ? 1L : 0L) << k; break;
+                case NOT_EQUAL:     for (int k = 0; k < n; k++) bits |= (d[from+k] != b ? 1L : 0L) << k; break;
+                case GREATER_EQUAL: for (int k = 0; k < n; k++) bits |= (d[from+k] >= b ? 1L : 0L) << k; break;
+                default:            for (int k = 0; k < n; k++) bits |= (d[from+k] >  b ? 1L : 0L) << k; break;
             }
+            return bits;
         }
-        else if (operation.equals("=="))
+
+        /**
+         * @param symbol - Java operator, e.g. "<="
+         * @return the comparison, or null if the symbol is not one
+         */
+        public static Comparison of(String symbol)
         {
-            for (int i = 0; i < rows; i++)
+            for( Comparison c : values() )
             {
-                for (int j = 0; j < cols; j++)
-                {
-                    oa[i][j] = (sa[i][j] == value) ? 1.0 : 0.0;
-                }
+                if( c.symbol.equals(symbol) ) return c;
             }
+            return null;
         }
-        else if (operation.equals("!="))
+    }
+
+    /**
+     * Applies a function to every element.
+     * @param f - function of the element, without side effects
+     * @return a new matrix with the result
+     */
+    public Matrix map(final DoubleUnaryOperator f)
+    {
+        final Matrix m = new Matrix(nRows, nCols);
+        final double[] src = this.data;
+        final double[] dst = m.data;
+        forRows((from, to) ->
         {
-            for (int i = 0; i < rows; i++)
+            for (int r = from; r < to; r++)
             {
-                for (int j = 0; j < cols; j++)
+                int s = index(r, 0);
+                int d = r*nCols;
+                for (int c = 0; c < nCols; c++)
                 {
-                    oa[i][j] = (sa[i][j] != value) ? 1.0 : 0.0;
+                    dst[d+c] = f.applyAsDouble(src[s+c]);
                 }
             }
-        }
-        else if (operation.equals(">="))
+        });
+        return m;
+    }
+
+    /**
+     * Replaces every element by a function of it.  For a view this writes
+     * through to the matrix it comes from.
+     * @param f - function of the element, without side effects
+     * @return this matrix
+     */
+    public Matrix mapInPlace(final DoubleUnaryOperator f)
+    {
+        final double[] d = this.data;
+        forRows((from, to) ->
         {
-            for (int i = 0; i < rows; i++)
+            for (int r = from; r < to; r++)
             {
-                for (int j = 0; j < cols; j++)
+                int s = index(r, 0);
+                for (int c = s; c < s+nCols; c++)
                 {
-                    oa[i][j] = (sa[i][j] >= value) ? 1.0 : 0.0;
+                    d[c] = f.applyAsDouble(d[c]);
                 }
             }
-        }
-        else if (operation.equals(">"))
+        });
+        return this;
+    }
+
+    /**
+     * Applies a function to each pair of elements at the same position in
+     * this matrix and another.
+     * @param matrix - right-hand operand, the same size as this
+     * @param f - function of this element and the other, without side effects
+     * @return a new matrix with the result
+     */
+    public Matrix zipWith(final Matrix matrix, final DoubleBinaryOperator f)
+    {
+        this.compatible(matrix);
+        final Matrix m = new Matrix(nRows, nCols);
+        final double[] a = this.data;
+        final double[] b = matrix.data;
+        final double[] dst = m.data;
+        forRows((from, to) ->
         {
-            for (int i = 0; i < rows; i++)
+            for (int r = from; r < to; r++)
             {
-                for (int j = 0; j < cols; j++)
+                int ai = index(r, 0);
+                int bi = matrix.index(r, 0);
+                int d = r*nCols;
+                for (int c = 0; c < nCols; c++)
                 {
-                    oa[i][j] = (sa[i][j] > value) ? 1.0 : 0.0;
+                    dst[d+c] = f.applyAsDouble(a[ai+c], b[bi+c]);
                 }
             }
+        });
+        return m;
+    }
+
+    /**
+     * Compares every element with a value.
+     * @param op - comparison, element on the left
+     * @param value - right-hand side
+     * @return bit row*columns+col set where the comparison holds
+     */
+    public BitSet mask(final Comparison op, final double value)
+    {
+        final int n = size();
+        final long[] words = new long[(n + 63) / 64];
+        final Matrix a = this.contiguous();
+        final double[] d = a.data;
+        final int o = a.offset;
+        // Split by 64-bit words, so no two tasks write the same word
+        forBlocks(words.length, GRAIN / 64, n, (from, to) ->
+        {
+            for (int w = from; w < to; w++)
+            {
+                int i = w * 64;
+                words[w] = op.bits(d, o + i, o + Math.min(i + 64, n), value);
+            }
+        });
+        return BitSet.valueOf(words);
+    }
+
+    //------------------------------------------------------------------------//
+    // Fused expressions
+    //------------------------------------------------------------------------//
+    /**
+     * Starts an expression on this matrix, whose steps are only recorded
+     * until it is evaluated.
+     * @return an expression with no steps, evaluating to a copy of this
+     */
+    public Expression lazy()
+    {
+        return new Expression(this);
+    }
+
+    /**
+     * @return index in data of the first element of a run, a run being the
+     * whole matrix if flat and otherwise one row
+     */
+    private int start(int run, boolean flat)
+    {
+        return flat ? offset : index(run, 0);
+    }
+
+    /**
+     * A chain of element-wise operations on a source matrix, recorded by
+     * the methods named as those of Matrix and run by {@link #evaluate()},
+     * {@link #evaluateInto(Matrix)} or {@link #evaluateInPlace()}.
+     * <p>
+     * Evaluation copies {@value #CHUNK} elements of the source at a time
+     * into a buffer, applies every step to the buffer in a tight loop, and
+     * writes it to the target.  The buffer stays in cache, so the source,
+     * each matrix operand and the target are each touched once, and the
+     * results are exactly those of the eager operations.  Large matrices
+     * are split across the common pool as for {@link Matrix#map}.
+     * <p>
+     * Matrix operands are read when the expression is evaluated, not when
+     * the step is recorded.  The target may be the source or an operand,
+     * but not a view that overlaps them at other positions.
+     */
+    public static final class Expression
+    {
+        /** Elements of a buffer, small enough to stay in the L1 cache */
+        private static final int CHUNK = 512;
+
+        private enum Op
+        {
+            ADD, SUBSTRACT, SUBSTRACT_FROM, MULTIPLY, DIVIDE,
+            ADD_ELEMENTS, SUBSTRACT_ELEMENTS, MULTIPLY_ELEMENTS, DIVIDE_ELEMENTS,
+            MAP, ZIP
         }
-        else if (operation.equals("!"))
+
+        private static final class Step
         {
-            for (int i = 0; i < rows; i++)
+            final Op op;
+            final double value;
+            final Matrix operand;
+            final DoubleUnaryOperator unary;
+            final DoubleBinaryOperator binary;
+
+            Step(Op op, double value, Matrix operand, DoubleUnaryOperator unary, DoubleBinaryOperator binary)
             {
-                for (int j = 0; j < cols; j++)
+                this.op = op;
+                this.value = value;
+                this.operand = operand;
+                this.unary = unary;
+                this.binary = binary;
+            }
+        }
+
+        private final Matrix source;
+        private final List<Step> steps = new ArrayList<Step>();
+
+        private Expression(Matrix source)
+        {
+            this.source = source;
+        }
+
+        private Expression step(Op op, double value)
+        {
+            steps.add(new Step(op, value, null, null, null));
+            return this;
+        }
+
+        private Expression step(Op op, Matrix operand, DoubleBinaryOperator binary)
+        {
+            source.compatible(operand);
+            steps.add(new Step(op, 0.0, operand, null, binary));
+            return this;
+        }
+
+        /** Adds a constant, as {@link Matrix#add(double)} */
+        public Expression add(double value)
+        {
+            return step(Op.ADD, value);
+        }
+
+        /** Substracts a constant, as {@link Matrix#substract(double)} */
+        public Expression substract(double value)
+        {
+            return step(Op.SUBSTRACT, value);
+        }
+
+        /** Substracts from a constant, as {@link Matrix#substractThisFrom(double)} */
+        public Expression substractThisFrom(double value)
+        {
+            return step(Op.SUBSTRACT_FROM, value);
+        }
+
+        /** Multiplies by a constant, as {@link Matrix#multiply(double)} */
+        public Expression multiply(double value)
+        {
+            return step(Op.MULTIPLY, value);
+        }
+
+        /** Divides by a constant, as {@link Matrix#divide(double)} */
+        public Expression divide(double divisor)
+        {
+            return step(Op.DIVIDE, divisor);
+        }
+
+        /** Adds a matrix element-wise, as {@link Matrix#add(Matrix)} */
+        public Expression add(Matrix matrix)
+        {
+            return step(Op.ADD_ELEMENTS, matrix, null);
+        }
+
+        /** Substracts a matrix element-wise, as {@link Matrix#substract(Matrix)} */
+        public Expression substract(Matrix matrix)
+        {
+            return step(Op.SUBSTRACT_ELEMENTS, matrix, null);
+        }
+
+        /** Multiplies by a matrix element-wise, as {@link Matrix#multiplyElements(Matrix)} */
+        public Expression multiplyElements(Matrix matrix)
+        {
+            return step(Op.MULTIPLY_ELEMENTS, matrix, null);
+        }
+
+        /** Divides by a matrix element-wise, as {@link Matrix#divideElements(Matrix)} */
+        public Expression divideElements(Matrix divisor)
+        {
+            return step(Op.DIVIDE_ELEMENTS, divisor, null);
+        }
+
+        /** Applies a function, as {@link Matrix#map(DoubleUnaryOperator)} */
+        public Expression map(DoubleUnaryOperator f)
+        {
+            steps.add(new Step(Op.MAP, 0.0, null, f, null));
+            return this;
+        }
+
+        /** Applies a function with a matrix, as {@link Matrix#zipWith(Matrix, DoubleBinaryOperator)} */
+        public Expression zipWith(Matrix matrix, DoubleBinaryOperator f)
+        {
+            return step(Op.ZIP, matrix, f);
+        }
+
+        /**
+         * @return a new matrix with the result
+         */
+        public Matrix evaluate()
+        {
+            return evaluateInto(new Matrix(source.nRows, source.nCols));
+        }
+
+        /**
+         * Writes the result over the source, through to the matrix it comes
+         * from if it is a view.
+         * @return the source
+         */
+        public Matrix evaluateInPlace()
+        {
+            return evaluateInto(source);
+        }
+
+        /**
+         * Writes the result into a matrix of the same size.
+         * @param target - matrix to write, may be the source or an operand
+         * @return target
+         */
+        public Matrix evaluateInto(final Matrix target)
+        {
+            source.compatible(target);
+            final Step[] program = steps.toArray(new Step[steps.size()]);
+
+            // One run of all the elements if nothing has gaps between rows
+            boolean contiguous = source.isContiguous() && target.isContiguous();
+            for( Step step : program )
+            {
+                if( step.operand != null ) contiguous &= step.operand.isContiguous();
+            }
+            final boolean flat = contiguous;
+            final int n = source.size();
+            final int cols = source.nCols;
+            if( flat )
+            {
+                int chunks = (n + CHUNK - 1) / CHUNK;
+                forBlocks(chunks, GRAIN / CHUNK, n, (from, to) ->
                 {
-                    oa[i][j] = (sa[i][j] == value) ? 1.0 : 0.0;
-                }
+                    double[] buffer = new double[CHUNK];
+                    for (int c = from; c < to; c++)
+                    {
+                        int at = c * CHUNK;
+                        run(program, target, 0, true, at, Math.min(CHUNK, n - at), buffer);
+                    }
+                });
+            }
+            else
+            {
+                source.forRows((from, to) ->
+                {
+                    double[] buffer = new double[Math.min(CHUNK, cols)];
+                    for (int r = from; r < to; r++)
+                    {
+                        for (int at = 0; at < cols; at += CHUNK)
+                        {
+                            run(program, target, r, false, at, Math.min(CHUNK, cols - at), buffer);
+                        }
+                    }
+                });
             }
+            return target;
         }
-        else
+
+        /**
+         * Evaluates elements [at, at+len) of one run through the buffer.
+         */
+        private void run(Step[] program, Matrix target, int run, boolean flat, int at, int len, double[] buf)
         {
-            out.fill(Double.NaN);
+            System.arraycopy(source.data, source.start(run, flat) + at, buf, 0, len);
+            for( Step step : program )
+            {
+                double v = step.value;
+                double[] b = null;
+                int o = 0;
+                if( step.operand != null )
+                {
+                    b = step.operand.data;
+                    o = step.operand.start(run, flat) + at;
+                }
+                switch( step.op )
+                {
+                    case ADD:                for (int k = 0; k < len; k++) buf[k] += v;              break;
+                    case SUBSTRACT:          for (int k = 0; k < len; k++) buf[k] -= v;              break;
+                    case SUBSTRACT_FROM:     for (int k = 0; k < len; k++) buf[k] = v - buf[k];      break;
+                    case MULTIPLY:           for (int k = 0; k < len; k++) buf[k] *= v;              break;
+                    case DIVIDE:             for (int k = 0; k < len; k++) buf[k] /= v;              break;
+                    case ADD_ELEMENTS:       for (int k = 0; k < len; k++) buf[k] += b[o+k];         break;
+                    case SUBSTRACT_ELEMENTS: for (int k = 0; k < len; k++) buf[k] -= b[o+k];         break;
+                    case MULTIPLY_ELEMENTS:  for (int k = 0; k < len; k++) buf[k] *= b[o+k];         break;
+                    case DIVIDE_ELEMENTS:    for (int k = 0; k < len; k++) buf[k] /= b[o+k];         break;
+                    case MAP:
+                        DoubleUnaryOperator f = step.unary;
+                        for (int k = 0; k < len; k++) buf[k] = f.applyAsDouble(buf[k]);
+                        break;
+                    default:
+                        DoubleBinaryOperator g = step.binary;
+                        for (int k = 0; k < len; k++) buf[k] = g.applyAsDouble(buf[k], b[o+k]);
+                        break;
+                }
+            }
+            System.arraycopy(buf, 0, target.data, target.start(run, flat) + at, len);
         }
+    }
 
-        return out;
+    /**
+     * Work on indices [from, to) of some range.
+     */
+    private interface Block
+    {
+        void apply(int from, int to);
     }
 
     /**
-     * <P>
-     * Applies a logical operation elementwise between this matrix (as operator
-     * left-hand-side) and a constant value. In case of the unary not operator
-     * (!), the value is ignored. Result matrix contains 1.0f when condition is
-     * true, 0.0f when false. Order of operation is: result = source (OP) value.
-     * Be aware that to do: result = value (OP) source, you will have to reverse
-     * the operation.</P>
-     *
-     * <P>
-     * Operations can be one of: "<", "<=", "==", "!=", ">=", ">", "!"</P>
-     *
-     * <P>
-     * If the operation is not recognized, the result matrix is filled with
-     * Double.NaN.</P>
-     *
-     * <P>
-     * Example: MatrixF result = logicalOp(">=", 3.3f); // result = (this >=
-     * 3.3); in MATLAB</P>
-     *
-     * @param operation - string containing the Java-syntax logical operation
-     * @param value - constant to use (right-hand-side of operator)
-     * @return a new matrix with the result
+     * Runs body over blocks of rows.
      */
-    public Matrix logicalOp(String operation, double value)
+    private void forRows(Block body)
     {
-        return logicalOp(this, operation, value);
+        forBlocks(nRows, GRAIN / Math.max(1, nCols), size(), body);
+    }
+
+    /**
+     * Runs body over [0, n), on the calling thread if there are fewer than
+     * PARALLEL_THRESHOLD elements, otherwise split on the common pool.
+     * @param grain - indices given to one task
+     * @param elements - matrix elements covered by the whole range
+     */
+    private static void forBlocks(int n, int grain, int elements, Block body)
+    {
+        grain = Math.max(1, grain);
+        if( elements < PARALLEL_THRESHOLD || n <= grain )
+        {
+            body.apply(0, n);
+            return;
+        }
+        ForkJoinPool.commonPool().invoke(new Blocks(body, 0, n, grain));
+    }
+
+    private static class Blocks extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Block body;
+        private final int lo, hi, grain;
+
+        Blocks(Block body, int lo, int hi, int grain)
+        {
+            this.body = body;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if( hi - lo <= grain )
+            {
+                body.apply(lo, hi);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Blocks(body, lo, mid, grain), new Blocks(body, mid, hi, grain));
+        }
     }
 
     /**
@@ -815,13 +1594,15 @@ public class Matrix
         }
 
         // Create array
-        this.data = new double[nRows][nCols];
+        this.data = new double[nRows*nCols];
+        this.offset = 0;
+        this.stride = nCols;
         for (int r = 0; r < nRows; r++)
         {
             for (int c = 0; c < nCols; c++)
             {
                 int value = picture.getRGB(c, r);
-                this.data[r][c] = value;
+                this.data[r*nCols + c] = value;
             }
         }
     }
@@ -847,7 +1628,7 @@ public class Matrix
         {
             for (int col = 0; col < nCols; col++)
             {
-                double value = this.data[row][col];
+                double value = this.get(row, col);
                 // MIGHT NEED TO SCALE
                 
                 // make in range (works for negative min as well)
@@ -894,6 +1675,8 @@ public class Matrix
     
     /**
      * Crops a portion of the matrix (more typically picture operation).
+     * The result is a view sharing this matrix's elements, copy it with
+     * {@link #Matrix(Matrix)} to change one without the other.
      * @param x (col)
      * @param y (row)
      * @param width
@@ -902,16 +1685,32 @@ public class Matrix
      */
     public Matrix crop( int x, int y, int width, int height )
     {
-        Matrix cropped = new Matrix( height, width );
-        for (int i = 0; i < height; i++)
+        if( x < 0 || y < 0 || width < 0 || height < 0 || x+width > nCols || y+height > nRows )
         {
-            for (int j = 0; j < width; j++)
-            {
-                double v = this.get(y+i, x+j);
-                cropped.set(i, j, v);
-            }
+            throw new IndexOutOfBoundsException("Crop " + width + "x" + height + " at (" + x + ", " + y +
+                                                ") outside " + nCols + "x" + nRows);
         }
-        return cropped;
+        return new Matrix( this.data, index(y, x), this.stride, height, width );
+    }
+
+    /**
+     * Gets a row as a 1-by-columns view sharing this matrix's elements.
+     * @param row - row index
+     * @return the row
+     */
+    public Matrix row( int row )
+    {
+        return crop( 0, row, nCols, 1 );
+    }
+
+    /**
+     * Gets a column as a rows-by-1 view sharing this matrix's elements.
+     * @param col - column index
+     * @return the column
+     */
+    public Matrix column( int col )
+    {
+        return crop( col, 0, 1, nRows );
     }
     
     public String info()
@@ -936,8 +1735,8 @@ public class Matrix
             for (int j = 0; j < nCols; j++)
             {
                 //result += String.format("%10.6f ", data[i * nCols + j]);
-                result += String.format("%10.6f ", data[i][j]);
-                total += data[i][j];
+                result += String.format("%10.6f ", get(i, j));
+                total += get(i, j);
             }
             result += "\n";
         }
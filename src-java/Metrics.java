@@ -0,0 +1,393 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and latency histograms, cheap enough to leave on.
+ * Picture I/O, SeamDoppelganger and BatchEngine each hold their timers and
+ * counters in static fields and update them as they work:
+ * <pre>
+ *   picture_decode, picture_encode       reading and writing image files
+ *   seam_energy, seam_search, seam_replace   SeamDoppelganger, per seam
+ *   random_baseline                      Picture.replaceRandom
+ *   batch_decode ... batch_encode        BatchEngine stages, per image
+ * </pre>
+ * An update is a System.nanoTime() and two LongAdder increments, so
+ * concurrent workers do not contend on a shared counter.  A histogram
+ * counts durations in power of two buckets from about 1 microsecond to
+ * about 69 seconds.
+ * <p>
+ * {@link #dump(File, File)} writes a snapshot as JSON and in the
+ * Prometheus text format, each file replaced whole so that a reader (or a
+ * node exporter textfile collector) never sees half of one, and
+ * {@link #startDumps(File, File, long, TimeUnit)} does so periodically.
+ * Values are read one adder at a time while workers carry on, so a
+ * snapshot is not exact to the nanosecond across metrics.
+ * @author James Pope
+ */
+public final class Metrics
+{
+    /** Upper bound of the first histogram bucket, 2^10 ns */
+    private static final int FIRST_BUCKET_SHIFT = 10;
+
+    /** Power of two buckets up to 2^36 ns, then one for anything longer */
+    private static final int BUCKETS = 28;
+
+    private static final Map<String, Timer>   TIMERS   = new ConcurrentHashMap<String, Timer>();
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<String, Counter>();
+
+    private Metrics()
+    {
+    }
+
+    /**
+     * Duration histogram of one kind of operation.
+     */
+    public static final class Timer
+    {
+        private final String name;
+        private final String help;
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        private Timer(String name, String help)
+        {
+            this.name = name;
+            this.help = help;
+            for (int i = 0; i < BUCKETS; i++) this.buckets[i] = new LongAdder();
+        }
+
+        /**
+         * Records an operation that began at start.
+         * @param start System.nanoTime() when the operation began
+         */
+        public void record(long start)
+        {
+            recordNanos(System.nanoTime() - start);
+        }
+
+        /**
+         * Records an operation that took the given time.
+         * @param nanos
+         */
+        public void recordNanos(long nanos)
+        {
+            this.nanos.add(nanos);
+            this.buckets[bucket(nanos)].increment();
+        }
+
+        /**
+         * @return number of operations recorded
+         */
+        public long count()
+        {
+            return sum(bucketCounts(this));
+        }
+
+        /**
+         * @return total time of the operations recorded
+         */
+        public long totalNanos()
+        {
+            return this.nanos.sum();
+        }
+    }
+
+    /**
+     * Count of events or amount of work, e.g. pixels or bytes.
+     */
+    public static final class Counter
+    {
+        private final String name;
+        private final String help;
+        private final LongAdder sum = new LongAdder();
+
+        private Counter(String name, String help)
+        {
+            this.name = name;
+            this.help = help;
+        }
+
+        public void increment()
+        {
+            this.sum.increment();
+        }
+
+        public void add(long n)
+        {
+            this.sum.add(n);
+        }
+
+        public long sum()
+        {
+            return this.sum.sum();
+        }
+    }
+
+    /**
+     * Gets the timer of the given name, creating it on first use.
+     * @param name lower case letters, digits and underscores
+     * @param help one line description, used for the first registration
+     * @return the timer
+     */
+    public static Timer timer(String name, String help)
+    {
+        Timer t = TIMERS.get(name);
+        if( t == null )
+        {
+            checkName(name);
+            TIMERS.putIfAbsent(name, new Timer(name, help));
+            t = TIMERS.get(name);
+        }
+        return t;
+    }
+
+    /**
+     * Gets the counter of the given name, creating it on first use.
+     * @param name lower case letters, digits and underscores
+     * @param help one line description, used for the first registration
+     * @return the counter
+     */
+    public static Counter counter(String name, String help)
+    {
+        Counter c = COUNTERS.get(name);
+        if( c == null )
+        {
+            checkName(name);
+            COUNTERS.putIfAbsent(name, new Counter(name, help));
+            c = COUNTERS.get(name);
+        }
+        return c;
+    }
+
+    private static void checkName(String name)
+    {
+        if( !name.matches("[a-z_][a-z0-9_]*") )
+        {
+            throw new IllegalArgumentException("Invalid metric name " + name);
+        }
+    }
+
+    /**
+     * @return histogram bucket of a duration, the last for anything over 2^36 ns
+     */
+    static int bucket(long nanos)
+    {
+        if( nanos <= 1 ) return 0;
+        int b = 64 - Long.numberOfLeadingZeros(nanos - 1) - FIRST_BUCKET_SHIFT;
+        return Math.max(0, Math.min(BUCKETS - 1, b));
+    }
+
+    /**
+     * @return upper bound in seconds of bucket i, infinite for the last
+     */
+    private static double bucketSeconds(int i)
+    {
+        if( i == BUCKETS - 1 ) return Double.POSITIVE_INFINITY;
+        return (1L << (FIRST_BUCKET_SHIFT + i)) / 1e9;
+    }
+
+    //------------------------------------------------------------------------//
+    // Dumps
+    //------------------------------------------------------------------------//
+    /**
+     * Writes a snapshot of every metric.
+     * @param json JSON file, or null
+     * @param prometheus Prometheus text format file, or null
+     * @throws IOException
+     */
+    public static void dump(File json, File prometheus) throws IOException
+    {
+        Map<String, Timer>   timers   = new TreeMap<String, Timer>(TIMERS);
+        Map<String, Counter> counters = new TreeMap<String, Counter>(COUNTERS);
+        if( json != null )       replace(json, toJson(timers, counters));
+        if( prometheus != null ) replace(prometheus, toPrometheus(timers, counters));
+    }
+
+    /**
+     * Dumps every period on a daemon thread until the returned handle is
+     * closed, which writes a last dump.
+     * @param json JSON file, or null
+     * @param prometheus Prometheus text format file, or null
+     * @param period
+     * @param unit
+     * @return handle that stops the dumps
+     */
+    public static Closeable startDumps(final File json, final File prometheus, long period, TimeUnit unit)
+    {
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "metrics-dump");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        final Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    dump(json, prometheus);
+                }
+                catch( IOException e )
+                {
+                    // Keep the schedule going, the next dump may succeed
+                    System.out.println("Could not dump metrics: " + e);
+                }
+            }
+        };
+        timer.scheduleAtFixedRate(task, period, period, unit);
+        return new Closeable()
+        {
+            @Override
+            public void close() throws IOException
+            {
+                timer.shutdown();
+                try
+                {
+                    timer.awaitTermination(1, TimeUnit.MINUTES);
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                dump(json, prometheus);
+            }
+        };
+    }
+
+    /**
+     * Writes text to a file beside the target, then moves it over the target.
+     */
+    private static void replace(File file, String text) throws IOException
+    {
+        Path target = file.toPath();
+        Path partial = target.resolveSibling(file.getName() + ".partial");
+        try (Writer out = Files.newBufferedWriter(partial, StandardCharsets.UTF_8))
+        {
+            out.write(text);
+        }
+        try
+        {
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch( AtomicMoveNotSupportedException e )
+        {
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static String toJson(Map<String, Timer> timers, Map<String, Counter> counters)
+    {
+        StringBuilder s = new StringBuilder();
+        s.append("{\n  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+        s.append("  \"counters\": {");
+        String sep = "\n";
+        for( Counter c : counters.values() )
+        {
+            s.append(sep).append("    \"").append(c.name).append("\": ").append(c.sum());
+            sep = ",\n";
+        }
+        s.append("\n  },\n  \"timers\": {");
+        sep = "\n";
+        for( Timer t : timers.values() )
+        {
+            long[] counts = bucketCounts(t);
+            s.append(sep).append("    \"").append(t.name).append("\": {")
+             .append("\"count\": ").append(sum(counts))
+             .append(", \"sum_seconds\": ").append(seconds(t.totalNanos()))
+             .append(", \"buckets\": {");
+            String bsep = "";
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                if( counts[i] == 0 ) continue;
+                double le = bucketSeconds(i);
+                s.append(bsep).append('"').append(Double.isInfinite(le) ? "+Inf" : seconds(le))
+                 .append("\": ").append(counts[i]);
+                bsep = ", ";
+            }
+            s.append("}}");
+            sep = ",\n";
+        }
+        s.append("\n  }\n}\n");
+        return s.toString();
+    }
+
+    static String toPrometheus(Map<String, Timer> timers, Map<String, Counter> counters)
+    {
+        StringBuilder s = new StringBuilder();
+        for( Counter c : counters.values() )
+        {
+            String name = c.name + "_total";
+            s.append("# HELP ").append(name).append(' ').append(c.help).append('\n');
+            s.append("# TYPE ").append(name).append(" counter\n");
+            s.append(name).append(' ').append(c.sum()).append('\n');
+        }
+        for( Timer t : timers.values() )
+        {
+            String name = t.name + "_seconds";
+            long[] counts = bucketCounts(t);
+            s.append("# HELP ").append(name).append(' ').append(t.help).append('\n');
+            s.append("# TYPE ").append(name).append(" histogram\n");
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                cumulative += counts[i];
+                double le = bucketSeconds(i);
+                s.append(name).append("_bucket{le=\"")
+                 .append(Double.isInfinite(le) ? "+Inf" : seconds(le))
+                 .append("\"} ").append(cumulative).append('\n');
+            }
+            s.append(name).append("_sum ").append(seconds(t.totalNanos())).append('\n');
+            s.append(name).append("_count ").append(cumulative).append('\n');
+        }
+        return s.toString();
+    }
+
+    /**
+     * Bucket counts read once, so that the count reported is their sum
+     * even while workers are recording.
+     */
+    private static long[] bucketCounts(Timer t)
+    {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) counts[i] = t.buckets[i].sum();
+        return counts;
+    }
+
+    private static long sum(long[] counts)
+    {
+        long s = 0;
+        for( long c : counts ) s += c;
+        return s;
+    }
+
+    private static String seconds(long nanos)
+    {
+        return seconds(nanos / 1e9);
+    }
+
+    private static String seconds(double seconds)
+    {
+        return Double.toString(seconds);
+    }
+}
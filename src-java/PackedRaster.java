@@ -0,0 +1,34 @@
+/**
+ * A grid of packed ARGB pixels, addressed by column and row.  Implemented
+ * by the in-memory {@link Picture} and by the memory-mapped
+ * {@link TiledRaster}, so that energy, the streaming seam search and seam
+ * replacement run unchanged on either.
+ * @author James Pope
+ */
+public interface PackedRaster
+{
+    /**
+     * @return number of columns
+     */
+    int width();
+
+    /**
+     * @return number of rows
+     */
+    int height();
+
+    /**
+     * @param col
+     * @param row
+     * @return packed ARGB value of pixel (col, row)
+     */
+    int getPacked(int col, int row);
+
+    /**
+     * Sets pixel (col, row) to the packed ARGB value.
+     * @param col
+     * @param row
+     * @param argb
+     */
+    void setPacked(int col, int row, int argb);
+}
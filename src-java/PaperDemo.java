@@ -1,90 +1,119 @@
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /*************************************************************************
- *  Compilation:  javac ReplaceDemo.java
- *  Execution:    java ReplaceDemo input.png columnsToReplace rowsToReplace
- *  Dependencies: SeamDoppelganger.java SCUtility.java Picture.java
- *                Stopwatch.java StdDraw.java
+ *  Compilation:  javac PaperDemo.java
+ *  Execution:    java PaperDemo imagedir outputdir percentages [workers] [virtual] [raw] [cache=dir]
+ *                                  [png=level] [encoders=n] [metrics=dir]
+ *  Dependencies: BatchEngine.java ReplaceDemo.java SeamDoppelganger.java
+ *                Metrics.java Picture.java
  *
- *  Read image from file specified as command line argument. Use SeamDoppelganger
- *  to replace number of rows and columns specified as command line arguments.
- *  Show the images in StdDraw and print time elapsed to screen.
+ *  Read every .jpg (or .raw) image in the input directory. Use SeamDoppelganger
+ *  to replace the percentage of rows and columns specified as command
+ *  line argument, and write the seam image and a random baseline with
+ *  the same number of pixels replaced to the output directory. Images are
+ *  processed concurrently by a BatchEngine with the given number of
+ *  workers (default one per core); "virtual" uses virtual threads for
+ *  reading files where available.  PNG outputs are encoded by a separate
+ *  pool of "encoders=n" threads (default one per worker) at deflate level
+ *  "png=level", 0 (stored) to 9; level 1 is much quicker than the default
+ *  for outputs only read back by a later step.  Encode throughput is
+ *  reported separately from the seam computation.
+ *
+ *  A comma separated list of percentages (e.g. 0.05,0.10,0.25) sweeps
+ *  them all in one run, writing _seam_p05.png, _seam_p10.png, ... and the
+ *  matching _rand outputs.  Each image is seam processed once, up to the
+ *  largest percentage.
+ *
+ *  "raw" writes the outputs as .raw rasters (see RawRaster) rather than
+ *  PNG, which is much faster when they are only read back by a later
+ *  step.  "cache=dir" keeps each decoded input in dir as a .raw raster,
+ *  so that later runs over the same images skip the JPEG decode.
+ *
+ *  "metrics=dir" writes counters and latency histograms for decode,
+ *  energy, seam search, replacement, the random baseline and encode (see
+ *  Metrics) to dir/metrics.json and, in the Prometheus text format, to
+ *  dir/metrics.prom, every 10 seconds and once more at the end.
  *
  *************************************************************************/
 
 public class PaperDemo
 {
-    public static void main(String[] args)
+    private static final long METRICS_PERIOD_SECONDS = 10;
+
+    public static void main(String[] args) throws InterruptedException, IOException
     {
-        if (args.length != 3)
+        if (args.length < 3 || args.length > 10)
         {
-            System.out.println("Usage:\nPaperDemo <imagedir> <outputdir> <percentage>");
+            System.out.println("Usage:\nPaperDemo <imagedir> <outputdir> <percentage[,percentage...]> [workers] [virtual] [raw] [cache=dir] [png=level] [encoders=n] [metrics=dir]");
             System.out.println("Example:\nPaperDemo ./birds ./birds_10 0.10");
+            System.out.println("Example:\nPaperDemo ./birds ./birds_sweep 0.05,0.10,0.15,0.25");
+            System.out.println("Example:\nPaperDemo ./birds ./birds_10 0.10 8 raw cache=./birds_raw");
+            System.out.println("Example:\nPaperDemo ./birds ./birds_10 0.10 8 png=1 encoders=4");
+            System.out.println("Example:\nPaperDemo ./birds ./birds_10 0.10 metrics=./metrics");
             return;
         }
 
         File inputdir  = new File( args[0] );
         File outputdir = new File( args[1] );
-        Float p       = Float.parseFloat( args[2] );
-        if( p < 0.0f  || p > 1.0f) throw new IllegalArgumentException("Invalid p " + p);
-
+        String[] percentages = args[2].split(",");
+        float[] levels = new float[ percentages.length ];
+        for (int i = 0; i < levels.length; i++)
+        {
+            float p = Float.parseFloat( percentages[i] );
+            if( p < 0.0f  || p > 1.0f) throw new IllegalArgumentException("Invalid p " + p);
+            levels[i] = p;
+        }
+        Arrays.sort( levels );
+
+        int workers = Runtime.getRuntime().availableProcessors();
+        boolean virtual = false;
+        boolean raw = false;
+        File cache = null;
+        int level = PngWriter.DEFAULT;
+        int encoders = -1;
+        File metrics = null;
+        for (int i = 3; i < args.length; i++)
+        {
+            if(      args[i].equals("virtual") )    virtual = true;
+            else if( args[i].equals("raw") )        raw = true;
+            else if( args[i].startsWith("cache=") ) cache = new File( args[i].substring(6) );
+            else if( args[i].startsWith("png=") )   level = Integer.parseInt( args[i].substring(4) );
+            else if( args[i].startsWith("encoders=") ) encoders = Integer.parseInt( args[i].substring(9) );
+            else if( args[i].startsWith("metrics=") )  metrics = new File( args[i].substring(8) );
+            else                                    workers = Integer.parseInt( args[i] );
+        }
+        if( cache != null ) cache.mkdirs();
+        Closeable dumps = null;
+        if( metrics != null )
+        {
+            metrics.mkdirs();
+            dumps = Metrics.startDumps( new File( metrics, "metrics.json" ), new File( metrics, "metrics.prom" ),
+                                        METRICS_PERIOD_SECONDS, TimeUnit.SECONDS );
+        }
 
-        File[] inputfiles = inputdir.listFiles();
-        for( File inputfile : inputfiles )
+        List<File> inputfiles = new ArrayList<File>();
+        for( File inputfile : inputdir.listFiles() )
         {
             String filename = inputfile.getName();
-            if( !inputfile.isFile() || !filename.endsWith(".jpg") ) continue;
-
-            Picture inputImg = new Picture(inputfile);
-
-            int removeCols = Math.round( p * inputImg.width()  );
-            int removeRows = Math.round( p * inputImg.height() );
-
-            //--------------------------------------------------------------------//
-            // Seam Carving
-            //--------------------------------------------------------------------//
-            Picture seamImg = ReplaceDemo.process( inputImg, removeCols, removeRows );
-            // Determine roughly the number of pixels that will be modified
-            System.out.printf("new image size is %d columns by %d rows\n", seamImg.width(), seamImg.height());
-
-            //--------------------------------------------------------------------//
-            // NB: Save as PNG
-            //--------------------------------------------------------------------//
-            String outputname = filename.replace(".jpg","_seam.png");
-            File outputFile = new File( outputdir, outputname );
-            seamImg.save( outputFile );
-
-            //--------------------------------------------------------------------//
-            // Compare to random
-            //--------------------------------------------------------------------//
-
-
-            // Estimate number of pixels changed in seam doppelanger
-            int seamPixels = (removeCols*inputImg.width()) + (removeRows*inputImg.height())
-                         - ( removeCols + removeRows );
-
-
-            // Debugging
-            int imagepositions = inputImg.width() * inputImg.height();
-            if( seamPixels > imagepositions )
-            {
-                System.out.println("There is a problem: " + filename);
-                System.out.println("             width: " + inputImg.width());
-                System.out.println("            height: " + inputImg.height());
-                System.out.println("        seamPixels: " + seamPixels);
-                System.out.println("    imagepositions: " + imagepositions);
-            }
- 
-
-            int numPixels = seamPixels;
-            System.out.printf("Orig Random pixels %d\n", numPixels );
-            Picture randPicture = inputImg.replaceRandom( numPixels );
-            
-            outputname = filename.replace(".jpg","_rand.png");
-            outputFile = new File( outputdir, outputname );
-            
-            randPicture.save( outputFile );
+            if( !inputfile.isFile() || !(filename.endsWith(".jpg") || RawRaster.isRaw(inputfile)) ) continue;
+            inputfiles.add( inputfile );
         }
+
+        // Decoding and encoding wait on disk, so give them a thread per worker
+        BatchEngine engine = new BatchEngine( workers, workers, virtual, 2*workers );
+        engine.setRawOutput( raw );
+        engine.setInputCache( cache );
+        engine.setPngCompression( level );
+        if( encoders > 0 ) engine.setEncoders( encoders );
+        BatchEngine.Summary summary = engine.run( inputfiles, outputdir, levels );
+        System.out.println( summary );
+        if( dumps != null ) dumps.close();
     }
 
     
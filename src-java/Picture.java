@@ -27,6 +27,12 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
@@ -35,7 +41,6 @@ import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.KeyStroke;
-import java.util.TreeSet;
 
 
 /**
@@ -48,17 +53,38 @@ import java.util.TreeSet;
  *  By default, pixel (x, y) is column x, row y, where (0, 0) is upper left.
  *  The method setOriginLowerLeft() change the origin to the lower left.
  *  <p>
+ *  Pixels are held in a packed {@code int[]} ARGB raster (row-major, upper
+ *  left first).  The {@link #getPacked(int, int)} and
+ *  {@link #setPacked(int, int, int)} accessors read and write that raster
+ *  directly without allocation; only {@link #show()} and
+ *  {@link #save(File)} convert back to a {@code BufferedImage}.
+ *  <p>
  *  For additional documentation, see
  *  <a href="http://introcs.cs.princeton.edu/31datatype">Section 3.1</a> of
  *  <i>Introduction to Programming in Java: An Interdisciplinary Approach</i>
  *  by Robert Sedgewick and Kevin Wayne.
  */
-public final class Picture implements ActionListener {
-    private BufferedImage image;               // the rasterized image
+public final class Picture implements ActionListener, PackedRaster {
+    private static final int OPAQUE = 0xFF000000;
+
+    private static final Metrics.Timer DECODE = Metrics.timer("picture_decode", "Reading a picture from a file");
+    private static final Metrics.Timer ENCODE = Metrics.timer("picture_encode", "Saving a picture to a file");
+    private static final Metrics.Timer RANDOM = Metrics.timer("random_baseline", "Replacing random pixels at every level");
+    private static final Metrics.Counter DECODED_PIXELS = Metrics.counter("picture_decoded_pixels", "Pixels read from files");
+    private static final Metrics.Counter ENCODED_BYTES  = Metrics.counter("picture_encoded_bytes", "Bytes of pictures saved");
+
+    private int[] pixels;                      // packed ARGB raster, row-major
+    private BufferedImage image;               // only built for show() and save()
     private JFrame frame;                      // on-screen view
     private String filename;                   // name of file
     private boolean isOriginUpperLeft = true;  // location of origin
-    private final int width, height;           // width and height
+    private int alphaMask = OPAQUE;            // forced alpha bits, 0 if image has alpha
+    private int width, height;                 // width and height
+    private int stride;                        // raster row length, >= width after seam removal
+
+    // Origin resolved once: pixel (col, row) is pixels[origin + row*rowStep + col]
+    private int origin;
+    private int rowStep;
 
 
 
@@ -68,9 +94,12 @@ public final class Picture implements ActionListener {
     public Picture(int w, int h) {
         width = w;
         height = h;
-        image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-        // set to TYPE_INT_ARGB to support transparency
+        pixels = new int[w * h];
+        Arrays.fill(pixels, OPAQUE);
+        // set alphaMask to 0 to support transparency
         filename = w + "-by-" + h;
+        stride = w;
+        resolveOrigin();
     }
 
 
@@ -85,9 +114,9 @@ public final class Picture implements ActionListener {
     public Picture(BufferedImage image) {
         if (image    == null) throw new IllegalArgumentException("constructor argument is null");
         
-        this.image    = image;
         this.width    = image.getWidth(null);
         this.height   = image.getHeight(null);
+        load(image);
     }
 
 
@@ -97,22 +126,36 @@ public final class Picture implements ActionListener {
     public Picture(Picture pic) {
         width = pic.width();
         height = pic.height();
-        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = new int[width * height];
         filename = pic.filename;
-        for (int i = 0; i < width(); i++)
-            for (int j = 0; j < height(); j++)
-                image.setRGB(i, j, pic.get(i, j).getRGB());
+        for (int j = 0; j < height; j++)
+            System.arraycopy(pic.pixels, pic.rowOffset(j), pixels, j * width, width);
+        for (int k = 0; k < pixels.length; k++)
+            pixels[k] |= OPAQUE;
+        stride = width;
+        resolveOrigin();
     }
 
    /**
-     * Create a picture by reading in a .png, .gif, or .jpg from
+     * Create a picture by reading in a .png, .gif, .jpg or .raw from
      * the given filename or URL name.
      */
     public Picture(String filename) {
+        long start = System.nanoTime();
+        open(filename);
+        decoded(start);
+    }
+
+    private void open(String filename) {
         this.filename = filename;
+        BufferedImage image;
         try {
             // try to read from file in working directory
             File file = new File(filename);
+            if (file.isFile() && RawRaster.isRaw(file)) {
+                loadRaw(file);
+                return;
+            }
             if (file.isFile()) {
                 image = ImageIO.read(file);
             }
@@ -123,19 +166,36 @@ public final class Picture implements ActionListener {
                 if (url == null) { url = new URL(filename); }
                 image = ImageIO.read(url);
             }
-            width  = image.getWidth(null);
-            height = image.getHeight(null);
         }
         catch (IOException e) {
             // e.printStackTrace();
             throw new RuntimeException("Could not open file: " + filename);
         }
+        width  = image.getWidth(null);
+        height = image.getHeight(null);
+        load(image);
     }
 
    /**
-     * Create a picture by reading in a .png, .gif, or .jpg from a File.
+     * Create a picture by reading in a .png, .gif, .jpg or .raw from a File.
      */
     public Picture(File file) {
+        long start = System.nanoTime();
+        read(file);
+        decoded(start);
+    }
+
+    private void read(File file) {
+        if (RawRaster.isRaw(file)) {
+            filename = file.getName();
+            try { loadRaw(file); }
+            catch (IOException e) {
+                e.printStackTrace();
+                throw new RuntimeException("Could not open file: " + file);
+            }
+            return;
+        }
+        BufferedImage image;
         try { image = ImageIO.read(file); }
         catch (IOException e) {
             e.printStackTrace();
@@ -147,6 +207,78 @@ public final class Picture implements ActionListener {
         width  = image.getWidth(null);
         height = image.getHeight(null);
         filename = file.getName();
+        load(image);
+    }
+
+    private void decoded(long start) {
+        DECODE.record(start);
+        DECODED_PIXELS.add((long) width * height);
+    }
+
+   /**
+     * Unpacks a decoded image into the raster in one bulk call.
+     */
+    private void load(BufferedImage image) {
+        pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        alphaMask = image.getColorModel().hasAlpha() ? 0 : OPAQUE;
+        stride = width;
+        resolveOrigin();
+    }
+
+   /**
+     * Reads a {@link RawRaster} file through a read-only mapping, with one
+     * bulk copy into the raster and no decoding.
+     */
+    private void loadRaw(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            RawRaster.Header h = RawRaster.readHeader(channel, file);
+            width  = h.width;
+            height = h.height;
+            pixels = new int[width * height];
+            MappedByteBuffer m = channel.map(FileChannel.MapMode.READ_ONLY, RawRaster.HEADER_BYTES, 4L * pixels.length);
+            m.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(pixels);
+            RawRaster.unmap(m);
+            alphaMask = (h.layout == RawRaster.LAYOUT_ARGB) ? 0 : OPAQUE;
+        }
+        stride = width;
+        resolveOrigin();
+    }
+
+   /**
+     * Writes the raster to a {@link RawRaster} file through a mapping, with
+     * one bulk copy (one per row if seams were removed in place).
+     */
+    private void saveRaw(File file) throws IOException {
+        RawRaster.Header h = new RawRaster.Header(width, height,
+                (alphaMask == 0) ? RawRaster.LAYOUT_ARGB : RawRaster.LAYOUT_XRGB);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer m = channel.map(FileChannel.MapMode.READ_WRITE, 0, h.fileBytes());
+            m.order(ByteOrder.LITTLE_ENDIAN);
+            RawRaster.putHeader(m, h);
+            m.position(RawRaster.HEADER_BYTES);
+            IntBuffer out = m.asIntBuffer();
+            // Stored rows, top of the image first, as toBufferedImage()
+            if (stride == width)
+                out.put(pixels, 0, width * height);
+            else
+                for (int k = 0; k < height; k++)
+                    out.put(pixels, k * stride, width);
+            RawRaster.unmap(m);
+        }
+    }
+
+   /**
+     * Copies the raster into the BufferedImage used for display and encoding,
+     * creating it on first use.
+     */
+    BufferedImage toBufferedImage() {
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            int type = (alphaMask == 0) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+            image = new BufferedImage(width, height, type);
+        }
+        image.setRGB(0, 0, width, height, pixels, 0, stride);
+        return image;
     }
 
    /**
@@ -154,8 +286,8 @@ public final class Picture implements ActionListener {
      * JFrame or other GUI widget.
      */
     public JLabel getJLabel() {
-        if (image == null) { return null; }         // no image available
-        ImageIcon icon = new ImageIcon(image);
+        if (pixels == null) { return null; }        // no image available
+        ImageIcon icon = new ImageIcon(toBufferedImage());
         return new JLabel(icon);
     }
 
@@ -164,6 +296,7 @@ public final class Picture implements ActionListener {
      */
     public void setOriginUpperLeft() {
         isOriginUpperLeft = true;
+        resolveOrigin();
     }
 
    /**
@@ -171,6 +304,86 @@ public final class Picture implements ActionListener {
      */
     public void setOriginLowerLeft() {
         isOriginUpperLeft = false;
+        resolveOrigin();
+    }
+
+    private void resolveOrigin() {
+        if (isOriginUpperLeft) { origin = 0;                     rowStep =  stride; }
+        else                   { origin = (height - 1) * stride; rowStep = -stride; }
+    }
+
+   /**
+     * Removes pixel (a[row], row) from every row, shifting the rest of the
+     * row left by one, and narrows the picture by one column.  Works in
+     * place with one arraycopy per row: the raster keeps its row stride and
+     * the unused tail of each row is left until {@link #compact()}.
+     * The caller checks that the seam is valid.
+     *
+     * @param a column to remove for each row
+     */
+    void removeVerticalSeam(int[] a) {
+        for (int row = 0; row < height; row++) {
+            int offset = rowOffset(row);
+            System.arraycopy(pixels, offset + a[row] + 1, pixels, offset + a[row], width - a[row] - 1);
+        }
+        width--;
+    }
+
+   /**
+     * Removes pixel (col, a[col]) from every column, shifting the part of
+     * the column below it (in the raster) up by one, and shortens the
+     * picture by one row.  Works in place, a row at a time: raster rows
+     * above every seam pixel are untouched, rows below every seam pixel
+     * move with a single arraycopy and only the rows the seam crosses are
+     * shifted pixel by pixel.  The caller checks that the seam is valid.
+     *
+     * @param a row to remove for each column
+     */
+    void removeHorizontalSeam(int[] a) {
+        // Raster row of each seam pixel is a[col], or height-1-a[col] with
+        // the origin lower left since the picture rows then run bottom up
+        int first = height, last = 0;
+        for (int col = 0; col < width; col++) {
+            int k = isOriginUpperLeft ? a[col] : height - 1 - a[col];
+            first = Math.min(first, k);
+            last  = Math.max(last,  k);
+        }
+        for (int k = first; k < height - 1; k++) {
+            int to = k * stride;
+            int from = to + stride;
+            if (k >= last) {
+                System.arraycopy(pixels, from, pixels, to, width);
+            }
+            else {
+                for (int col = 0; col < width; col++) {
+                    int seam = isOriginUpperLeft ? a[col] : height - 1 - a[col];
+                    if (k >= seam) pixels[to + col] = pixels[from + col];
+                }
+            }
+        }
+        height--;
+        resolveOrigin();
+    }
+
+   /**
+     * Packs the rows of the raster back together after seam removal, and
+     * releases the unused space.  Does nothing if no seam was removed.
+     * Meant to be called once, when a sequence of removals is finished.
+     */
+    public void compact() {
+        if (stride == width && pixels.length == width * height) return;
+        for (int k = 1; k < height; k++)
+            System.arraycopy(pixels, k * stride, pixels, k * width, width);
+        pixels = Arrays.copyOf(pixels, width * height);
+        stride = width;
+        resolveOrigin();
+    }
+
+   /**
+     * Raster index of the first pixel of the given row, honouring the origin.
+     */
+    int rowOffset(int row) {
+        return origin + row * rowStep;
     }
 
    /**
@@ -204,6 +417,7 @@ public final class Picture implements ActionListener {
         }
 
         // draw
+        toBufferedImage();
         frame.repaint();
     }
 
@@ -231,12 +445,18 @@ public final class Picture implements ActionListener {
             throw new IllegalArgumentException("column index must be between 0 and " + (width() - 1) + ": " + col);
     }
 
+    private void checkPixel(int col, int row) {
+        if (col < 0 || col >= width || row < 0 || row >= height)
+            throw new IndexOutOfBoundsException("pixel (" + col + ", " + row + ") outside " + width + "x" + height);
+    }
+
    /**
      * Return the color of pixel (i, j).
+     * @throws IndexOutOfBoundsException unless both {@code 0 <= i < width} and {@code 0 <= j < height}
      */
     public Color get(int i, int j) {
-        if (isOriginUpperLeft) return new Color(image.getRGB(i, j));
-        else                   return new Color(image.getRGB(i, height - j - 1));
+        checkPixel(i, j);
+        return new Color(pixels[origin + j * rowStep + i]);
     }
 
     /**
@@ -252,17 +472,119 @@ public final class Picture implements ActionListener {
     public int getRGB(int col, int row) {
         validateColumnIndex(col);
         validateRowIndex(row);
-        if (isOriginUpperLeft) return image.getRGB(col, row);
-        else                   return image.getRGB(col, height - row - 1);
+        return pixels[origin + row * rowStep + col];
+    }
+
+    /**
+     * Returns the packed ARGB value of pixel ({@code col}, {@code row}).
+     * Nothing is allocated, so this is the accessor for inner loops.
+     *
+     * @param col the column index
+     * @param row the row index
+     * @return the packed ARGB value of pixel ({@code col}, {@code row})
+     * @throws IndexOutOfBoundsException unless both {@code 0 <= col < width} and {@code 0 <= row < height}
+     */
+    public int getPacked(int col, int row) {
+        checkPixel(col, row);
+        return pixels[origin + row * rowStep + col];
+    }
+
+    /**
+     * Sets pixel ({@code col}, {@code row}) to the packed ARGB value.
+     *
+     * @param col the column index
+     * @param row the row index
+     * @param argb the packed ARGB value
+     * @throws IndexOutOfBoundsException unless both {@code 0 <= col < width} and {@code 0 <= row < height}
+     */
+    public void setPacked(int col, int row, int argb) {
+        checkPixel(col, row);
+        pixels[origin + row * rowStep + col] = argb | alphaMask;
+    }
+
+    /**
+     * As {@link #getPacked(int, int)} without the bounds check, for loops
+     * that keep inside the picture.  A column out of range reads another row.
+     */
+    int packed(int col, int row) {
+        return pixels[origin + row * rowStep + col];
+    }
+
+    /**
+     * As {@link #setPacked(int, int, int)} without the bounds check, for
+     * loops that keep inside the picture.
+     */
+    void putPacked(int col, int row, int argb) {
+        pixels[origin + row * rowStep + col] = argb | alphaMask;
+    }
+
+    /**
+     * Copies row {@code row} into {@code dst}, which is allocated only if it
+     * is {@code null} or shorter than the width.
+     *
+     * @param row the row index
+     * @param dst destination buffer, may be {@code null}
+     * @return the buffer holding the row
+     */
+    public int[] getRow(int row, int[] dst) {
+        validateRowIndex(row);
+        if (dst == null || dst.length < width) dst = new int[width];
+        System.arraycopy(pixels, rowOffset(row), dst, 0, width);
+        return dst;
+    }
+
+    /**
+     * Overwrites row {@code row} with the first width values of {@code src}.
+     *
+     * @param row the row index
+     * @param src packed ARGB values
+     */
+    public void setRow(int row, int[] src) {
+        validateRowIndex(row);
+        int offset = rowOffset(row);
+        System.arraycopy(src, 0, pixels, offset, width);
+        if (alphaMask != 0)
+            for (int i = offset; i < offset + width; i++) pixels[i] |= alphaMask;
+    }
+
+    /**
+     * Copies column {@code col} into {@code dst}, which is allocated only if
+     * it is {@code null} or shorter than the height.
+     *
+     * @param col the column index
+     * @param dst destination buffer, may be {@code null}
+     * @return the buffer holding the column
+     */
+    public int[] getColumn(int col, int[] dst) {
+        validateColumnIndex(col);
+        if (dst == null || dst.length < height) dst = new int[height];
+        int k = origin + col;
+        for (int j = 0; j < height; j++, k += rowStep)
+            dst[j] = pixels[k];
+        return dst;
+    }
+
+    /**
+     * Overwrites column {@code col} with the first height values of {@code src}.
+     *
+     * @param col the column index
+     * @param src packed ARGB values
+     */
+    public void setColumn(int col, int[] src) {
+        validateColumnIndex(col);
+        int k = origin + col;
+        for (int j = 0; j < height; j++, k += rowStep)
+            pixels[k] = src[j] | alphaMask;
     }
 
    /**
      * Set the color of pixel (i, j) to c.
+     * @throws IndexOutOfBoundsException unless both {@code 0 <= i < width} and {@code 0 <= j < height}
      */
     public void set(int i, int j, Color c) {
+        checkPixel(i, j);
         if (c == null) { throw new RuntimeException("can't set Color to null"); }
-        if (isOriginUpperLeft) image.setRGB(i, j, c.getRGB());
-        else                   image.setRGB(i, height - j - 1, c.getRGB());
+        pixels[origin + j * rowStep + i] = c.getRGB() | alphaMask;
     }
 
    /**
@@ -275,16 +597,19 @@ public final class Picture implements ActionListener {
         Picture that = (Picture) obj;
         if (this.width()  != that.width())  return false;
         if (this.height() != that.height()) return false;
-        for (int x = 0; x < width(); x++)
-            for (int y = 0; y < height(); y++)
-                if (!this.get(x, y).equals(that.get(x, y))) return false;
+        for (int y = 0; y < height(); y++) {
+            int a = this.rowOffset(y);
+            int b = that.rowOffset(y);
+            for (int x = 0; x < width(); x++)
+                if (this.pixels[a + x] != that.pixels[b + x]) return false;
+        }
         return true;
     }
 
 
    /**
      * Save the picture to a file in a standard image format.
-     * The filetype must be .png or .jpg.
+     * The filetype must be .png, .jpg or .raw (see {@link RawRaster}).
      */
     public void save(String name) {
         save(new File(name));
@@ -292,19 +617,42 @@ public final class Picture implements ActionListener {
 
    /**
      * Save the picture to a file in a standard image format.
+     * Errors are printed, see {@link #write(File)} to have them thrown.
      */
     public void save(File file) {
+        try { write(file); }
+        catch (IOException e) { e.printStackTrace(); }
+    }
+
+   /**
+     * Save the picture to a .png, .jpg or .raw file, throwing if it could
+     * not be written in full.
+     */
+    void write(File file) throws IOException {
+        long start = System.nanoTime();
         this.filename = file.getName();
         if (frame != null) { frame.setTitle(filename); }
         String suffix = filename.substring(filename.lastIndexOf('.') + 1);
         suffix = suffix.toLowerCase();
         if (suffix.equals("jpg") || suffix.equals("png")) {
-            try { ImageIO.write(image, suffix, file); }
-            catch (IOException e) { e.printStackTrace(); }
+            if (!ImageIO.write(toBufferedImage(), suffix, file))
+                throw new IOException("No " + suffix + " writer for " + file);
+        }
+        else if (RawRaster.isRaw(file)) {
+            saveRaw(file);
         }
         else {
-            System.out.println("Error: filename must end in .jpg or .png");
+            throw new IOException("Filename must end in .jpg, .png or .raw: " + file);
         }
+        encoded(start, file.length());
+    }
+
+   /**
+     * Records a picture saved by this class or {@link PngWriter}.
+     */
+    static void encoded(long start, long bytes) {
+        ENCODE.record(start);
+        ENCODED_BYTES.add(bytes);
     }
 
    /**
@@ -329,7 +677,7 @@ public final class Picture implements ActionListener {
         {
             for (int j = 0; j < this.height(); j++)
             {
-                pT.set(j, i, this.get(i, j));
+                pT.putPacked(j, i, this.packed(i, j));
             }
         }
         return pT;
@@ -341,11 +689,32 @@ public final class Picture implements ActionListener {
      * the correlation operator. Uses 0-padding for pixels around the image.
      * This is equivalent to MATLAB:
      * <pre>result = filter2(kernel, this);</pre>
+     * Only pixels at least half a kernel width from the border are filtered,
+     * the border band of the result is left black.  Kernel entry (i, j)
+     * weights the pixel at column offset i and row offset j.
+     * <p>
+     * A {@link SeparableKernel} is applied as a horizontal 1-D pass followed
+     * by a vertical 1-D pass, giving the same result (up to rounding) in
+     * O(n) rather than O(n^2) per pixel, unless it has been changed since
+     * it was created.  A {@link RecursiveGaussian}, on the same terms, is
+     * applied recursively, in O(1) per pixel.  Other kernels of
+     * {@link FourierFilter#PICTURE_CROSSOVER} or more pixels a side are applied
+     * through the FFT, in O(log n) per pixel.
      *
      * @param kernel - Filter kernel matrix
      * @return a new matrix with the result
      */
     public Picture applyFilter( Matrix kernel )
+    {
+        Object event = FlightEvents.EVENTS.beginFilter();
+        Picture m = filter( kernel );
+        FlightEvents.EVENTS.endFilter( event, kernel.getRowSize(),
+                                       kernel instanceof SeparableKernel && ((SeparableKernel)kernel).isSeparable(),
+                                       this.width, this.height );
+        return m;
+    }
+
+    private Picture filter( Matrix kernel )
     {
         // We do not zero pad or properly filter near edges.
         // Instead, filtering starts at half kernel width.
@@ -359,6 +728,30 @@ public final class Picture implements ActionListener {
             throw new IllegalArgumentException(e);
         }
         
+        if( kernel instanceof RecursiveGaussian && ((RecursiveGaussian)kernel).isSeparable() )
+        {
+            return applyRecursiveFilter( (RecursiveGaussian)kernel, m );
+        }
+        
+        if( kernel instanceof SeparableKernel && ((SeparableKernel)kernel).isSeparable() )
+        {
+            return applySeparableFilter( (SeparableKernel)kernel, m );
+        }
+        
+        if( kernel.getRowSize() >= FourierFilter.PICTURE_CROSSOVER )
+        {
+            return applyFourierFilter( kernel, m );
+        }
+        
+        return applyDirectFilter( kernel, m );
+    }
+
+    /**
+     * Direct version of applyFilter, writing into the blank picture m,
+     * O(n^2) per pixel.
+     */
+    Picture applyDirectFilter( Matrix kernel, Picture m )
+    {
         //int height = this.data.length;
         //int width  = this.data[0].length;
         
@@ -384,12 +777,12 @@ public final class Picture implements ActionListener {
                         //Color c = this.get( x-mp+i, y-mp+j ) ;
                         //double intensity = Luminance.intensity(c);
                         
-                        Color c = this.get( x-mp+i, y-mp+j );
+                        int c = this.packed( x-mp+i, y-mp+j );
                         
                         // Make so all are in [0.0, 1.0]
-                        double r = c.getRed();
-                        double g = c.getGreen();
-                        double b = c.getBlue();
+                        double r = (c >> 16) & 0xFF;
+                        double g = (c >>  8) & 0xFF;
+                        double b = (c      ) & 0xFF;
                         
                         //int intensity = this.getRGB(x-mp+i, y-mp+j);
                         
@@ -429,6 +822,9 @@ public final class Picture implements ActionListener {
                 if( sumRi > 255 ) sumRi = 255;
                 if( sumGi > 255 ) sumGi = 255;
                 if( sumBi > 255 ) sumBi = 255;
+                if( sumRi < 0 ) sumRi = 0;
+                if( sumGi < 0 ) sumGi = 0;
+                if( sumBi < 0 ) sumBi = 0;
                 
                 //System.out.printf("(%d,%d) = [%d,%d,%d]\n", x, y, avgR, avgG, avgB );
                 //Color c = new Color((int)kernelAverage, (int)kernelAverage, (int)kernelAverage);
@@ -441,7 +837,7 @@ public final class Picture implements ActionListener {
                 //if( avgGi > maxIntensity ) maxIntensity = avgGi;
                 //if( avgBi > maxIntensity ) maxIntensity = avgBi;
                 
-                m.set(x, y, new Color(sumRi,sumGi,sumBi) );
+                m.putPacked(x, y, (sumRi << 16) | (sumGi << 8) | sumBi );
                 
                 //m.data[x][y] = kernelAverage;
             }
@@ -454,6 +850,226 @@ public final class Picture implements ActionListener {
         return m;
     }
 
+    /**
+     * Separable version of applyFilter, writing into the blank picture m.
+     * The horizontal pass filters every row, since the vertical pass needs
+     * the rows within half a kernel width of each output row, into one
+     * double buffer per channel.  The vertical pass then filters those
+     * buffers down the columns.  Only the interior is written, as in
+     * applyFilter, and channels are truncated and clamped the same way.
+     */
+    private Picture applySeparableFilter( SeparableKernel kernel, Picture m )
+    {
+        m.filename = this.filename;
+        
+        int n = kernel.getRowSize();
+        int mp = n / 2;
+        int w = this.width;
+        int h = this.height;
+        if( w < n || h < n ) return m;
+        
+        // Kernel entry (i, j) is column offset i, row offset j
+        double[] horizontal = new double[n];
+        double[] vertical   = new double[n];
+        for (int i = 0; i < n; i++)
+        {
+            horizontal[i] = kernel.rowFactor(i);
+            vertical[i]   = kernel.columnFactor(i);
+        }
+        
+        // Horizontal pass over unpacked channels of each row
+        double[] tR = new double[w*h];
+        double[] tG = new double[w*h];
+        double[] tB = new double[w*h];
+        int[] row = new int[w];
+        int[] r = new int[w];
+        int[] g = new int[w];
+        int[] b = new int[w];
+        for (int y = 0; y < h; y++)
+        {
+            this.getRow(y, row);
+            for (int x = 0; x < w; x++)
+            {
+                int c = row[x];
+                r[x] = (c >> 16) & 0xFF;
+                g[x] = (c >>  8) & 0xFF;
+                b[x] = (c      ) & 0xFF;
+            }
+            int base = y*w;
+            for (int x = mp; x < w-mp; x++)
+            {
+                double sumR = 0.0;
+                double sumG = 0.0;
+                double sumB = 0.0;
+                for (int i = 0; i < n; i++)
+                {
+                    double k = horizontal[i];
+                    sumR += r[x-mp+i] * k;
+                    sumG += g[x-mp+i] * k;
+                    sumB += b[x-mp+i] * k;
+                }
+                tR[base+x] = sumR;
+                tG[base+x] = sumG;
+                tB[base+x] = sumB;
+            }
+        }
+        
+        // Vertical pass, one output row at a time
+        double[] sumR = new double[w];
+        double[] sumG = new double[w];
+        double[] sumB = new double[w];
+        Arrays.fill(row, 0);
+        for (int y = mp; y < h-mp; y++)
+        {
+            Arrays.fill(sumR, 0.0);
+            Arrays.fill(sumG, 0.0);
+            Arrays.fill(sumB, 0.0);
+            for (int j = 0; j < n; j++)
+            {
+                double k = vertical[j];
+                int base = (y-mp+j)*w;
+                for (int x = mp; x < w-mp; x++)
+                {
+                    sumR[x] += tR[base+x] * k;
+                    sumG[x] += tG[base+x] * k;
+                    sumB[x] += tB[base+x] * k;
+                }
+            }
+            for (int x = mp; x < w-mp; x++)
+            {
+                row[x] = (clamp( (int)sumR[x] ) << 16)
+                       | (clamp( (int)sumG[x] ) <<  8)
+                       |  clamp( (int)sumB[x] );
+            }
+            m.setRow(y, row);
+        }
+        
+        return m;
+    }
+    
+    /**
+     * Recursive version of applyFilter, writing into the blank picture m.
+     * Each channel is unpacked into a double buffer, filtered along the
+     * rows and then down the columns, and scaled to the total weight of
+     * the FIR kernel.  Only the interior is written, as in applyFilter, and
+     * channels are truncated and clamped the same way.
+     */
+    private Picture applyRecursiveFilter( RecursiveGaussian kernel, Picture m )
+    {
+        m.filename = this.filename;
+        
+        int n = kernel.getRowSize();
+        int mp = n / 2;
+        int w = this.width;
+        int h = this.height;
+        if( w < n || h < n ) return m;
+        
+        double[] tR = new double[w*h];
+        double[] tG = new double[w*h];
+        double[] tB = new double[w*h];
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++)
+        {
+            this.getRow(y, row);
+            int base = y*w;
+            for (int x = 0; x < w; x++)
+            {
+                int c = row[x];
+                tR[base+x] = (c >> 16) & 0xFF;
+                tG[base+x] = (c >>  8) & 0xFF;
+                tB[base+x] = (c      ) & 0xFF;
+            }
+        }
+        
+        // Kernel rows are column offsets, so the row factors run along x
+        for( double[] t : new double[][] { tR, tG, tB } )
+        {
+            kernel.filterRows(t, h, w);
+            kernel.filterColumns(t, h, w);
+        }
+        
+        double scale = kernel.rowGain() * kernel.columnGain();
+        Arrays.fill(row, 0);
+        for (int y = mp; y < h-mp; y++)
+        {
+            int base = y*w;
+            for (int x = mp; x < w-mp; x++)
+            {
+                row[x] = (clamp( (int)(tR[base+x] * scale) ) << 16)
+                       | (clamp( (int)(tG[base+x] * scale) ) <<  8)
+                       |  clamp( (int)(tB[base+x] * scale) );
+            }
+            m.setRow(y, row);
+        }
+        
+        return m;
+    }
+    
+    /**
+     * FFT version of applyFilter, writing into the blank picture m, see
+     * {@link FourierFilter}.  Each channel in turn is unpacked into a
+     * double buffer and correlated with the kernel.  Only the interior is
+     * written, as in applyFilter, and channels are truncated and clamped
+     * the same way, a sum within rounding of a whole level counting as
+     * that level.
+     */
+    Picture applyFourierFilter( Matrix kernel, Picture m )
+    {
+        m.filename = this.filename;
+        
+        int n = kernel.getRowSize();
+        int mp = n / 2;
+        int w = this.width;
+        int h = this.height;
+        if( w < n || h < n ) return m;
+        
+        // Kernel entry (i, j) is column offset i, row offset j
+        FourierFilter filter = new FourierFilter(kernel, true, h, w);
+        double[] channel = new double[w*h];
+        double[] sums    = new double[w*h];
+        int[] packed = new int[w*h];
+        int[] row = new int[w];
+        for (int shift = 16; shift >= 0; shift -= 8)
+        {
+            for (int y = 0; y < h; y++)
+            {
+                this.getRow(y, row);
+                int base = y*w;
+                for (int x = 0; x < w; x++)
+                {
+                    channel[base+x] = (row[x] >> shift) & 0xFF;
+                }
+            }
+            Arrays.fill(sums, 0.0);
+            filter.correlate(channel, 0, w, h, w, sums);
+            for (int y = mp; y < h-mp; y++)
+            {
+                int base = y*w;
+                for (int x = mp; x < w-mp; x++)
+                {
+                    double sum = sums[base+x];
+                    double level = Math.rint(sum);
+                    if( Math.abs(sum - level) < 1e-6 ) sum = level;
+                    packed[base+x] |= clamp( (int)sum ) << shift;
+                }
+            }
+        }
+        for (int y = mp; y < h-mp; y++)
+        {
+            System.arraycopy(packed, y*w, row, 0, w);
+            m.setRow(y, row);
+        }
+        
+        return m;
+    }
+    
+    private static int clamp( int channel )
+    {
+        if( channel > 255 ) return 255;
+        if( channel < 0 )   return 0;
+        return channel;
+    }
+
     public Picture makeGray()
     {
         Picture g = new Picture(this.width, this.height);
@@ -471,34 +1087,48 @@ public final class Picture implements ActionListener {
 
     public Picture replaceRandom( int numRandomPixels )
     {
-        int[] pixels = new int[ this.width * this.height ];
-        for( int i = 0 ; i < pixels.length; i++ ) pixels[i] = i;
-        StdRandom.shuffle( pixels );
-        TreeSet<Integer> randPixels = new TreeSet();
-        for( int i = 0; i < numRandomPixels; i++ ) randPixels.add( pixels[i] );
-        
+        return replaceRandom( new int[]{ numRandomPixels } )[0];
+    }
+
+    /**
+     * Replaces random pixels with random colours at several levels from a
+     * single shuffle of the pixel positions.  Level i replaces the first
+     * numRandomPixels[i] positions of the shuffle, so every level contains
+     * the pixels (and colours) of the levels before it.
+     * @param numRandomPixels pixels to replace at each level, non-decreasing
+     * @return one new picture per level
+     */
+    public Picture[] replaceRandom( int[] numRandomPixels )
+    {
+        long start = System.nanoTime();
+        int n = this.width * this.height;
+        int[] order = new int[ n ];
+        for( int i = 0 ; i < order.length; i++ ) order[i] = i;
+        StdRandom.shuffle( order );
 
-        Picture p = new Picture(this.width, this.height);
-        for (int x = 0; x < p.width; x++)
+        Picture[] levels = new Picture[ numRandomPixels.length ];
+        Picture p = new Picture(this);
+        int replaced = 0;
+        for( int level = 0; level < levels.length; level++ )
         {
-            for (int y = 0; y < p.height; y++)
+            int count = Math.min( numRandomPixels[level], n );
+            if( count < replaced )
             {
-                Color c = this.get( x, y );
-                if( randPixels.contains(x*y) )
-                {
-                    int r = StdRandom.uniform( 0, 256 );
-                    int g = StdRandom.uniform( 0, 256 );
-                    int b = StdRandom.uniform( 0, 256 );
-                    Color newColor = new Color( r, g, b );
-                    p.set(x, y, newColor);
-                }
-                else
-                {
-                    p.set(x, y, c);
-                }
+                throw new IllegalArgumentException("Levels must not decrease "+Arrays.toString(numRandomPixels));
+            }
+            for( ; replaced < count; replaced++ )
+            {
+                // Position is row-major, row * width + column
+                int i = order[replaced];
+                int r = StdRandom.uniform( 0, 256 );
+                int g = StdRandom.uniform( 0, 256 );
+                int b = StdRandom.uniform( 0, 256 );
+                p.putPacked(i % width, i / width, (r << 16) | (g << 8) | b);
             }
+            levels[level] = (level == levels.length-1) ? p : new Picture(p);
         }
-        return p;
+        RANDOM.record(start);
+        return levels;
     }
 
 
@@ -0,0 +1,295 @@
+/**
+ * Approximate seam search for large pictures, coarse to fine.  The energy
+ * map is halved in both directions, averaging 2x2 blocks, until it is
+ * about {@link #coarsest()} pixels on its shorter side.  The exact
+ * dynamic programming search runs on that smallest level only.  At each
+ * finer level the seam found is scaled up, and the dynamic programming is
+ * repeated in a band reaching {@link #band()} pixels either side of it,
+ * so a level costs O(h * band) rather than O(w * h).
+ * <p>
+ * The result is a valid seam but not always the least one: a cheaper
+ * seam that wanders out of the band at some level is missed.  A wider
+ * band narrows the gap to {@link DynamicSeamFinder} at the price of
+ * speed.  Pictures too small to halve are searched exactly.
+ * <p>
+ * Within a band, steps and ties are chosen as in {@link DynamicSeamFinder}.
+ * For the maximum seam, border pixels count as 0 energy before averaging.
+ * The levels, cost rows and backpointers are borrowed from a
+ * {@link SeamWorkspace}, so repeated searches do not allocate.
+ * @author James Pope
+ */
+public class PyramidSeamFinder implements SeamFinder
+{
+    /** Default pixels searched either side of the scaled-up seam */
+    public static final int DEFAULT_BAND = 4;
+
+    /** Default shorter side of the smallest level */
+    public static final int DEFAULT_COARSEST = 64;
+
+    private static final byte WEST     = -1;
+    private static final byte STRAIGHT =  0;
+    private static final byte EAST     =  1;
+
+    private static final long UNREACHABLE_MIN = Long.MAX_VALUE;
+    private static final long UNREACHABLE_MAX = Long.MIN_VALUE;
+
+    private final int band;
+    private final int coarsest;
+
+    /**
+     * Creates a pyramid finder with the default band and smallest level.
+     */
+    public PyramidSeamFinder()
+    {
+        this(DEFAULT_BAND, DEFAULT_COARSEST);
+    }
+
+    /**
+     * Creates a pyramid finder with the default smallest level.
+     * @param band pixels searched either side of the scaled-up seam, at least 1
+     */
+    public PyramidSeamFinder(int band)
+    {
+        this(band, DEFAULT_COARSEST);
+    }
+
+    /**
+     * Creates a pyramid finder.
+     * @param band pixels searched either side of the scaled-up seam, at least 1
+     * @param coarsest levels are halved while both sides stay at least this, at least 2
+     */
+    public PyramidSeamFinder(int band, int coarsest)
+    {
+        if( band < 1 )
+        {
+            throw new IllegalArgumentException("Band must be at least 1: "+band);
+        }
+        if( coarsest < 2 )
+        {
+            throw new IllegalArgumentException("Coarsest level must be at least 2: "+coarsest);
+        }
+        this.band = band;
+        this.coarsest = coarsest;
+    }
+
+    /**
+     * @return pixels searched either side of the scaled-up seam
+     */
+    public int band()
+    {
+        return this.band;
+    }
+
+    /**
+     * @return shorter side below which levels are not halved
+     */
+    public int coarsest()
+    {
+        return this.coarsest;
+    }
+
+    @Override
+    public void findMinimumSeam(int[] e, int w, int h, SeamWorkspace ws, int[] seam)
+    {
+        findSeam(e, w, h, ws, seam, false);
+    }
+
+    @Override
+    public void findMaximumSeam(int[] e, int w, int h, SeamWorkspace ws, int[] seam)
+    {
+        findSeam(e, w, h, ws, seam, true);
+    }
+
+    private void findSeam(int[] e, int w, int h, SeamWorkspace ws, int[] seam, boolean largest)
+    {
+        // Count the levels below the full map and the room they need
+        int levels = 0;
+        int room = 0;
+        while( halved(w, levels)/2 >= coarsest && halved(h, levels)/2 >= coarsest )
+        {
+            levels++;
+            room += halved(w, levels) * halved(h, levels);
+        }
+
+        // Level 1 starts the pyramid, each following level comes after it
+        int[] pyramid = ws.pyramid(room);
+        int from = 0;
+        for (int l = 1; l <= levels; l++)
+        {
+            int pw = halved(w, l-1);
+            int ph = halved(h, l-1);
+            if( l == 1 )
+            {
+                halve(e, 0, pw, ph, pyramid, 0, largest);
+            }
+            else
+            {
+                int to = from + pw*ph;
+                halve(pyramid, from, pw, ph, pyramid, to, false);
+                from = to;
+            }
+        }
+
+        // Searched from the top level down, the seam of level l goes to
+        // seam if l is even and to the spare buffer if odd
+        int[] spare = ws.coarseSeam(levels > 0 ? halved(h, 1) : 0);
+        for (int l = levels; l >= 0; l--)
+        {
+            int[] out    = ((l & 1) == 0) ? seam : spare;
+            int[] coarse = (l == levels) ? null : ((l & 1) == 0) ? spare : seam;
+            int lw = halved(w, l);
+            int lh = halved(h, l);
+            if( l == 0 )
+            {
+                bandSearch(e, 0, lw, lh, coarse, ws, out, largest, true);
+            }
+            else
+            {
+                bandSearch(pyramid, from, lw, lh, coarse, ws, out, largest, false);
+                from -= (l > 1) ? halved(w, l-1) * halved(h, l-1) : 0;
+            }
+        }
+    }
+
+    /**
+     * @return n halved, rounding up, l times
+     */
+    private static int halved(int n, int l)
+    {
+        for (int i = 0; i < l; i++) n = (n + 1) / 2;
+        return n;
+    }
+
+    /**
+     * Averages 2x2 blocks of the w-by-h map at src[from] into dst[to], the
+     * last column and row repeated when w or h is odd.
+     */
+    private static void halve(int[] src, int from, int w, int h, int[] dst, int to, boolean largest)
+    {
+        int hw = (w + 1) / 2;
+        int hh = (h + 1) / 2;
+        for (int y = 0; y < hh; y++)
+        {
+            int r0 = from + (2*y)*w;
+            int r1 = from + Math.min(2*y+1, h-1)*w;
+            int out = to + y*hw;
+            int x = 0;
+            for (; 2*x+1 < w; x++)
+            {
+                long sum = (long) cost(src[r0+2*x], largest) + cost(src[r0+2*x+1], largest)
+                         + cost(src[r1+2*x], largest) + cost(src[r1+2*x+1], largest);
+                dst[out+x] = (int) (sum >> 2);
+            }
+            if( x < hw )
+            {
+                long sum = (long) cost(src[r0+w-1], largest) + cost(src[r1+w-1], largest);
+                dst[out+x] = (int) (sum >> 1);
+            }
+        }
+    }
+
+    /**
+     * Dynamic programming over the band of each row, as
+     * {@link DynamicSeamFinder} does over the whole row.
+     * @param e the level
+     * @param base offset of the level in e
+     * @param coarse seam of the level above, or null to search every column
+     * @param border whether border pixels are still in e, so count 0 for the maximum seam
+     */
+    private void bandSearch(int[] e, int base, int w, int h, int[] coarse,
+                            SeamWorkspace ws, int[] seam, boolean largest, boolean border)
+    {
+        byte[] back = ws.backpointers(w*h);
+        long[] cost = ws.costs(w);
+        long unreachable = largest ? UNREACHABLE_MAX : UNREACHABLE_MIN;
+        int prev = 0;
+        int curr = w;
+
+        int plo = lo(coarse, 0);
+        int phi = hi(coarse, 0, w);
+        for (int x = plo; x <= phi; x++)
+        {
+            cost[prev+x] = border ? cost(e[base+x], largest) : e[base+x];
+        }
+
+        for (int y = 1; y < h; y++)
+        {
+            int row = y*w;
+            int lo = lo(coarse, y);
+            int hi = hi(coarse, y, w);
+            for (int x = lo; x <= hi; x++)
+            {
+                long best = unreachable;
+                byte step = STRAIGHT;
+                if( x >= plo && x <= phi )
+                {
+                    best = cost[prev+x];
+                }
+                if( x-1 >= plo && x-1 <= phi && (best == unreachable || better(cost[prev+x-1], best, largest)) )
+                {
+                    best = cost[prev+x-1];
+                    step = WEST;
+                }
+                if( x+1 >= plo && x+1 <= phi && (best == unreachable || better(cost[prev+x+1], best, largest)) )
+                {
+                    best = cost[prev+x+1];
+                    step = EAST;
+                }
+                if( best != unreachable )
+                {
+                    int energy = border ? cost(e[base+row+x], largest) : e[base+row+x];
+                    best += energy;
+                }
+                cost[curr+x] = best;
+                back[row+x] = step;
+            }
+            int t = prev; prev = curr; curr = t;
+            plo = lo;
+            phi = hi;
+        }
+
+        // Best end point in the last row
+        int x = plo;
+        for (int i = plo+1; i <= phi; i++)
+        {
+            if( better(cost[prev+i], cost[prev+x], largest) ) x = i;
+        }
+
+        // Backtrack
+        for (int y = h-1; y > 0; y--)
+        {
+            seam[y] = x;
+            x += back[y*w+x];
+        }
+        seam[0] = x;
+    }
+
+    /**
+     * @return first column searched in row y
+     */
+    private int lo(int[] coarse, int y)
+    {
+        if( coarse == null ) return 0;
+        return Math.max(0, 2*coarse[y/2] - band);
+    }
+
+    /**
+     * @return last column searched in row y
+     */
+    private int hi(int[] coarse, int y, int w)
+    {
+        if( coarse == null ) return w-1;
+        return Math.min(w-1, 2*coarse[y/2] + 1 + band);
+    }
+
+    private static int cost(int energy, boolean largest)
+    {
+        if( largest && energy == SeamDoppelganger.BORDER_ENERGY ) return 0;
+        return energy;
+    }
+
+    private static boolean better(long a, long b, boolean largest)
+    {
+        return largest ? a > b : a < b;
+    }
+}
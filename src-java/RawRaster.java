@@ -0,0 +1,199 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Raw raster file format, for intermediate and cached pictures that would
+ * otherwise go through a full PNG encode and decode.  A .raw file is a
+ * 32 byte header followed by the packed pixels, all little endian:
+ * <pre>
+ *   offset  0  magic "PRAW"
+ *   offset  4  int version, 1
+ *   offset  8  int width
+ *   offset 12  int height
+ *   offset 16  int channel layout, LAYOUT_ARGB or LAYOUT_XRGB
+ *   offset 20  reserved, 0
+ *   offset 32  width*height int pixels, row-major, upper left first
+ * </pre>
+ * With LAYOUT_XRGB the picture is opaque and the top byte of each pixel is
+ * ignored.  The same layout backs a {@link TiledRaster}, so an out-of-core
+ * result can be loaded as a {@link Picture} when it fits in memory.
+ * <p>
+ * Files are read and written through memory mappings, see
+ * {@link Picture#save(File)} and {@link Picture#Picture(File)}.
+ * @author James Pope
+ */
+public final class RawRaster
+{
+    /** File name extension of raw rasters */
+    public static final String EXTENSION = ".raw";
+
+    /** Bytes before the first pixel */
+    public static final int HEADER_BYTES = 32;
+
+    /** Pixels are ARGB, alpha is kept */
+    public static final int LAYOUT_ARGB = 0;
+
+    /** Pixels are RGB, the top byte is ignored and the picture opaque */
+    public static final int LAYOUT_XRGB = 1;
+
+    private static final int MAGIC   = ('P') | ('R' << 8) | ('A' << 16) | ('W' << 24);
+    private static final int VERSION = 1;
+
+    private RawRaster()
+    {
+    }
+
+    /**
+     * @param file
+     * @return whether the file name has the raw raster extension
+     */
+    public static boolean isRaw(File file)
+    {
+        return file.getName().toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Width, height and channel layout of a raw raster.
+     */
+    public static final class Header
+    {
+        public final int width;
+        public final int height;
+        public final int layout;
+
+        public Header(int width, int height, int layout)
+        {
+            if( width < 1 || height < 1 || (layout != LAYOUT_ARGB && layout != LAYOUT_XRGB) )
+            {
+                throw new IllegalArgumentException("Invalid raw raster "+width+"x"+height+" layout "+layout);
+            }
+            this.width  = width;
+            this.height = height;
+            this.layout = layout;
+        }
+
+        /**
+         * @return size of the file, header and pixels
+         */
+        public long fileBytes()
+        {
+            return HEADER_BYTES + 4L * width * height;
+        }
+    }
+
+    /**
+     * Reads and checks the header at the start of the channel.
+     * @param channel
+     * @param file for error messages
+     * @return the header
+     * @throws IOException if the channel does not hold a raw raster
+     */
+    static Header readHeader(FileChannel channel, File file) throws IOException
+    {
+        ByteBuffer b = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while( b.hasRemaining() && channel.read(b, b.position()) > 0 ) { }
+        if( b.hasRemaining() || b.getInt(0) != MAGIC )
+        {
+            throw new IOException("Not a raw raster: " + file);
+        }
+        if( b.getInt(4) != VERSION )
+        {
+            throw new IOException("Unsupported raw raster version " + b.getInt(4) + ": " + file);
+        }
+        Header h;
+        try
+        {
+            h = new Header(b.getInt(8), b.getInt(12), b.getInt(16));
+        }
+        catch( IllegalArgumentException e )
+        {
+            throw new IOException(e.getMessage() + ": " + file);
+        }
+        if( channel.size() < h.fileBytes() )
+        {
+            throw new IOException("Truncated raw raster: " + file);
+        }
+        return h;
+    }
+
+    /**
+     * Writes the header into the first HEADER_BYTES of b, which must be
+     * little endian.
+     * @param b
+     * @param h
+     */
+    static void putHeader(ByteBuffer b, Header h)
+    {
+        for (int i = 0; i < HEADER_BYTES; i += 4)
+        {
+            b.putInt(i, 0);
+        }
+        b.putInt( 0, MAGIC);
+        b.putInt( 4, VERSION);
+        b.putInt( 8, h.width);
+        b.putInt(12, h.height);
+        b.putInt(16, h.layout);
+    }
+
+    //------------------------------------------------------------------------//
+    // Unmapping
+    //------------------------------------------------------------------------//
+    // Unsafe.invokeCleaner on Java 9 and later, found by reflection so that
+    // this still compiles and runs on Java 8, where DirectBuffer.cleaner()
+    // is used instead.  If neither works the mapping is left to the GC.
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+    static
+    {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try
+        {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = f.get(null);
+        }
+        catch( ReflectiveOperationException | RuntimeException e )
+        {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    /**
+     * Releases a mapping now rather than when it is garbage collected, so
+     * that mappings do not pile up and the file can be replaced or deleted
+     * straight away.  The buffer must not be used afterwards.
+     * @param m
+     */
+    static void unmap(MappedByteBuffer m)
+    {
+        try
+        {
+            if( INVOKE_CLEANER != null )
+            {
+                INVOKE_CLEANER.invoke(UNSAFE, m);
+            }
+            else
+            {
+                Method cleaner = m.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object c = cleaner.invoke(m);
+                c.getClass().getMethod("clean").invoke(c);
+            }
+        }
+        catch( ReflectiveOperationException | RuntimeException e )
+        {
+            // Left to the garbage collector
+        }
+    }
+}
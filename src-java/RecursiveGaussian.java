@@ -0,0 +1,320 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Gaussian blur kernel applied as a recursive (IIR) filter rather than by
+ * convolution, so the cost per pixel is the same for any sigma.  Each 1-D
+ * pass is the third order filter of Young and van Vliet (1995): a causal
+ * recursion along the line followed by an anti-causal one back along it,
+ * together approximating the Gaussian of the given sigma.  The start of a
+ * line is extended with its first value, and the anti-causal recursion is
+ * started as though the line were extended with its last value, following
+ * Triggs and Sdika (2006).
+ * <p>
+ * Use it as a drop-in for {@link KernelFactory#gaussianBlur(int, double)}:
+ * the FIR kernel of the same size is held, so the kernel can still be
+ * indexed, and {@link Picture#applyFilter} and {@link Matrix#applyFilter}
+ * leave the same border band and scale the result to the same total
+ * weight as the truncated FIR kernel.  The recursion does not truncate the
+ * Gaussian, so results differ from the FIR kernel by its tails as well as
+ * by the approximation.  Running this class prints that difference.
+ * <p>
+ * Once the entries of the kernel are changed the recursion no longer
+ * describes it, and it is filtered with the entries as they are, see
+ * {@link SeparableKernel#isSeparable()}.
+ * @author James Pope
+ */
+public class RecursiveGaussian extends SeparableKernel
+{
+    private final double sigma;
+
+    /* Causal   w[i] = b*x[i] + a1*w[i-1] + a2*w[i-2] + a3*w[i-3],
+       anti-causal the same from the other end, each with unit gain */
+    private final double b;
+    private final double a1;
+    private final double a2;
+    private final double a3;
+
+    /* Triggs-Sdika matrix, anti-causal start from the last causal outputs */
+    private final double[] m = new double[9];
+
+    /* Sums of the FIR factors, the gain of each pass */
+    private final double rowGain;
+    private final double columnGain;
+
+    /**
+     * Creates the recursive form of the given FIR Gaussian kernel.
+     * @param kernel kernel from {@link KernelFactory#gaussianBlur(int, double)}
+     * @param sigma sigma of the kernel, at least 0.5
+     */
+    RecursiveGaussian(SeparableKernel kernel, double sigma)
+    {
+        super(kernel, factors(kernel, true), factors(kernel, false));
+        if( !(sigma >= 0.5) )
+        {
+            throw new IllegalArgumentException("Sigma " + sigma + " must be at least 0.5");
+        }
+        this.sigma = sigma;
+
+        double q = (sigma >= 2.5) ? 0.98711*sigma - 0.96330
+                                  : 3.97156 - 4.14554*Math.sqrt(1.0 - 0.26891*sigma);
+        double q2 = q*q;
+        double q3 = q2*q;
+        double b0 = 1.57825 + 2.44413*q + 1.4281*q2 + 0.422205*q3;
+        this.a1 = (2.44413*q + 2.85619*q2 + 1.26661*q3) / b0;
+        this.a2 = -(1.4281*q2 + 1.26661*q3) / b0;
+        this.a3 = (0.422205*q3) / b0;
+        this.b  = 1.0 - (a1 + a2 + a3);
+
+        boundary();
+
+        double rg = 0.0;
+        double cg = 0.0;
+        for (int i = 0; i < getRowSize(); i++)
+        {
+            rg += rowFactor(i);
+            cg += columnFactor(i);
+        }
+        this.rowGain = rg;
+        this.columnGain = cg;
+    }
+
+    /**
+     * @return sigma of the Gaussian
+     */
+    public double sigma()
+    {
+        return this.sigma;
+    }
+
+    /**
+     * @return gain of the pass along the kernel rows, the sum of the row factors
+     */
+    double rowGain()
+    {
+        return this.rowGain;
+    }
+
+    /**
+     * @return gain of the pass along the kernel columns, the sum of the column factors
+     */
+    double columnGain()
+    {
+        return this.columnGain;
+    }
+
+    /**
+     * Filters each row of a rows-by-cols array in place, with unit gain.
+     */
+    void filterRows(double[] a, int rows, int cols)
+    {
+        for (int r = 0; r < rows; r++)
+        {
+            int s = r*cols;
+            int e = s + cols - 1;
+            double first = a[s];
+            double last  = a[e];
+
+            // Causal, before the row it is all first
+            double w1 = first, w2 = first, w3 = first;
+            for (int i = s; i <= e; i++)
+            {
+                double w = b*a[i] + a1*w1 + a2*w2 + a3*w3;
+                a[i] = w;
+                w3 = w2; w2 = w1; w1 = w;
+            }
+
+            // Anti-causal, started as if after the row it were all last
+            double d1 = w1 - last, d2 = w2 - last, d3 = w3 - last;
+            double y1 = last + m[0]*d1 + m[1]*d2 + m[2]*d3;
+            double y2 = last + m[3]*d1 + m[4]*d2 + m[5]*d3;
+            double y3 = last + m[6]*d1 + m[7]*d2 + m[8]*d3;
+            for (int i = e; i >= s; i--)
+            {
+                double y = b*a[i] + a1*y1 + a2*y2 + a3*y3;
+                a[i] = y;
+                y3 = y2; y2 = y1; y1 = y;
+            }
+        }
+    }
+
+    /**
+     * Filters each column of a rows-by-cols array in place, with unit gain.
+     * The columns are run side by side, a row at a time, so the array is
+     * read in order.
+     */
+    void filterColumns(double[] a, int rows, int cols)
+    {
+        if( rows == 0 ) return;
+        int lastRow = (rows - 1)*cols;
+        double[] last = Arrays.copyOfRange(a, lastRow, lastRow + cols);
+
+        // Causal, before the first row it is all the first row
+        double[] s1 = Arrays.copyOfRange(a, 0, cols);
+        double[] s2 = s1.clone();
+        double[] s3 = s1.clone();
+        for (int r = 0; r < rows; r++)
+        {
+            int o = r*cols;
+            for (int c = 0; c < cols; c++)
+            {
+                double w = b*a[o+c] + a1*s1[c] + a2*s2[c] + a3*s3[c];
+                a[o+c] = w;
+                s3[c] = s2[c]; s2[c] = s1[c]; s1[c] = w;
+            }
+        }
+
+        // Anti-causal, started as if after the last row it were all the last row
+        for (int c = 0; c < cols; c++)
+        {
+            double u = last[c];
+            double d1 = s1[c] - u, d2 = s2[c] - u, d3 = s3[c] - u;
+            s1[c] = u + m[0]*d1 + m[1]*d2 + m[2]*d3;
+            s2[c] = u + m[3]*d1 + m[4]*d2 + m[5]*d3;
+            s3[c] = u + m[6]*d1 + m[7]*d2 + m[8]*d3;
+        }
+        for (int r = rows - 1; r >= 0; r--)
+        {
+            int o = r*cols;
+            for (int c = 0; c < cols; c++)
+            {
+                double y = b*a[o+c] + a1*s1[c] + a2*s2[c] + a3*s3[c];
+                a[o+c] = y;
+                s3[c] = s2[c]; s2[c] = s1[c]; s1[c] = y;
+            }
+        }
+    }
+
+    /**
+     * Fills the Triggs-Sdika matrix.  Past the end of a line its value is
+     * constant, so the causal outputs there approach it and the anti-causal
+     * start depends only on how far the last three outputs are from it.
+     * Column j is found by running both recursions out from a unit
+     * difference in the j-th last output, over zero input, until the
+     * response has died away.
+     */
+    private void boundary()
+    {
+        int length = (int) Math.ceil(40.0*sigma) + 50;
+        double[] w = new double[length + 3];
+        double[] y = new double[length + 6];
+        for (int j = 0; j < 3; j++)
+        {
+            // w[2] is the last output, w[1] and w[0] the two before it
+            Arrays.fill(w, 0.0);
+            Arrays.fill(y, 0.0);
+            w[2-j] = 1.0;
+            for (int k = 3; k < w.length; k++)
+            {
+                w[k] = a1*w[k-1] + a2*w[k-2] + a3*w[k-3];
+            }
+            for (int k = w.length - 1; k >= 3; k--)
+            {
+                y[k] = b*w[k] + a1*y[k+1] + a2*y[k+2] + a3*y[k+3];
+            }
+            m[j]   = y[3];
+            m[3+j] = y[4];
+            m[6+j] = y[5];
+        }
+    }
+
+    private static double[] factors(SeparableKernel kernel, boolean rows)
+    {
+        double[] f = new double[kernel.getRowSize()];
+        for (int i = 0; i < f.length; i++)
+        {
+            f[i] = rows ? kernel.rowFactor(i) : kernel.columnFactor(i);
+        }
+        return f;
+    }
+
+    /**
+     * Compares the recursive filter with the FIR kernel of the same sigma,
+     * on a random picture and on the images given, printing the largest and
+     * mean difference in channel levels and the time taken by each.
+     * @param args image files, optional
+     */
+    public static void main(String[] args)
+    {
+        double[] sigmas = { 0.5, 1.0, 2.0, 4.0, 8.0, 16.0, 32.0 };
+        Picture[] pictures = new Picture[args.length + 1];
+        pictures[0] = SCUtility.randomPicture(512, 512);
+        for (int i = 0; i < args.length; i++) pictures[i+1] = new Picture(args[i]);
+
+        Random random = new Random(11);
+        Matrix matrix = new Matrix(384, 256);
+        for (int r = 0; r < matrix.getRowSize(); r++)
+        {
+            for (int c = 0; c < matrix.getColumnSize(); c++) matrix.set(r, c, random.nextDouble());
+        }
+
+        for( int p = 0; p < pictures.length; p++ )
+        {
+            Picture picture = pictures[p];
+            System.out.printf("%s, %d x %d\n", (p == 0) ? "Random picture" : args[p-1],
+                              picture.width(), picture.height());
+            System.out.printf("%8s %6s %12s %12s %10s %10s\n",
+                              "sigma", "n", "max diff", "mean diff", "FIR ms", "IIR ms");
+            for( double sigma : sigmas )
+            {
+                Matrix fir = KernelFactory.gaussianBlur(sigma);
+                Matrix iir = KernelFactory.recursiveGaussian(sigma);
+                int n = fir.getRowSize();
+                if( n > picture.width() || n > picture.height() ) continue;
+                long t0 = System.nanoTime();
+                Picture a = picture.applyFilter(fir);
+                long t1 = System.nanoTime();
+                Picture b = picture.applyFilter(iir);
+                long t2 = System.nanoTime();
+
+                int max = 0;
+                long total = 0;
+                int mp = n / 2;
+                for (int y = mp; y < picture.height()-mp; y++)
+                {
+                    for (int x = mp; x < picture.width()-mp; x++)
+                    {
+                        int ca = a.getPacked(x, y);
+                        int cb = b.getPacked(x, y);
+                        for (int shift = 0; shift <= 16; shift += 8)
+                        {
+                            int d = Math.abs(((ca >> shift) & 0xFF) - ((cb >> shift) & 0xFF));
+                            max = Math.max(max, d);
+                            total += d;
+                        }
+                    }
+                }
+                long count = 3L * (picture.width() - 2*mp) * (picture.height() - 2*mp);
+                System.out.printf("%8.1f %6d %12d %12.4f %10.1f %10.1f\n", sigma, n, max,
+                                  (double) total / count, (t1 - t0) / 1e6, (t2 - t1) / 1e6);
+            }
+        }
+
+        System.out.printf("Random matrix, %d x %d, relative to the FIR result\n",
+                          matrix.getRowSize(), matrix.getColumnSize());
+        System.out.printf("%8s %6s %12s %12s\n", "sigma", "n", "max diff", "mean diff");
+        for( double sigma : sigmas )
+        {
+            Matrix fir = KernelFactory.gaussianBlur(sigma);
+            int n = fir.getRowSize();
+            if( n > matrix.getRowSize() || n > matrix.getColumnSize() ) continue;
+            Matrix a = matrix.applyFilter(fir);
+            Matrix b = matrix.applyFilter(KernelFactory.recursiveGaussian(sigma));
+            double max = 0.0;
+            double total = 0.0;
+            double peak = a.max();
+            int mp = n / 2;
+            for (int r = mp; r < matrix.getRowSize()-mp; r++)
+            {
+                for (int c = mp; c < matrix.getColumnSize()-mp; c++)
+                {
+                    double d = Math.abs(a.get(r, c) - b.get(r, c)) / peak;
+                    max = Math.max(max, d);
+                    total += d;
+                }
+            }
+            long count = (long) (matrix.getRowSize() - 2*mp) * (matrix.getColumnSize() - 2*mp);
+            System.out.printf("%8.1f %6d %12.6f %12.6f\n", sigma, n, max, total / count);
+        }
+    }
+}
@@ -1,6 +1,8 @@
+import java.io.File;
+
 /*************************************************************************
  *  Compilation:  javac ReplaceDemo.java
- *  Execution:    java ReplaceDemo input.png columnsToReplace rowsToReplace
+ *  Execution:    java ReplaceDemo input.png percentToReplace [raw]
  *  Dependencies: SeamDoppelganger.java SCUtility.java Picture.java
  *                Stopwatch.java StdDraw.java
  *
@@ -8,21 +10,27 @@
  *  to replace number of rows and columns specified as command line arguments.
  *  Show the images in StdDraw and print time elapsed to screen.
  *
+ *  The input may be a .raw raster (see RawRaster).  The outputs are PNG,
+ *  or .raw if the input is raw or "raw" is given, for intermediates that
+ *  are read back by a later step.
+ *
  *************************************************************************/
 
 public class ReplaceDemo
 {
     public static void main(String[] args)
     {
-        if (args.length != 2)
+        if (args.length != 2 && !(args.length == 3 && args[2].equals("raw")))
         {
-            System.out.println("Usage:\njava ReplaceDemo <image filename> <percent to replace>");
+            System.out.println("Usage:\njava ReplaceDemo <image filename> <percent to replace> [raw]");
             return;
         }
 
+        Object event = FlightEvents.EVENTS.beginImageJob();
         Picture inputImg = new Picture(   args[0]);
         Float p       = Float.parseFloat( args[1] );
         if( p < 0.0  || p > 1.0) throw new IllegalArgumentException("Invalid p " + p);
+        String extension = ( args.length == 3 || RawRaster.isRaw(new File(args[0])) ) ? RawRaster.EXTENSION : ".png";
 
         //int n             = Integer.parseInt(args[3]);
         //double s       = Double.parseDouble( args[4] );
@@ -43,10 +51,7 @@ public class ReplaceDemo
         // Determine roughly the number of pixels that will be modified
         System.out.printf("new image size is %d columns by %d rows\n", seamPicture.width(), seamPicture.height());
 
-        String filename = args[0];
-        if( filename.endsWith(".png") ) filename = filename.replace(".png","_seam.png");
-        else                            filename = filename.replace(".jpg","_seam.png"); // NB: Save as PNG
-        seamPicture.save( filename );
+        seamPicture.save( outputName( args[0], "_seam", extension ) );
 
         int seamPixels = (removeCols*seamPicture.width()) + (removeRows*seamPicture.height())
                          - ( removeCols + removeRows );
@@ -62,13 +67,40 @@ public class ReplaceDemo
         int numPixels = seamPixels;
         System.out.printf("Orig Random pixels %d\n", numPixels );
         Picture randPicture = inputImg.replaceRandom( numPixels );
-        filename = args[0];
-        if( filename.endsWith(".png") ) filename = filename.replace(".png","_rand.png");
-        else                            filename = filename.replace(".jpg","_rand.png"); // NB: PNG
-        randPicture.save( filename );
+        randPicture.save( outputName( args[0], "_rand", extension ) );
+        FlightEvents.EVENTS.endImageJob( event, args[0], inputImg.width(), inputImg.height(), p );
+    }
+
+    /**
+     * Output file name, the input with its extension replaced by a tag and
+     * a new extension, e.g. bird.jpg to bird_seam.png.
+     */
+    static String outputName( String input, String tag, String extension )
+    {
+        int dot = input.lastIndexOf('.');
+        if( dot <= input.lastIndexOf(File.separatorChar) ) dot = input.length();
+        return input.substring(0, dot) + tag + extension;
     }
 
     public static Picture process( Picture inputImg, int removeCols, int removeRows )
+    {
+        return process( inputImg, new int[]{ removeCols }, new int[]{ removeRows } )[0];
+    }
+
+    /**
+     * Replaces seams for several levels in one run.  Level i ends with
+     * removeRows[i] rows and removeCols[i] columns replaced in total; each
+     * level carries on from the one before, replacing its extra rows and
+     * then its extra columns, and the picture is copied as it reaches the
+     * level.  A sweep therefore costs about the same as its largest level.
+     * With more than one level the pictures differ from separate single
+     * level runs, which replace all rows before any column.
+     * @param inputImg
+     * @param removeCols columns to replace at each level, non-decreasing
+     * @param removeRows rows to replace at each level, non-decreasing
+     * @return one picture per level
+     */
+    public static Picture[] process( Picture inputImg, int[] removeCols, int[] removeRows )
     {
         SeamDoppelganger sc = new SeamDoppelganger(inputImg);
 
@@ -86,31 +118,41 @@ public class ReplaceDemo
         }
         */
 
-        
-        for (int i = 0; i < removeRows; i++)
-        {
-            int[] horizontalSeam = sc.findSmallestHorizontalSeam();
-            //int[] horizontalSeam = sc.findLargestHorizontalSeam();
-
-            //sc.replaceHorizontalSeam(horizontalSeam, kernel);
-            //sc.convolveHorizontalSeam(horizontalSeam, kernel);
-            sc.replaceHorizontalSeamRandom(horizontalSeam);
-            //sc.removeHorizontalSeam(horizontalSeam);
-        }
+        // Seams are found into the same buffers every time
+        int[] horizontalSeam = new int[ inputImg.width() ];
+        int[] verticalSeam   = new int[ inputImg.height() ];
 
-        for (int i = 0; i < removeCols; i++)
+        Picture[] levels = new Picture[ removeCols.length ];
+        int rows = 0;
+        int cols = 0;
+        for (int level = 0; level < levels.length; level++)
         {
-            int[] verticalSeam = sc.findSmallestVerticalSeam();
-            //int[] verticalSeam = sc.findLargestVerticalSeam();
-
-            //for ( int y = 0; y < 5; y++ ) System.out.printf("[%d]=%d\n", y, verticalSeam[y]); 
-
-            //sc.replaceVerticalSeam(verticalSeam, kernel);
-            //sc.convolveVerticalSeam(verticalSeam, kernel);
-            sc.replaceVerticalSeamRandom(verticalSeam);
-            //sc.removeVerticalSeam(verticalSeam);
+            for (; rows < removeRows[level]; rows++)
+            {
+                sc.findSmallestHorizontalSeam(horizontalSeam);
+                //sc.findLargestHorizontalSeam(horizontalSeam);
+
+                //sc.replaceHorizontalSeam(horizontalSeam, kernel);
+                //sc.convolveHorizontalSeam(horizontalSeam, kernel);
+                sc.replaceHorizontalSeamRandom(horizontalSeam);
+                //sc.removeHorizontalSeam(horizontalSeam);
+            }
+
+            for (; cols < removeCols[level]; cols++)
+            {
+                sc.findSmallestVerticalSeam(verticalSeam);
+                //sc.findLargestVerticalSeam(verticalSeam);
+
+                //for ( int y = 0; y < 5; y++ ) System.out.printf("[%d]=%d\n", y, verticalSeam[y]); 
+
+                //sc.replaceVerticalSeam(verticalSeam, kernel);
+                //sc.convolveVerticalSeam(verticalSeam, kernel);
+                sc.replaceVerticalSeamRandom(verticalSeam);
+                //sc.removeVerticalSeam(verticalSeam);
+            }
+
+            levels[level] = (level == levels.length-1) ? sc.picture() : new Picture( sc.picture() );
         }
-        
-        return sc.picture();
+        return levels;
     }
 }
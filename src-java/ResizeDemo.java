@@ -27,15 +27,19 @@ public class ResizeDemo
         System.out.printf("image is %d columns by %d rows\n", inputImg.width(), inputImg.height());
         SeamCarver sc = new SeamCarver(inputImg);
 
+        // Removing rows leaves the width, and removing columns the height,
+        // unchanged so each seam buffer is allocated once
+        int[] horizontalSeam = null;
         for (int i = 0; i < removeRows; i++)
         {
-            int[] horizontalSeam = sc.findHorizontalSeam();
+            horizontalSeam = sc.findHorizontalSeam(horizontalSeam);
             sc.removeHorizontalSeam(horizontalSeam);
         }
 
+        int[] verticalSeam = null;
         for (int i = 0; i < removeColumns; i++)
         {
-            int[] verticalSeam = sc.findVerticalSeam();
+            verticalSeam = sc.findVerticalSeam(verticalSeam);
             sc.removeVerticalSeam(verticalSeam);
         }
 
@@ -110,6 +110,30 @@ public class SCUtility
 
 
     
+    /**
+     * Checks that every entry of a seam lies in [0, range) and differs from
+     * the one before it by at most one, so that removing it changes nothing
+     * outside the seam.
+     * @param a seam, one index per row (vertical) or column (horizontal)
+     * @param range width for a vertical seam, height for a horizontal one
+     * @throws IllegalArgumentException if an entry is out of range or
+     *         jumps by more than one
+     */
+    public static void validateSeam(int[] a, int range)
+    {
+        for (int i = 0; i < a.length; i++)
+        {
+            if( a[i] < 0 || a[i] >= range )
+            {
+                throw new IllegalArgumentException("Seam entry "+i+" is "+a[i]+", outside [0, "+range+")");
+            }
+            if( i > 0 && Math.abs(a[i] - a[i-1]) > 1 )
+            {
+                throw new IllegalArgumentException("Seam jumps from "+a[i-1]+" to "+a[i]+" at entry "+i);
+            }
+        }
+    }
+
     /**
      * This method is useful for debugging seams. It overlays red
      * pixels over the calculate seam. Due to the lack of a copy
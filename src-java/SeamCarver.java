@@ -1,14 +1,17 @@
 
-import java.awt.Color;
-
 /**
  * SeamCarver is a Picture that provides operations to find seams within the picture
  * based on converted energy values (derived from color deltas).
+ * Seams are found greedily, as by {@link GreedySeamFinder}, in energy maps
+ * held by a {@link SeamWorkspace} so that they are not reallocated per seam.
  * @author James Pope
  */
 public class SeamCarver
 {
     private Picture p;
+    private final SeamWorkspace ws;
+    private final SeamFinder finder = new GreedySeamFinder();
+    private int seamsFound;       // index of the next seam iteration event
     
     /**
      * Creates new SeamCarver with specified parameters.
@@ -17,22 +20,19 @@ public class SeamCarver
     public SeamCarver(Picture p)
     {
         // Make copy - per instructions not to mutate
-        this.p = new Picture(p.width(), p.height());
-        for (int i = 0; i < p.width(); i++)
-        {
-            for (int j = 0; j < p.height(); j++)
-            {
-                this.p.set(i, j, p.get(i, j));
-            }
-        }
+        this.p = new Picture(p);
+        this.ws = new SeamWorkspace();
     }
 
     /**
-     * Get carver's picture
+     * Get carver's picture.  Seams are removed in place, leaving unused
+     * space at the end of each row; this packs the picture first, so call
+     * it once the removals are done rather than after every seam.
      * @return 
      */
     public Picture picture()
     {
+        this.p.compact();
         return this.p;
     }
 
@@ -56,15 +56,15 @@ public class SeamCarver
 
     /**
      * Computes the distance between the two colors.
-     * @param c1
-     * @param c2
+     * @param c1 packed RGB
+     * @param c2 packed RGB
      * @return euclidean distance between [c1.r,c1.g,c1.b] and [c2.r,c2.g,c2.b]
      */
-    private double delta( Color c1, Color c2 )
+    private static double delta( int c1, int c2 )
     {
-        double rx = c1.getRed()   - c2.getRed();
-        double gx = c1.getGreen() - c2.getGreen();
-        double bx = c1.getBlue()  - c2.getBlue();
+        double rx = ((c1 >> 16) & 0xFF) - ((c2 >> 16) & 0xFF);
+        double gx = ((c1 >>  8) & 0xFF) - ((c2 >>  8) & 0xFF);
+        double bx = ((c1      ) & 0xFF) - ((c2      ) & 0xFF);
         return (rx*rx) + (gx*gx) + (bx*bx);
     }
     
@@ -82,8 +82,8 @@ public class SeamCarver
             return (255*255)+(255*255)+(255*255); // 195075
         }
         
-        double dx2 = delta( p.get(x-1,   y), p.get(x+1,   y) );
-        double dy2 = delta( p.get(  x, y-1), p.get(  x, y+1) );
+        double dx2 = delta( p.getPacked(x-1,   y), p.getPacked(x+1,   y) );
+        double dy2 = delta( p.getPacked(  x, y-1), p.getPacked(  x, y+1) );
         
         return dx2+dy2;
     }
@@ -93,29 +93,29 @@ public class SeamCarver
      * @return 
      */
     public int[] findHorizontalSeam()            
+    {
+        return findHorizontalSeam(null);
+    }
+
+    /**
+     * Finds the horizontal seam into the specified array.
+     * @param seam allocated only if null or not of length width()
+     * @return seam, the row for each column
+     */
+    public int[] findHorizontalSeam(int[] seam)
     {
         int w = p.width();
         int h = p.height();
+        if( seam == null || seam.length != w ) seam = new int[w];
         
-        //System.out.println("Normal:");
-        //print(makeEnergy(this));
-        double[][] e = makeEnergyTranspose(this);
-        //System.out.println("\nTransposed:");
-         //print(e);
-        double minEnergy = Double.MAX_VALUE;
-        int[]  minPath   = null;
-        for (int x = 0; x < h; x++)
-        {
-            int[] xPath = sp( e, x );
-            double xEnergy = pathEnergy(e, xPath);
-            if( xEnergy < minEnergy )
-            {
-                minEnergy = xEnergy;
-                minPath   = xPath;
-            }
-        }
-        
-        return minPath;
+        Object event = FlightEvents.EVENTS.beginSeamIteration();
+        int[] e = ws.energyTranspose(w*h);
+        Object rebuild = FlightEvents.EVENTS.beginEnergyRebuild();
+        makeEnergyTranspose(this, e);
+        FlightEvents.EVENTS.endEnergyRebuild(rebuild, w, h);
+        finder.findMinimumSeam(e, h, w, ws, seam);
+        FlightEvents.EVENTS.endSeamIteration(event, false, seamsFound++, e, h, seam);
+        return seam;
     }
 
     /**
@@ -123,28 +123,34 @@ public class SeamCarver
      * @return 
      */
     public int[] findVerticalSeam()
+    {
+        return findVerticalSeam(null);
+    }
+
+    /**
+     * Finds the vertical seam into the specified array.
+     * @param seam allocated only if null or not of length height()
+     * @return seam, the column for each row
+     */
+    public int[] findVerticalSeam(int[] seam)
     {
         int w = p.width();
         int h = p.height();
+        if( seam == null || seam.length != h ) seam = new int[h];
         
-        double[][] e = makeEnergy(this);
-        double minEnergy = Double.MAX_VALUE;
-        int[]  minPath   = null;
-        for (int x = 0; x < w; x++)
-        {
-            int[] xPath = sp( e, x );
-            double xEnergy = pathEnergy(e, xPath);
-            if( xEnergy < minEnergy )
-            {
-                minEnergy = xEnergy;
-                minPath   = xPath;
-            }
-        }
-        return minPath;
+        Object event = FlightEvents.EVENTS.beginSeamIteration();
+        int[] e = ws.energy(w*h);
+        Object rebuild = FlightEvents.EVENTS.beginEnergyRebuild();
+        makeEnergy(this, e);
+        FlightEvents.EVENTS.endEnergyRebuild(rebuild, w, h);
+        finder.findMinimumSeam(e, w, h, ws, seam);
+        FlightEvents.EVENTS.endSeamIteration(event, true, seamsFound++, e, w, seam);
+        return seam;
     }
 
     /**
-     * Removes the specified horizontal seam from the carver's picture.
+     * Removes the specified horizontal seam from the carver's picture,
+     * in place.
      * @param a 
      */
     public void removeHorizontalSeam(int[] a)
@@ -157,28 +163,14 @@ public class SeamCarver
         {
             throw new IllegalArgumentException("Seam not compatible "+a.length);
         }
+        SCUtility.validateSeam(a, this.height());
         
-        int h = this.height()-1;
-        int w = this.width();
-        Picture newPicture = new Picture(w, h);
-        for (int x = 0; x < w; x++)
-        {
-            for (int y = 0; y < h; y++)
-            {
-                int fromY = y;
-                if( fromY >= a[x] )
-                {
-                    fromY = y+1;
-                }
-                Color c = this.picture().get(x, fromY);
-                newPicture.set(x, y, c);
-            }
-        }
-        this.p = newPicture;
+        this.p.removeHorizontalSeam(a);
     }
 
     /**
-     * Removes the specified vertical seam from the carver's picture.
+     * Removes the specified vertical seam from the carver's picture, in
+     * place by shifting the tail of each row.
      * @param a 
      */
     public void removeVerticalSeam(int[] a)
@@ -191,138 +183,48 @@ public class SeamCarver
         {
             throw new IllegalArgumentException("Seam not compatible "+a.length);
         }
+        SCUtility.validateSeam(a, this.width());
         
-        int h = this.height();
-        int w = this.width()-1;
-        Picture newPicture = new Picture(w, h);
-        for (int x = 0; x < w; x++)
-        {
-            for (int y = 0; y < h; y++)
-            {
-                int fromX = x;
-                if( fromX >= a[y] )
-                {
-                    fromX = x+1;
-                }
-                Color c = this.picture().get(fromX, y);
-                newPicture.set(x, y, c);
-            }
-        }
-        this.p = newPicture;
+        this.p.removeVerticalSeam(a);
     }
     
     /**
-     * Converts the carver's picture into a two dimensional energy matrix.
+     * Converts the carver's picture into an energy map.  Energies are whole
+     * numbers, so they are held as int.
      * @param sc
-     * @return 
+     * @param e receives energy[row*width + col]
      */
-    private static double[][] makeEnergy(SeamCarver sc)
+    private static void makeEnergy(SeamCarver sc, int[] e)
     {
-        Picture p = sc.picture();
-        double[][] e = new double[p.height()][p.width()];
+        Picture p = sc.p;
+        int w = p.width();
         
         for (int y = 0; y < p.height(); y++)
         {
-            for (int x = 0; x < p.width(); x++)
+            for (int x = 0; x < w; x++)
             {
-                e[y][x] = sc.energy(x, y);
+                e[y*w+x] = (int) sc.energy(x, y);
             }
         }
-        
-        return e;
-    }
-    
-    private static void print(double[][] e)
-    {
-        for (int y = 0; y < e.length; y++)
-        {
-            System.out.print("row="+y+": ");
-            for (int x = 0; x < e[0].length; x++)
-            {
-                System.out.print(e[y][x]+", ");
-            }
-            System.out.println("");
-        }
     }
     
     /**
-     * Converts carver picture to a two dimensional energy matrix and then transposes.
+     * Converts carver picture to an energy map, transposed.
      * @param sc
-     * @return 
+     * @param e receives energy[col*height + row]
      */
-    private static double[][] makeEnergyTranspose(SeamCarver sc)
+    private static void makeEnergyTranspose(SeamCarver sc, int[] e)
     {
-        Picture p = sc.picture();
-        double[][] e = new double[p.width()][p.height()];
+        Picture p = sc.p;
+        int h = p.height();
 
-        for (int y = 0; y < p.height(); y++)
+        for (int y = 0; y < h; y++)
         {
             for (int x = 0; x < p.width(); x++)
             {
-                e[x][y] = sc.energy(x, y);
+                e[x*h+y] = (int) sc.energy(x, y);
             }
         }
-
-        return e;
-    }
-    
-    /**
-     * Gets the energy values along the specified path.
-     * @param e
-     * @param a
-     * @return 
-     */
-    private static double pathEnergy(double[][] e, int[] a)
-    {
-        double s = 0.0;
-        for (int y = 0; y < a.length; y++)
-        {
-            s += e[y][a[y]];
-        }
-        return s;
-    }
-    
-    /**
-     * Find the path of least energy from top to bottom.
-     * @param e
-     * @param s
-     * @return path of e.length
-     */
-    private static int[] sp(double[][] e, int s)
-    {
-        int w = e[0].length;
-        int h = e.length;
-        
-        int[] sp = new int[h];
-        
-        int x = s;
-        int y;
-        for (y = 0; y < h-1; y++)
-        {
-            sp[y] = x;
-            
-            // Southwest edge
-            double sw = (x > 0) ?   e[y+1][x-1] : Double.MAX_VALUE;
-            double ss = e[y+1][x+0];
-            double se = (x < w-1) ? e[y+1][x+1] : Double.MAX_VALUE;
-            
-            if( sw < ss && sw < se )
-            {
-                x = x-1;
-            }
-            else if( ss < sw && ss < se )
-            {
-                // default
-            }
-            else if( se < sw && se < ss )
-            {
-                x = x+1;
-            }
-        }
-        // Pick up last decision
-        sp[y] = x;
-        
-        return sp;
     }
 
 }
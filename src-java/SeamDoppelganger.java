@@ -1,5 +1,6 @@
 
 import java.awt.Color;
+import java.util.Arrays;
 import java.util.TreeMap;
 
 /**
@@ -12,32 +13,102 @@ public class SeamDoppelganger
 {
     public static final int SEAM_HEX = 0x000000C5; // 1100 0101 = 197
     public static final int SEAM_MULTIPLIER = 4;
+    public static final int BORDER_ENERGY = (255*255)+(255*255)+(255*255); // 195075
+
+    private static final Metrics.Timer ENERGY  = Metrics.timer("seam_energy", "Bringing the energy map up to date before a seam search");
+    private static final Metrics.Timer SEARCH  = Metrics.timer("seam_search", "Finding seams in the energy map");
+    private static final Metrics.Timer REPLACE = Metrics.timer("seam_replace", "Replacing, swapping or convolving one seam");
+
+    private static final FlightEvents EVENTS = FlightEvents.EVENTS;
 
     private Picture p;
+    private SeamFinder finder;
+    private final SeamWorkspace ws;
+    private final EnergyKernel kernel = EnergyKernel.create();
+    private int seamsFound;       // index of the next seam iteration event
+
+    /*
+     * Persistent energy map.  Rather than rebuilding the whole map for every
+     * seam, operations that change pixels mark them (and the 4-neighbours
+     * whose energy depends on them) dirty, and only those are recomputed
+     * before the next seam search.  The maps live in the workspace, so they
+     * are not reallocated when rebuilt.
+     */
+    private int[] energy;         // energy[row*width + col], null until first needed
+    private int[] energyT;        // energy[col*height + row], only kept once asked for
+    private boolean[] isDirty;    // by raster index row*width+col
+    private int[] dirty = new int[64];
+    private int dirtyCount;
     
     /**
      * Creates new SeamDoppelganger with specified parameters.
+     * Seams are found with the exact {@link DynamicSeamFinder}.
      * @param p 
      */
     public SeamDoppelganger(Picture p)
+    {
+        this(p, new DynamicSeamFinder());
+    }
+
+    /**
+     * Creates new SeamDoppelganger with specified parameters.
+     * @param p 
+     * @param finder engine used by the find*Seam methods
+     */
+    public SeamDoppelganger(Picture p, SeamFinder finder)
     {
         // Make copy - per instructions not to mutate
-        this.p = new Picture(p.width(), p.height());
-        for (int i = 0; i < p.width(); i++)
+        this.p = new Picture(p);
+        this.finder = finder;
+        this.ws = new SeamWorkspace();
+        this.isDirty = new boolean[p.width() * p.height()];
+    }
+
+    /**
+     * Get the engine used to find seams
+     * @return 
+     */
+    public SeamFinder seamFinder()
+    {
+        return this.finder;
+    }
+
+    /**
+     * Set the engine used to find seams, e.g. {@link GreedySeamFinder} to
+     * reproduce the original greedy results, or {@link PyramidSeamFinder}
+     * for faster approximate seams in large pictures.
+     * @param finder 
+     */
+    public void setSeamFinder(SeamFinder finder)
+    {
+        this.finder = finder;
+    }
+
+    /**
+     * Discards the energy map so that it is rebuilt in full before the next
+     * seam search.  Needed only if the picture returned by {@link #picture()}
+     * is modified directly.
+     */
+    public void invalidateEnergy()
+    {
+        this.energy  = null;
+        this.energyT = null;
+        for (int k = 0; k < this.dirtyCount; k++)
         {
-            for (int j = 0; j < p.height(); j++)
-            {
-                this.p.set(i, j, p.get(i, j));
-            }
+            this.isDirty[this.dirty[k]] = false;
         }
+        this.dirtyCount = 0;
     }
 
     /**
-     * Get carver's picture
+     * Get carver's picture.  Seams are removed in place, leaving unused
+     * space at the end of each row; this packs the picture first, so call
+     * it once the removals are done rather than after every seam.
      * @return 
      */
     public Picture picture()
     {
+        this.p.compact();
         return this.p;
     }
 
@@ -61,15 +132,15 @@ public class SeamDoppelganger
 
     /**
      * Computes the distance between the two colors.
-     * @param c1
-     * @param c2
+     * @param c1 packed RGB
+     * @param c2 packed RGB
      * @return euclidean distance between [c1.r,c1.g,c1.b] and [c2.r,c2.g,c2.b]
      */
-    private int delta( Color c1, Color c2 )
+    private static int delta( int c1, int c2 )
     {
-        int rx = c1.getRed()   - c2.getRed();
-        int gx = c1.getGreen() - c2.getGreen();
-        int bx = c1.getBlue()  - c2.getBlue();
+        int rx = ((c1 >> 16) & 0xFF) - ((c2 >> 16) & 0xFF);
+        int gx = ((c1 >>  8) & 0xFF) - ((c2 >>  8) & 0xFF);
+        int bx = ((c1      ) & 0xFF) - ((c2      ) & 0xFF);
         return (rx*rx) + (gx*gx) + (bx*bx);
     }
     
@@ -80,15 +151,27 @@ public class SeamDoppelganger
      * @return 
      */
     public int energy(int x, int y)
+    {
+        return energy(this.p, x, y);
+    }
+
+    /**
+     * Energy of pixel at column x and row y of a picture or raster
+     * @param p
+     * @param x
+     * @param y
+     * @return 
+     */
+    static int energy(PackedRaster p, int x, int y)
     {
         // If along edge, by definition return R^2 + G^2 + B^2
-        if(x == 0 || y == 0 || x == this.p.width()-1 || y == this.p.height()-1)
+        if(x == 0 || y == 0 || x == p.width()-1 || y == p.height()-1)
         {
-            return (255*255)+(255*255)+(255*255); // 195075
+            return BORDER_ENERGY;
         }
         
-        int dx2 = delta( p.get(x-1,   y), p.get(x+1,   y) );
-        int dy2 = delta( p.get(  x, y-1), p.get(  x, y+1) );
+        int dx2 = delta( p.getPacked(x-1,   y), p.getPacked(x+1,   y) );
+        int dy2 = delta( p.getPacked(  x, y-1), p.getPacked(  x, y+1) );
         
         return dx2+dy2;
     }
@@ -99,28 +182,28 @@ public class SeamDoppelganger
      */
     public int[] findSmallestHorizontalSeam()            
     {
-        int w = p.width();
-        int h = p.height();
-        
+        return findSmallestHorizontalSeam(null);
+    }
+
+    /**
+     * Finds the horizontal seam into the specified array.
+     * @param seam allocated only if null or not of length width()
+     * @return seam, the row for each column
+     */
+    public int[] findSmallestHorizontalSeam(int[] seam)
+    {
+        seam = seamBuffer(seam, width());
+        Object event = EVENTS.beginSeamIteration();
         //System.out.println("Normal:");
-        //print(makeEnergy(this));
-        int[][] e = makeEnergyTranspose(this);
+        //print(energyMap(), width(), height());
+        int[] e = energyMapTranspose();
         //System.out.println("\nTransposed:");
-         //print(e);
-        int minEnergy = Integer.MAX_VALUE;
-        int[]  minPath   = null;
-        for (int x = 0; x < h; x++)
-        {
-            int[] xPath = leastShortestPath( e, x );
-            int xEnergy = pathEnergy(e, xPath);
-            if( xEnergy < minEnergy )
-            {
-                minEnergy = xEnergy;
-                minPath   = xPath;
-            }
-        }
-        
-        return minPath;
+         //print(e, height(), width());
+        long start = System.nanoTime();
+        finder.findMinimumSeam(e, height(), width(), ws, seam);
+        SEARCH.record(start);
+        EVENTS.endSeamIteration(event, false, seamsFound++, e, height(), seam);
+        return seam;
     }
 
 
@@ -128,23 +211,22 @@ public class SeamDoppelganger
      * Finds and returns the horizontal seam as a sequence of indices.
      * @return 
      */
-    public TreeMap<Integer, int[]> findSmallestHorizontalSeams()            
+    public TreeMap<Long, int[]> findSmallestHorizontalSeams()            
     {
         int w = p.width();
         int h = p.height();
         
-        TreeMap<Integer, int[]> seams = new TreeMap();
+        TreeMap<Long, int[]> seams = new TreeMap();
         //System.out.println("Normal:");
-        //print(makeEnergy(this));
-        int[][] e = makeEnergyTranspose(this);
+        //print(energyMap(), w, h);
+        int[] e = energyMapTranspose();
         //System.out.println("\nTransposed:");
-         //print(e);
-        int minEnergy = Integer.MAX_VALUE;
-        int[]  minPath   = null;
+         //print(e, h, w);
         for (int x = 0; x < h; x++)
         {
-            int[] xPath = leastShortestPath( e, x );
-            int xEnergy = pathEnergy(e, xPath);
+            int[] xPath = new int[w];
+            GreedySeamFinder.leastShortestPath( e, h, w, x, xPath );
+            long xEnergy = GreedySeamFinder.pathEnergy(e, h, xPath);
             seams.put( xEnergy, xPath );
         }
         
@@ -159,48 +241,78 @@ public class SeamDoppelganger
      */
     public int[] findSmallestVerticalSeam()
     {
-        int w = p.width();
-        int h = p.height();
-        
-        int[][] e = makeEnergy(this);
-        int minEnergy = Integer.MAX_VALUE;
-        int[]  minPath   = null;
-        for (int x = 0; x < w; x++)
-        {
-            int[] xPath = leastShortestPath( e, x );
-            int xEnergy = pathEnergy(e, xPath);
-            if( xEnergy < minEnergy )
-            {
-                minEnergy = xEnergy;
-                minPath   = xPath;
-            }
-        }
-        return minPath;
+        return findSmallestVerticalSeam(null);
+    }
+
+    /**
+     * Finds the vertical seam into the specified array.
+     * @param seam allocated only if null or not of length height()
+     * @return seam, the column for each row
+     */
+    public int[] findSmallestVerticalSeam(int[] seam)
+    {
+        seam = seamBuffer(seam, height());
+        Object event = EVENTS.beginSeamIteration();
+        int[] e = energyMap();
+        long start = System.nanoTime();
+        finder.findMinimumSeam(e, width(), height(), ws, seam);
+        SEARCH.record(start);
+        EVENTS.endSeamIteration(event, true, seamsFound++, e, width(), seam);
+        return seam;
     }
 
     /**
      * Finds and returns the vertical seam as a sequence of indices.
      * @return 
      */
-    public TreeMap<Integer,int[]> findSmallestVerticalSeams()
+    public TreeMap<Long,int[]> findSmallestVerticalSeams()
     {
         int w = p.width();
         int h = p.height();
 
-        TreeMap<Integer, int[]> seams = new TreeMap();
+        TreeMap<Long, int[]> seams = new TreeMap();
         
-        int[][] e = makeEnergy(this);
-        int minEnergy = Integer.MAX_VALUE;
-        int[]  minPath   = null;
+        int[] e = energyMap();
         for (int x = 0; x < w; x++)
         {
-            int[] xPath = leastShortestPath( e, x );
-            int xEnergy = pathEnergy(e, xPath);
+            int[] xPath = new int[h];
+            GreedySeamFinder.leastShortestPath( e, w, h, x, xPath );
+            long xEnergy = GreedySeamFinder.pathEnergy(e, w, xPath);
             seams.put(xEnergy, xPath);
         }
         return seams;
     }
 
+    /**
+     * Finds up to k horizontal seams of least energy that share no pixel,
+     * all from the current energy map.
+     * @param k
+     * @return the seams in the order taken, each the row for each column
+     */
+    public SeamSet findSmallestHorizontalSeams(int k)
+    {
+        int[] e = energyMapTranspose();
+        long start = System.nanoTime();
+        SeamSet seams = SeamSet.findSmallest(e, height(), width(), k);
+        SEARCH.record(start);
+        return seams;
+    }
+
+    /**
+     * Finds up to k vertical seams of least energy that share no pixel,
+     * all from the current energy map.
+     * @param k
+     * @return the seams in the order taken, each the column for each row
+     */
+    public SeamSet findSmallestVerticalSeams(int k)
+    {
+        int[] e = energyMap();
+        long start = System.nanoTime();
+        SeamSet seams = SeamSet.findSmallest(e, width(), height(), k);
+        SEARCH.record(start);
+        return seams;
+    }
+
 
 
 
@@ -210,27 +322,24 @@ public class SeamDoppelganger
      */
     public int[] findLargestHorizontalSeam()            
     {
-        int[][] e = makeEnergyTranspose(this);
-
-        int w = e[0].length;
-        int h = e.length;
-
-        //System.out.printf( "HorizontalSeam w=%d  h=%d \n", w, h);
+        return findLargestHorizontalSeam(null);
+    }
 
-        int minEnergy = Integer.MIN_VALUE;
-        int[]  minPath   = null;
-        for (int x = 0; x < w; x++)
-        {
-            int[] path = greatestShortestPath( e, x );
-            int energy = pathEnergy(e, path);
-            if( energy > minEnergy )
-            {
-                minEnergy = energy;
-                minPath   = path;
-            }
-        }
-        //System.out.printf( "    minPath.length=%d \n", minPath.length );
-        return minPath;
+    /**
+     * Finds the largest horizontal seam into the specified array.
+     * @param seam allocated only if null or not of length width()
+     * @return seam, the row for each column
+     */
+    public int[] findLargestHorizontalSeam(int[] seam)
+    {
+        seam = seamBuffer(seam, width());
+        Object event = EVENTS.beginSeamIteration();
+        int[] e = energyMapTranspose();
+        long start = System.nanoTime();
+        finder.findMaximumSeam(e, height(), width(), ws, seam);
+        SEARCH.record(start);
+        EVENTS.endSeamIteration(event, false, seamsFound++, e, height(), seam);
+        return seam;
     }
 
     /**
@@ -239,34 +348,38 @@ public class SeamDoppelganger
      */
     public int[] findLargestVerticalSeam()
     {   
-        int[][] e = makeEnergy(this);
-
-        int w = e[0].length;
-        int h = e.length;
+        return findLargestVerticalSeam(null);
+    }
 
-        //System.out.printf( "VerticalSeam w=%d  h=%d \n", w, h);
+    /**
+     * Finds the largest vertical seam into the specified array.
+     * @param seam allocated only if null or not of length height()
+     * @return seam, the column for each row
+     */
+    public int[] findLargestVerticalSeam(int[] seam)
+    {
+        seam = seamBuffer(seam, height());
+        Object event = EVENTS.beginSeamIteration();
+        int[] e = energyMap();
+        long start = System.nanoTime();
+        finder.findMaximumSeam(e, width(), height(), ws, seam);
+        SEARCH.record(start);
+        EVENTS.endSeamIteration(event, true, seamsFound++, e, width(), seam);
+        return seam;
+    }
 
-        int minEnergy = Integer.MIN_VALUE;
-        int[]  minPath   = null;
-        for (int x = 0; x < w; x++)
-        {
-            int[] path = greatestShortestPath( e, x );
-            int energy = pathEnergy(e, path);
-            if( energy > minEnergy )
-            {
-                minEnergy = energy;
-                minPath   = path;
-            }
-        }
-        //System.out.printf( "    minPath.length=%d \n", minPath.length );
-        return minPath;
+    private static int[] seamBuffer(int[] seam, int n)
+    {
+        if( seam == null || seam.length != n ) seam = new int[n];
+        return seam;
     }
 
 
 
 
     /**
-     * Removes the specified horizontal seam from the carver's picture.
+     * Removes the specified horizontal seam from the carver's picture,
+     * in place.
      * @param a 
      */
     public void removeHorizontalSeam(int[] a)
@@ -279,28 +392,15 @@ public class SeamDoppelganger
         {
             throw new IllegalArgumentException("Seam not compatible "+a.length);
         }
+        SCUtility.validateSeam(a, this.height());
         
-        int h = this.height()-1;
-        int w = this.width();
-        Picture newPicture = new Picture(w, h);
-        for (int x = 0; x < w; x++)
-        {
-            for (int y = 0; y < h; y++)
-            {
-                int fromY = y;
-                if( fromY >= a[x] )
-                {
-                    fromY = y+1;
-                }
-                Color c = this.picture().get(x, fromY);
-                newPicture.set(x, y, c);
-            }
-        }
-        this.p = newPicture;
+        this.p.removeHorizontalSeam(a);
+        invalidateEnergy();
     }
 
     /**
-     * Removes the specified vertical seam from the carver's picture.
+     * Removes the specified vertical seam from the carver's picture, in
+     * place by shifting the tail of each row.
      * @param a 
      */
     public void removeVerticalSeam(int[] a)
@@ -313,24 +413,10 @@ public class SeamDoppelganger
         {
             throw new IllegalArgumentException("Seam not compatible "+a.length);
         }
+        SCUtility.validateSeam(a, this.width());
         
-        int h = this.height();
-        int w = this.width()-1;
-        Picture newPicture = new Picture(w, h);
-        for (int x = 0; x < w; x++)
-        {
-            for (int y = 0; y < h; y++)
-            {
-                int fromX = x;
-                if( fromX >= a[y] )
-                {
-                    fromX = x+1;
-                }
-                Color c = this.picture().get(fromX, y);
-                newPicture.set(x, y, c);
-            }
-        }
-        this.p = newPicture;
+        this.p.removeVerticalSeam(a);
+        invalidateEnergy();
     }
 
 
@@ -340,6 +426,7 @@ public class SeamDoppelganger
      */
     public void replaceHorizontalSeam(int[] a, Matrix kernel)
     {
+        long start = System.nanoTime();
         if( this.height() <= 1 )
         {
             throw new IllegalArgumentException("Height too small "+this.height());
@@ -353,7 +440,7 @@ public class SeamDoppelganger
         {
             int y = a[x];
 
-            Color oldColor = this.picture().get(x, y);
+            Color oldColor = this.p.get(x, y);
 
             int r = StdRandom.uniform( 0, 256 );
             int g = StdRandom.uniform( 0, 256 );
@@ -364,7 +451,9 @@ public class SeamDoppelganger
             Color newColor = new Color( 255, 0, 0 );
 
             this.p.set(x, y, newColor);
+            markDirty(x, y);
         }
+        REPLACE.record(start);
     }
 
     /**
@@ -373,6 +462,7 @@ public class SeamDoppelganger
      */
     public void replaceHorizontalSeamRandom(int[] a)
     {
+        long start = System.nanoTime();
         if( this.height() <= 1 )
         {
             throw new IllegalArgumentException("Height too small "+this.height());
@@ -393,16 +483,16 @@ public class SeamDoppelganger
 
             //Color newColor = new Color( r, g, b );
 
-            Color c = this.p.get(x,y);
-
             // Function of north and south neighbors
-            int rn = (y > 0)            ? this.p.get(x,y-1).getRed()   : 0;
-            int gn = (y > 0)            ? this.p.get(x,y-1).getGreen() : 0;
-            int bn = (y > 0)            ? this.p.get(x,y-1).getBlue()  : 0;
+            int n = (y > 0)            ? this.p.getPacked(x,y-1) : 0;
+            int s = (y < p.height()-1) ? this.p.getPacked(x,y+1) : 0;
+            int rn = (n >> 16) & 0xFF;
+            int gn = (n >>  8) & 0xFF;
+            int bn = (n      ) & 0xFF;
 
-            int rs = (y < p.height()-1) ? this.p.get(x,y+1).getRed()   : 0;
-            int gs = (y < p.height()-1) ? this.p.get(x,y+1).getGreen() : 0;
-            int bs = (y < p.height()-1) ? this.p.get(x,y+1).getBlue()  : 0;
+            int rs = (s >> 16) & 0xFF;
+            int gs = (s >>  8) & 0xFF;
+            int bs = (s      ) & 0xFF;
 
             int rns = ( bn + gs + x ) & SEAM_HEX;
             int gns = ( rn + bs + x ) & SEAM_HEX;
@@ -410,8 +500,10 @@ public class SeamDoppelganger
 
             //this.p.set(x, y, newColor);
             //this.p.set(x, y, new Color(0,0,0) );
-            this.p.set(x, y, new Color(rns,gns,bns) );
+            this.p.setPacked(x, y, (rns << 16) | (gns << 8) | bns );
+            markDirty(x, y);
         }
+        REPLACE.record(start);
     }
 
     /**
@@ -420,6 +512,7 @@ public class SeamDoppelganger
      */
     public void swapHorizontalSeamRandom(int[] a, Picture swapImg)
     {
+        long start = System.nanoTime();
         if( this.height() <= 1 )
         {
             throw new IllegalArgumentException("Height too small "+this.height());
@@ -432,8 +525,10 @@ public class SeamDoppelganger
         for (int x = 0; x < this.width(); x++)
         {
             int y = a[x];
-            this.p.set(x, y, swapImg.get(x,y) );
+            this.p.setPacked(x, y, swapImg.getPacked(x,y) );
+            markDirty(x, y);
         }
+        REPLACE.record(start);
     }
 
     /**
@@ -442,6 +537,7 @@ public class SeamDoppelganger
      */
     public void convolveHorizontalSeam(int[] a, Matrix kernel)
     {
+        long start = System.nanoTime();
         if( this.height() <= 1 )
         {
             throw new IllegalArgumentException("Height too small "+this.height());
@@ -492,11 +588,11 @@ public class SeamDoppelganger
                         // by kernel size.
                         if( outofbounds == false )
                         {
-                            Color c = this.picture().get(xi, yj);
+                            int c = this.p.packed(xi, yj);
 
-                            double r = c.getRed();
-                            double g = c.getGreen();
-                            double b = c.getBlue();
+                            double r = (c >> 16) & 0xFF;
+                            double g = (c >>  8) & 0xFF;
+                            double b = (c      ) & 0xFF;
 
                             // Get Kernel value from filter
                             double kernelValue = kernel.get(i,j);
@@ -515,10 +611,11 @@ public class SeamDoppelganger
                 if( r > 255 ) r = 255;
                 if( g > 255 ) g = 255;
                 if( b > 255 ) b = 255;
+                if( r < 0 ) r = 0;
+                if( g < 0 ) g = 0;
+                if( b < 0 ) b = 0;
 
                 //Color oldColor = this.picture().get(x, y);
-                Color newColor = new Color( r, g, b );
-
                 //System.out.printf( "(%d,%d) Old RGB: (%d,%d,%d) New RGB: (%d,%d,%d)\n", x, y,
                 //       oldColor.getRed(), oldColor.getGreen(), oldColor.getBlue(),
                 //       newColor.getRed(), newColor.getGreen(), newColor.getBlue()  );
@@ -528,9 +625,11 @@ public class SeamDoppelganger
                 //----------------------------------------------------------------//
                 
 
-                this.p.set(x, y, newColor);
+                this.p.setPacked(x, y, (r << 16) | (g << 8) | b );
+                markDirty(x, y);
             }
         }
+        REPLACE.record(start);
     }
 
     /**
@@ -539,6 +638,7 @@ public class SeamDoppelganger
      */
     public void replaceVerticalSeam(int[] a, Matrix kernel)
     {
+        long start = System.nanoTime();
         if( this.width() <= 1 )
         {
             throw new IllegalArgumentException("Width too small "+this.width());
@@ -551,7 +651,7 @@ public class SeamDoppelganger
         for (int y = 0; y < this.height(); y++)
         {
             int x = a[y];
-            Color oldColor = this.picture().get(x, y);
+            Color oldColor = this.p.get(x, y);
 
             int r = StdRandom.uniform( 0, 256 );
             int g = StdRandom.uniform( 0, 256 );
@@ -561,8 +661,9 @@ public class SeamDoppelganger
             Color newColor = new Color( 0, 0, 255 );
 
             this.p.set(x, y, newColor);
+            markDirty(x, y);
         }
-        
+        REPLACE.record(start);
     }
 
     /**
@@ -571,6 +672,7 @@ public class SeamDoppelganger
      */
     public void replaceVerticalSeamRandom(int[] a)
     {
+        long start = System.nanoTime();
         if( this.width() <= 1 )
         {
             throw new IllegalArgumentException("Width too small "+this.width());
@@ -580,7 +682,25 @@ public class SeamDoppelganger
             throw new IllegalArgumentException("Seam not compatible "+a.length);
         }
         
+        replaceVerticalSeamRandom(this.p, a);
         for (int y = 0; y < this.height(); y++)
+        {
+            markDirty(a[y], y);
+        }
+        REPLACE.record(start);
+    }
+
+    /**
+     * Replaces the specified vertical seam of a picture or raster, each
+     * pixel a function of its west and east neighbours.  Replacing the
+     * vertical seams of the transposed raster is the same as replacing the
+     * horizontal seams of the raster.
+     * @param p
+     * @param a 
+     */
+    static void replaceVerticalSeamRandom(PackedRaster p, int[] a)
+    {
+        for (int y = 0; y < p.height(); y++)
         {
             int x = a[y];
             //Color oldColor = this.picture().get(x, y);
@@ -591,16 +711,16 @@ public class SeamDoppelganger
 
             //Color newColor = new Color( r, g, b );
 
-            Color c = this.p.get(x,y);
-
             // Function of west and east neighbors
-            int rw = (x > 0)           ? this.p.get(x-1,y).getRed()   : 0;
-            int gw = (x > 0)           ? this.p.get(x-1,y).getGreen() : 0;
-            int bw = (x > 0)           ? this.p.get(x-1,y).getBlue()  : 0;
+            int w = (x > 0)           ? p.getPacked(x-1,y) : 0;
+            int e = (x < p.width()-1) ? p.getPacked(x+1,y) : 0;
+            int rw = (w >> 16) & 0xFF;
+            int gw = (w >>  8) & 0xFF;
+            int bw = (w      ) & 0xFF;
 
-            int re = (x < p.width()-1) ? this.p.get(x+1,y).getRed()   : 0;
-            int ge = (x < p.width()-1) ? this.p.get(x+1,y).getGreen() : 0;
-            int be = (x < p.width()-1) ? this.p.get(x+1,y).getBlue()  : 0;
+            int re = (e >> 16) & 0xFF;
+            int ge = (e >>  8) & 0xFF;
+            int be = (e      ) & 0xFF;
 
             int rwe = ( bw + ge + y ) & SEAM_HEX;
             int gwe = ( rw + be + y ) & SEAM_HEX;
@@ -608,7 +728,7 @@ public class SeamDoppelganger
 
             //this.p.set(x, y, newColor);
             //this.p.set(x, y, new Color(0,0,0) );
-            this.p.set(x, y, new Color(rwe,gwe,bwe) );
+            p.setPacked(x, y, (rwe << 16) | (gwe << 8) | bwe );
         }
         
     }
@@ -619,6 +739,7 @@ public class SeamDoppelganger
      */
     public void swapVerticalSeamRandom(int[] a, Picture swapImg)
     {
+        long start = System.nanoTime();
         if( this.width() <= 1 )
         {
             throw new IllegalArgumentException("Width too small "+this.width());
@@ -631,9 +752,10 @@ public class SeamDoppelganger
         for (int y = 0; y < this.height(); y++)
         {
             int x = a[y];
-            this.p.set(x, y, swapImg.get(x,y) );
+            this.p.setPacked(x, y, swapImg.getPacked(x,y) );
+            markDirty(x, y);
         }
-        
+        REPLACE.record(start);
     }
 
     /**
@@ -642,6 +764,7 @@ public class SeamDoppelganger
      */
     public void convolveVerticalSeam(int[] a, Matrix kernel)
     {
+        long start = System.nanoTime();
         if( this.width() <= 1 )
         {
             throw new IllegalArgumentException("Width too small "+this.width());
@@ -693,11 +816,11 @@ public class SeamDoppelganger
                         // by kernel size.
                         if( outofbounds == false )
                         {
-                            Color c = this.picture().get(xi, yj);
+                            int c = this.p.packed(xi, yj);
 
-                            double r = c.getRed();
-                            double g = c.getGreen();
-                            double b = c.getBlue();
+                            double r = (c >> 16) & 0xFF;
+                            double g = (c >>  8) & 0xFF;
+                            double b = (c      ) & 0xFF;
 
                             // Get Kernel value from filter
                             double kernelValue = kernel.get(i,j);
@@ -716,23 +839,27 @@ public class SeamDoppelganger
                 if( r > 255 ) r = 255;
                 if( g > 255 ) g = 255;
                 if( b > 255 ) b = 255;
+                if( r < 0 ) r = 0;
+                if( g < 0 ) g = 0;
+                if( b < 0 ) b = 0;
 
-                Color newColor = new Color( r, g, b );
                 //----------------------------------------------------------------//
 
-                this.p.set(x, y, newColor);
+                this.p.setPacked(x, y, (r << 16) | (g << 8) | b );
+                markDirty(x, y);
             }
         }
-        
+        REPLACE.record(start);
     }
 
     
     /**
-     * Converts the carver's picture into a two dimensional energy matrix.
+     * Converts the carver's picture into an energy map, a row at a time
+     * with its {@link EnergyKernel}.
      * @param sc
-     * @return 
+     * @param e receives energy[row*width + col]
      */
-    private static int[][] makeEnergy(SeamDoppelganger sc)
+    static void makeEnergy(SeamDoppelganger sc, int[] e)
     {
         /*
          * Switched from double[][] to int[][] because round off was a pain.
@@ -740,194 +867,124 @@ public class SeamDoppelganger
          * Note we add them for the path, each pixel can be at most (255*255) * 3 
          * 10000 * (255*255) * 3 < 2^31
          */
-        Picture p = sc.picture();
-        int[][] e = new int[p.height()][p.width()];
-        
-        for (int y = 0; y < p.height(); y++)
-        {
-            for (int x = 0; x < p.width(); x++)
-            {
-                e[y][x] = sc.energy(x, y);
-            }
-        }
-        
-        return e;
-    }
-    
-    private static void print(int[][] e)
-    {
-        for (int y = 0; y < e.length; y++)
-        {
-            System.out.print("row="+y+": ");
-            for (int x = 0; x < e[0].length; x++)
-            {
-                System.out.print(e[y][x]+", ");
-            }
-            System.out.println("");
-        }
+        sc.kernel.energy(sc.p, e);
     }
     
     /**
-     * Converts carver picture to a two dimensional energy matrix and then transposes.
-     * @param sc
-     * @return 
+     * Gets the energy map, recomputing only the pixels marked dirty since
+     * the last call (or everything if there is no map yet).
+     * @return energy[row*width + col], owned by this instance and not to be modified
      */
-    private static int[][] makeEnergyTranspose(SeamDoppelganger sc)
+    private int[] energyMap()
     {
-        Picture p = sc.picture();
-        int[][] e = new int[p.width()][p.height()];
-
-        for (int y = 0; y < p.height(); y++)
-        {
-            for (int x = 0; x < p.width(); x++)
-            {
-                e[x][y] = sc.energy(x, y);
-            }
-        }
-
+        long start = System.nanoTime();
+        int[] e = updateEnergy();
+        ENERGY.record(start);
         return e;
     }
-    
-    /**
-     * Gets the energy values along the specified path.
-     * @param e
-     * @param a
-     * @return 
-     */
-    private static int pathEnergy(int[][] e, int[] a)
+
+    private int[] updateEnergy()
     {
-        int s = 0;
-        for (int y = 0; y < a.length; y++)
+        if( this.energy == null )
         {
-            s += e[y][a[y]];
+            Object event = EVENTS.beginEnergyRebuild();
+            this.energy  = ws.energy(width()*height());
+            this.energyT = null;
+            makeEnergy(this, this.energy);
+            EVENTS.endEnergyRebuild(event, width(), height());
         }
-        return s;
+        else
+        {
+            flushDirty();
+        }
+        return this.energy;
     }
-    
+
     /**
-     * Find the path of least energy from top to bottom.
-     * @param e
-     * @param s
-     * @return path of e.length
+     * Gets the transposed energy map, kept in step with {@link #energyMap()}.
+     * @return energy[col*height + row], owned by this instance and not to be modified
      */
-    private static int[] leastShortestPath(int[][] e, int s)
+    private int[] energyMapTranspose()
     {
-        int w = e[0].length;
-        int h = e.length;
-        
-        int[] sp = new int[h];
-        
-        int x = s;
-        int y;
-        for (y = 0; y < h-1; y++)
-        {
-            sp[y] = x;
-            
-            // Southwest edge
-            int sw = (x > 0) ?   e[y+1][x-1] : Integer.MAX_VALUE;
-            int ss = e[y+1][x+0];
-            int se = (x < w-1) ? e[y+1][x+1] : Integer.MAX_VALUE;
-            
-            if( sw < ss && sw < se )
-            {
-                x = x-1;
-            }
-            else if( ss < sw && ss < se )
-            {
-                // default
-            }
-            else if( se < sw && se < ss )
+        long start = System.nanoTime();
+        int[] e = updateEnergy();
+        if( this.energyT == null )
+        {
+            int w = width();
+            int h = height();
+            this.energyT = ws.energyTranspose(w*h);
+            for (int y = 0; y < h; y++)
             {
-                x = x+1;
+                for (int x = 0; x < w; x++)
+                {
+                    this.energyT[x*h+y] = e[y*w+x];
+                }
             }
         }
-        // Pick up last decision
-        sp[y] = x;
-        
-        return sp;
+        ENERGY.record(start);
+        return this.energyT;
     }
 
     /**
-     * Find the path of greatest energy from top to bottom.
-     * @param e
-     * @param s
-     * @return path of e.length
+     * Records that pixel (x, y) changed.  Its energy does not depend on its
+     * own colour, but that of its 4-neighbours does, so those are marked.
+     * Nothing is recorded while there is no map to maintain.
+     * @param x
+     * @param y
      */
-    private static int[] greatestShortestPath(int[][] e, int s)
+    private void markDirty(int x, int y)
     {
-        //System.out.printf( "Calling greatestShortestPath with x=%d\n", s );
-
-        int w = e[0].length;
-        int h = e.length;
+        if( this.energy == null ) return;
+        int w = width();
+        int h = height();
+        if( x > 0   ) mark((y*w) + x-1);
+        if( x < w-1 ) mark((y*w) + x+1);
+        if( y > 0   ) mark(((y-1)*w) + x);
+        if( y < h-1 ) mark(((y+1)*w) + x);
+    }
 
-        if( s == w )
+    private void mark(int i)
+    {
+        if( this.isDirty[i] ) return;
+        this.isDirty[i] = true;
+        if( this.dirtyCount == this.dirty.length )
         {
-            String err = String.format("Specified width s %d is width of energy %d", s, w);
-            throw new IllegalArgumentException(err);
+            this.dirty = Arrays.copyOf(this.dirty, 2*this.dirty.length);
         }
-        //System.out.println("greatestShortestPath Height is " + h);
-        //System.out.println("greatestShortestPath Width  is " + w);
-        
-        int[] sp = new int[h];
-        
-        int y = 0;
-        sp[y] = s;
-        while ( y < h-1 )
-        {
-            int x = sp[y];
-
-            // Southwest edge
-            int sw = (x > 0) ?   e[y+1][x-1] : Integer.MIN_VALUE;
-            int ss = e[y+1][x+0];
-            int se = (x < w-1) ? e[y+1][x+1] : Integer.MIN_VALUE;
-            
-
-            // If edge, set to 0
-            if( sw == 195075 ) sw = 0;
-            if( ss == 195075 ) ss = 0;
-            if( se == 195075 ) se = 0;
-
+        this.dirty[this.dirtyCount++] = i;
+    }
 
-            if( sw > ss && sw > se )
-            {
-                x = x-1;
-                //System.out.printf( "Case 1 y = %d  x=%d   sw=%.2f ss=%.2f se=%.2f\n", y, x, sw, ss, se );
-            }
-            else if( ss > sw && ss > se )
-            {
-                // default
-                //System.out.printf( "Case 2 y = %d  x=%d   sw=%.2f ss=%.2f se=%.2f\n", y, x, sw, ss, se );
-            }
-            else if( se > sw && se > ss )
-            {
-                x = x+1;
-                //System.out.printf( "Case 3 y = %d  x=%d   sw=%.28f ss=%.28f se=%.28f\n", y, x, sw, ss, se );
-                //System.out.println( "Case 3" );            
-                //System.out.println( "     sw=" + sw );
-                //System.out.println( "     ss=" + ss );
-                //System.out.println( "     se=" + se );
-            }
-            else
+    /**
+     * Recomputes the energy of every dirty pixel in both maps.
+     */
+    private void flushDirty()
+    {
+        int w = width();
+        int h = height();
+        for (int k = 0; k < this.dirtyCount; k++)
+        {
+            int i = this.dirty[k];
+            int x = i % w;
+            int y = i / w;
+            int v = energy(x, y);
+            this.energy[i] = v;
+            if( this.energyT != null ) this.energyT[x*h+y] = v;
+            this.isDirty[i] = false;
+        }
+        this.dirtyCount = 0;
+    }
+    
+    private static void print(int[] e, int w, int h)
+    {
+        for (int y = 0; y < h; y++)
+        {
+            System.out.print("row="+y+": ");
+            for (int x = 0; x < w; x++)
             {
-                //System.out.printf( "Case 4 y = %d  x=%d   sw=%.2f ss=%.2f se=%.2f\n", y, x, sw, ss, se );
+                System.out.print(e[y*w+x]+", ");
             }
-
-            /*
-             * Peculiar Case 3:  Sometimes se=0 < sw and ss when x = width!!!
-             * This we add one and get exception in next loop AIOOBE.
-             * floating point issue, changed to integer and works fine now.
-             */
-            //if( x >= w ) x = w-1;
-
-            
-            //System.out.printf( "y = %d  x=%d   sw=%.2f ss=%.2f se=%.2f\n", y, x, sw, ss, se );
-            y++;
-            sp[y] = x;
+            System.out.println("");
         }
-        // Pick up last decision
-        //sp[y] = x;
-        
-        return sp;
     }
 
 
@@ -0,0 +1,56 @@
+/**
+ * Strategy for finding a top to bottom seam through an energy matrix.
+ * The matrix is indexed e[row][column]; horizontal seams are found by
+ * handing in the transposed energy matrix.
+ * <p>
+ * The flat versions take the energy as a row-major array and write the
+ * seam into the caller's array, using the buffers of a
+ * {@link SeamWorkspace}, so that repeated searches need not allocate.
+ * @author James Pope
+ */
+public interface SeamFinder
+{
+    /**
+     * Finds the seam with the least energy.
+     * @param e energy matrix, e[row][column]
+     * @return column index for each row, of length e.length
+     */
+    default int[] findMinimumSeam(int[][] e)
+    {
+        int[] seam = new int[e.length];
+        findMinimumSeam(SeamWorkspace.flatten(e), e[0].length, e.length, new SeamWorkspace(), seam);
+        return seam;
+    }
+
+    /**
+     * Finds the seam with the greatest energy.
+     * @param e energy matrix, e[row][column]
+     * @return column index for each row, of length e.length
+     */
+    default int[] findMaximumSeam(int[][] e)
+    {
+        int[] seam = new int[e.length];
+        findMaximumSeam(SeamWorkspace.flatten(e), e[0].length, e.length, new SeamWorkspace(), seam);
+        return seam;
+    }
+
+    /**
+     * Finds the seam with the least energy.
+     * @param e energy, e[row*w + column]
+     * @param w number of columns
+     * @param h number of rows
+     * @param ws buffers for the search
+     * @param seam receives the column index for each row, length at least h
+     */
+    void findMinimumSeam(int[] e, int w, int h, SeamWorkspace ws, int[] seam);
+
+    /**
+     * Finds the seam with the greatest energy.
+     * @param e energy, e[row*w + column]
+     * @param w number of columns
+     * @param h number of rows
+     * @param ws buffers for the search
+     * @param seam receives the column index for each row, length at least h
+     */
+    void findMaximumSeam(int[] e, int w, int h, SeamWorkspace ws, int[] seam);
+}
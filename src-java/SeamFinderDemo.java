@@ -0,0 +1,155 @@
+/*************************************************************************
+ *  Compilation:  javac SeamFinderDemo.java
+ *  Execution:    java SeamFinderDemo input.png [band]
+ *  Dependencies: SeamDoppelganger.java GreedySeamFinder.java
+ *                DynamicSeamFinder.java StreamingSeamFinder.java
+ *                PyramidSeamFinder.java Picture.java
+ *
+ *  Read image from file specified as command line argument. Find the
+ *  smallest vertical and horizontal seam with each seam finding engine
+ *  and print the seam energy and time taken, so that the engines can be
+ *  compared side by side.  The streaming vertical seam is checked
+ *  against the dense dynamic programming one, on the image and on
+ *  pictures 16,000 rows tall, where a seam has more energy than an int
+ *  holds.  The coarse to fine
+ *  pyramid search (band pixels either side, 4 by default) is compared
+ *  with the exact dynamic programming search for speed and seam energy.
+ *
+ *************************************************************************/
+
+public class SeamFinderDemo
+{
+    public static void main(String[] args)
+    {
+        if (args.length < 1 || args.length > 2)
+        {
+            System.out.println("Usage:\njava SeamFinderDemo <image filename> [band]");
+            return;
+        }
+        int band = (args.length > 1) ? Integer.parseInt(args[1]) : PyramidSeamFinder.DEFAULT_BAND;
+
+        Picture inputImg = new Picture(args[0]);
+        System.out.printf("image is %d columns by %d rows\n", inputImg.width(), inputImg.height());
+
+        SeamFinder[] finders = { new GreedySeamFinder(), new DynamicSeamFinder(),
+                                 new PyramidSeamFinder(band) };
+        for( SeamFinder finder : finders )
+        {
+            SeamDoppelganger sc = new SeamDoppelganger(inputImg, finder);
+            String name = finder.getClass().getSimpleName();
+
+            long start = System.nanoTime();
+            int[] verticalSeam = sc.findSmallestVerticalSeam();
+            long vertical = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int[] horizontalSeam = sc.findSmallestHorizontalSeam();
+            long horizontal = System.nanoTime() - start;
+
+            System.out.printf("%-18s vertical   energy %12d in %8.2f ms\n", name,
+                              verticalEnergy(sc, verticalSeam), vertical / 1e6);
+            System.out.printf("%-18s horizontal energy %12d in %8.2f ms\n", name,
+                              horizontalEnergy(sc, horizontalSeam), horizontal / 1e6);
+        }
+
+        // Pyramid against exact search in the same energy map, best of 5
+        int w = inputImg.width();
+        int h = inputImg.height();
+        int[] e = new int[w*h];
+        SeamDoppelganger.makeEnergy(new SeamDoppelganger(inputImg), e);
+        SeamWorkspace ws = new SeamWorkspace();
+        int[] exactSeam = new int[h];
+        int[] pyramidSeam = new int[h];
+        long exact = bestOf(new DynamicSeamFinder(), e, w, h, ws, exactSeam);
+        long pyramid = bestOf(new PyramidSeamFinder(band), e, w, h, ws, pyramidSeam);
+        long exactEnergy = 0;
+        long pyramidEnergy = 0;
+        for (int y = 0; y < h; y++)
+        {
+            exactEnergy   += e[y*w + exactSeam[y]];
+            pyramidEnergy += e[y*w + pyramidSeam[y]];
+        }
+        System.out.printf("%-18s band %d vertical search %.1f times as fast as exact, seam energy %+.2f%%\n",
+                          "PyramidSeamFinder", band, (double) exact / pyramid,
+                          100.0 * (pyramidEnergy - exactEnergy) / exactEnergy);
+
+        SeamDoppelganger sc = new SeamDoppelganger(inputImg, new DynamicSeamFinder());
+        int[] denseSeam = sc.findSmallestVerticalSeam();
+        int[] streamSeam = new int[inputImg.height()];
+        long start = System.nanoTime();
+        StreamingSeamFinder.findMinimumSeam(inputImg, new SeamWorkspace(), streamSeam);
+        long vertical = System.nanoTime() - start;
+        System.out.printf("%-18s vertical   energy %12d in %8.2f ms, %s dense seam\n", "StreamingSeamFinder",
+                          verticalEnergy(sc, streamSeam), vertical / 1e6,
+                          java.util.Arrays.equals(denseSeam, streamSeam) ? "same as" : "DIFFERENT FROM");
+
+        // Tall pictures, one random and one of black and white stripes
+        // whose seams run along the border energy
+        int tall = 16000;
+        Picture stripes = new Picture(8, tall);
+        for (int y = 0; y < tall; y++)
+        {
+            for (int x = 0; x < 8; x++)
+            {
+                stripes.setPacked(x, y, (((x + y) / 2) % 2 == 0) ? 0xFFFFFF : 0);
+            }
+        }
+        compareTall(SCUtility.randomPicture(64, tall), "random");
+        compareTall(stripes, "striped");
+    }
+
+    /**
+     * Prints whether the streaming and dense searches find the same least
+     * and greatest vertical seams of a tall picture.
+     */
+    private static void compareTall(Picture p, String label)
+    {
+        int w = p.width();
+        int h = p.height();
+        int[] e = new int[w*h];
+        SeamDoppelganger sc = new SeamDoppelganger(p);
+        SeamDoppelganger.makeEnergy(sc, e);
+        SeamWorkspace ws = new SeamWorkspace();
+        int[] dense  = new int[h];
+        int[] stream = new int[h];
+
+        new DynamicSeamFinder().findMinimumSeam(e, w, h, ws, dense);
+        StreamingSeamFinder.findMinimumSeam(p, ws, stream);
+        boolean least = java.util.Arrays.equals(dense, stream);
+        long energy = verticalEnergy(sc, dense);
+
+        new DynamicSeamFinder().findMaximumSeam(e, w, h, ws, dense);
+        StreamingSeamFinder.findMaximumSeam(p, ws, stream);
+        boolean greatest = java.util.Arrays.equals(dense, stream);
+
+        System.out.printf("%-18s %dx%d %s, least energy %d, least %s and greatest %s dense seams\n",
+                          "StreamingSeamFinder", w, h, label, energy,
+                          least ? "same as" : "DIFFERENT FROM", greatest ? "same as" : "DIFFERENT FROM");
+    }
+
+    private static long bestOf(SeamFinder finder, int[] e, int w, int h, SeamWorkspace ws, int[] seam)
+    {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++)
+        {
+            long start = System.nanoTime();
+            finder.findMinimumSeam(e, w, h, ws, seam);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static long verticalEnergy(SeamDoppelganger sc, int[] seam)
+    {
+        long s = 0;
+        for (int y = 0; y < seam.length; y++) s += sc.energy(seam[y], y);
+        return s;
+    }
+
+    private static long horizontalEnergy(SeamDoppelganger sc, int[] seam)
+    {
+        long s = 0;
+        for (int x = 0; x < seam.length; x++) s += sc.energy(x, seam[x]);
+        return s;
+    }
+}
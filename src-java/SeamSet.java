@@ -0,0 +1,241 @@
+/**
+ * A set of seams that share no pixel, held flat: seam i occupies
+ * [i*length, (i+1)*length) of one int array.
+ * <p>
+ * {@link #findSmallest(int[], int, int, int)} builds the set from a single
+ * energy map.  Each seam taken is the least energy seam, as
+ * {@link DynamicSeamFinder} finds it, among those that avoid the seams
+ * taken before it, as if they had been carved out but without moving the
+ * pixels.  The dynamic programming pass treats used pixels as blocked,
+ * and the end columns of the last row go into a primitive min-heap by
+ * cost.  The cheapest is backtracked, and if its path is still free it is
+ * taken, since the costs of the others can only have risen since the
+ * pass.  Otherwise the pass is run again around the seams taken so far.
+ * Paths from different columns often merge, so there are usually far
+ * fewer passes than seams.  Fewer than k seams are returned once every
+ * path is boxed in by used pixels.
+ * @author James Pope
+ */
+public class SeamSet
+{
+    /** Cost of a pixel no free path reaches */
+    private static final long UNREACHABLE = Long.MAX_VALUE;
+
+    private static final byte WEST     = -1;
+    private static final byte STRAIGHT =  0;
+    private static final byte EAST     =  1;
+
+    private final int length;
+    private final int[] seams;
+    private final long[] energies;
+    private int count;
+
+    private SeamSet(int k, int length)
+    {
+        this.length   = length;
+        this.seams    = new int[k * length];
+        this.energies = new long[k];
+    }
+
+    /**
+     * @return number of seams in the set
+     */
+    public int size()
+    {
+        return this.count;
+    }
+
+    /**
+     * @return number of indices in each seam
+     */
+    public int length()
+    {
+        return this.length;
+    }
+
+    /**
+     * @param i
+     * @return energy of seam i
+     */
+    public long energy(int i)
+    {
+        checkIndex(i);
+        return this.energies[i];
+    }
+
+    /**
+     * Copies seam i into dst, which is allocated only if it is null or not
+     * of length {@link #length()}.
+     * @param i
+     * @param dst
+     * @return the buffer holding the seam
+     */
+    public int[] seam(int i, int[] dst)
+    {
+        checkIndex(i);
+        if( dst == null || dst.length != this.length ) dst = new int[this.length];
+        System.arraycopy(this.seams, i*this.length, dst, 0, this.length);
+        return dst;
+    }
+
+    private void checkIndex(int i)
+    {
+        if( i < 0 || i >= this.count )
+        {
+            throw new IndexOutOfBoundsException("Seam "+i+" of "+this.count);
+        }
+    }
+
+    /**
+     * Finds up to k top to bottom seams of least energy that share no pixel.
+     * @param e energy, e[row*w + column]
+     * @param w number of columns
+     * @param h number of rows
+     * @param k number of seams wanted
+     * @return the seams, in the order taken
+     */
+    public static SeamSet findSmallest(int[] e, int w, int h, int k)
+    {
+        if( k < 0 )
+        {
+            throw new IllegalArgumentException("Invalid number of seams "+k);
+        }
+        SeamSet set = new SeamSet(Math.min(k, w), h);
+        int[] path = new int[h];
+        byte[] back = new byte[w*h];
+        long[] cost = new long[2*w];
+        long[] used = new long[(int) (((long) w*h + 63) >>> 6)];
+        int[] heap = new int[w];
+        long[] last = new long[w];
+        int n = 0;
+        boolean fresh = false;
+
+        while( set.count < set.energies.length )
+        {
+            if( n == 0 )
+            {
+                // Nothing left was free when last searched
+                if( fresh ) break;
+                search(e, w, h, used, back, cost, last);
+                n = 0;
+                for (int x = 0; x < w; x++)
+                {
+                    if( last[x] != UNREACHABLE ) heap[n++] = x;
+                }
+                for (int i = n/2 - 1; i >= 0; i--)
+                {
+                    siftDown(heap, i, n, last);
+                }
+                fresh = true;
+                continue;
+            }
+
+            int x = heap[0];
+            heap[0] = heap[--n];
+            siftDown(heap, 0, n, last);
+
+            if( !backtrack(w, h, x, used, back, path) )
+            {
+                // Crosses a seam taken since the search, search again
+                n = 0;
+                fresh = false;
+                continue;
+            }
+
+            for (int y = 0; y < h; y++)
+            {
+                int i = y*w + path[y];
+                used[i >>> 6] |= 1L << i;
+            }
+            System.arraycopy(path, 0, set.seams, set.count*h, h);
+            set.energies[set.count++] = last[x];
+            fresh = false;
+        }
+        return set;
+    }
+
+    /**
+     * Dynamic programming pass as in {@link DynamicSeamFinder}, used
+     * pixels and those only reachable through them being unreachable.
+     * The cost of the best path to each pixel of the last row goes to last.
+     */
+    private static void search(int[] e, int w, int h, long[] used,
+                               byte[] back, long[] cost, long[] last)
+    {
+        int prev = 0;
+        int curr = w;
+        for (int x = 0; x < w; x++)
+        {
+            cost[prev+x] = isUsed(used, x) ? UNREACHABLE : e[x];
+        }
+        for (int y = 1; y < h; y++)
+        {
+            int base = y*w;
+            for (int x = 0; x < w; x++)
+            {
+                long best = cost[prev+x];
+                byte step = STRAIGHT;
+                if( x > 0 && cost[prev+x-1] < best )
+                {
+                    best = cost[prev+x-1];
+                    step = WEST;
+                }
+                if( x < w-1 && cost[prev+x+1] < best )
+                {
+                    best = cost[prev+x+1];
+                    step = EAST;
+                }
+                if( best != UNREACHABLE && isUsed(used, base+x) ) best = UNREACHABLE;
+                cost[curr+x] = (best == UNREACHABLE) ? UNREACHABLE : best + e[base+x];
+                back[base+x] = step;
+            }
+            int t = prev; prev = curr; curr = t;
+        }
+        System.arraycopy(cost, prev, last, 0, w);
+    }
+
+    /**
+     * Follows the backpointers up from column x of the last row.
+     * @return whether every pixel of the path is still free
+     */
+    private static boolean backtrack(int w, int h, int x, long[] used, byte[] back, int[] path)
+    {
+        for (int y = h-1; y >= 0; y--)
+        {
+            int i = y*w + x;
+            if( isUsed(used, i) ) return false;
+            path[y] = x;
+            if( y > 0 ) x += back[i];
+        }
+        return true;
+    }
+
+    private static boolean isUsed(long[] used, int i)
+    {
+        return (used[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Restores the min-heap order below position i of heap[0, n), columns
+     * ordered by their cost in last, then by column.
+     */
+    private static void siftDown(int[] heap, int i, int n, long[] last)
+    {
+        int v = heap[i];
+        while( true )
+        {
+            int c = 2*i + 1;
+            if( c >= n ) break;
+            if( c+1 < n && before(heap[c+1], heap[c], last) ) c++;
+            if( !before(heap[c], v, last) ) break;
+            heap[i] = heap[c];
+            i = c;
+        }
+        heap[i] = v;
+    }
+
+    private static boolean before(int a, int b, long[] last)
+    {
+        return last[a] < last[b] || (last[a] == last[b] && a < b);
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Buffers reused from one seam search to the next: the energy map in both
+ * orientations, two rows of cumulative cost and the backpointers, also
+ * packed four to a byte for {@link StreamingSeamFinder}, and the smaller
+ * levels and seams of {@link PyramidSeamFinder}.
+ * Each buffer is allocated on first use and only reallocated when a larger
+ * one is asked for, so once a SeamDoppelganger or SeamCarver has found its
+ * first seam, finding the following ones allocates nothing, and buffers
+ * that its finder or the directions searched never use are not allocated.
+ * <p>
+ * The buffers are flat, row-major arrays.  They may be longer than asked
+ * for, since pictures only shrink while seams are removed.
+ * @author James Pope
+ */
+public class SeamWorkspace
+{
+    private static final int[]  NO_INTS  = new int[0];
+    private static final byte[] NO_BYTES = new byte[0];
+    private static final long[] NO_LONGS = new long[0];
+
+    private int[]  energy  = NO_INTS;
+    private int[]  energyT = NO_INTS;
+    private long[] cost    = NO_LONGS;
+    private byte[] back    = NO_BYTES;
+    private long[] packed  = NO_LONGS;
+    private int[]  pyramid = NO_INTS;
+    private int[]  coarse  = NO_INTS;
+
+    /**
+     * Creates an empty workspace, buffers are allocated as needed.
+     */
+    public SeamWorkspace()
+    {
+    }
+
+    /**
+     * @param n number of pixels
+     * @return buffer for the energy map, energy[row*width + col]
+     */
+    public int[] energy(int n)
+    {
+        if( this.energy.length < n ) this.energy = new int[n];
+        return this.energy;
+    }
+
+    /**
+     * @param n number of pixels
+     * @return buffer for the transposed energy map, energy[col*height + row]
+     */
+    public int[] energyTranspose(int n)
+    {
+        if( this.energyT.length < n ) this.energyT = new int[n];
+        return this.energyT;
+    }
+
+    /**
+     * Cumulative costs are longs: a seam through a picture more than about
+     * 11,000 rows tall can have more energy than an int holds.
+     * @param n length of one row of cost
+     * @return buffer holding two rows of cumulative cost, [0, n) and [n, 2n)
+     */
+    long[] costs(int n)
+    {
+        if( this.cost.length < 2*n ) this.cost = new long[2*n];
+        return this.cost;
+    }
+
+    /**
+     * @param n number of pixels
+     * @return buffer for one backpointer per pixel
+     */
+    byte[] backpointers(int n)
+    {
+        if( this.back.length < n ) this.back = new byte[n];
+        return this.back;
+    }
+
+    /**
+     * @param n number of pixels
+     * @return buffer for one 2-bit backpointer per pixel, 32 to a long
+     */
+    long[] packedBackpointers(int n)
+    {
+        int words = (int) (((long) n + 31) >>> 5);
+        if( this.packed.length < words ) this.packed = new long[words];
+        return this.packed;
+    }
+
+    /**
+     * @param n total pixels of the levels below the full energy map
+     * @return buffer holding the levels one after another
+     */
+    int[] pyramid(int n)
+    {
+        if( this.pyramid.length < n ) this.pyramid = new int[n];
+        return this.pyramid;
+    }
+
+    /**
+     * @param n number of rows of a smaller level
+     * @return buffer for a seam through that level
+     */
+    int[] coarseSeam(int n)
+    {
+        if( this.coarse.length < n ) this.coarse = new int[n];
+        return this.coarse;
+    }
+
+    /**
+     * Copies an energy matrix into a new flat, row-major array.
+     * @param e energy matrix, e[row][column]
+     * @return e[row*width + column]
+     */
+    static int[] flatten(int[][] e)
+    {
+        int w = e[0].length;
+        int[] flat = new int[e.length * w];
+        for (int y = 0; y < e.length; y++)
+        {
+            System.arraycopy(e[y], 0, flat, y*w, w);
+        }
+        return flat;
+    }
+}
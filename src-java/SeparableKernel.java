@@ -0,0 +1,114 @@
+/**
+ * A square filter kernel that is the outer product of two vectors, so that
+ * <pre>get(i, j) == rowFactor(i) * columnFactor(j)</pre>
+ * Filtering with it can be done as two 1-D passes of n taps each instead of
+ * one 2-D pass of n*n taps.  The full n-by-n matrix is still held, so code
+ * that indexes the kernel directly keeps working.
+ * <p>
+ * It can also be changed like any other matrix, after which the factors no
+ * longer describe it, see {@link #isSeparable()}.
+ * @author James Pope
+ */
+public class SeparableKernel extends Matrix
+{
+    private final double[] rowFactors;
+    private final double[] columnFactors;
+
+    /* Entries the kernel was created with, row after row */
+    private final double[] entries;
+    private volatile boolean changed;
+
+    /**
+     * Creates the kernel rowFactors * columnFactors'.
+     * @param rowFactors
+     * @param columnFactors
+     */
+    public SeparableKernel(double[] rowFactors, double[] columnFactors)
+    {
+        this(new Matrix(outer(rowFactors, columnFactors)), rowFactors, columnFactors);
+    }
+
+    /**
+     * Creates the kernel from its full matrix and its factors, for when the
+     * full matrix is computed directly (it may then differ from the product
+     * of the factors by rounding).
+     * @param kernel full kernel, kernel(i, j) = rowFactors[i] * columnFactors[j]
+     * @param rowFactors
+     * @param columnFactors
+     */
+    public SeparableKernel(Matrix kernel, double[] rowFactors, double[] columnFactors)
+    {
+        super(kernel);
+        if( rowFactors.length != kernel.getRowSize() || columnFactors.length != kernel.getColumnSize() )
+        {
+            throw new IllegalArgumentException("Factors do not match kernel size");
+        }
+        this.rowFactors    = rowFactors.clone();
+        this.columnFactors = columnFactors.clone();
+        this.entries = new double[kernel.getRowSize() * kernel.getColumnSize()];
+        for (int i = 0, k = 0; i < kernel.getRowSize(); i++)
+        {
+            for (int j = 0; j < kernel.getColumnSize(); j++)
+            {
+                entries[k++] = kernel.get(i, j);
+            }
+        }
+    }
+
+    /**
+     * Whether the factors still describe the kernel.  Its entries can be
+     * changed through set, fill or mapInPlace, through a view from crop,
+     * row or column, or by evaluating an expression into it.  Once any entry
+     * differs from those it was created with the factors are dropped for
+     * good, and {@link Matrix#applyFilter} and {@link Picture#applyFilter}
+     * filter with the entries as they are, as for any other kernel.
+     * @return whether the kernel is unchanged since it was created
+     */
+    public boolean isSeparable()
+    {
+        if( changed ) return false;
+        for (int i = 0, k = 0; i < getRowSize(); i++)
+        {
+            for (int j = 0; j < getColumnSize(); j++)
+            {
+                if( Double.compare(get(i, j), entries[k++]) != 0 )
+                {
+                    changed = true;
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param i kernel row index
+     * @return factor applied along the kernel rows, as created
+     */
+    public double rowFactor(int i)
+    {
+        return rowFactors[i];
+    }
+
+    /**
+     * @param j kernel column index
+     * @return factor applied along the kernel columns, as created
+     */
+    public double columnFactor(int j)
+    {
+        return columnFactors[j];
+    }
+
+    private static double[][] outer(double[] a, double[] b)
+    {
+        double[][] data = new double[a.length][b.length];
+        for (int i = 0; i < a.length; i++)
+        {
+            for (int j = 0; j < b.length; j++)
+            {
+                data[i][j] = a[i] * b[j];
+            }
+        }
+        return data;
+    }
+}
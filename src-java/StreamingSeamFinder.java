@@ -0,0 +1,134 @@
+/**
+ * Exact top to bottom seam search for very large pictures that never holds
+ * the energy map.  Energy is computed row by row straight from the
+ * picture's raster as the dynamic programming pass reaches it, so only two
+ * rows of cumulative cost are kept, and the step taken into every pixel
+ * (-1, 0, +1) is recorded as a 2-bit backpointer, 32 to a long.  Working
+ * memory is about 0.25 bytes per pixel, against 4 bytes of energy and 1
+ * byte of backpointer per pixel for {@link DynamicSeamFinder}.
+ * <p>
+ * The seam is the same as the one {@link DynamicSeamFinder} finds in the
+ * picture's energy map: the energy, tie breaking and treatment of border
+ * pixels for the maximum seam are the same, and both keep cumulative
+ * costs as longs, so they agree however tall the picture.
+ * <p>
+ * Rows are visited strictly top to bottom, so on a {@link TiledRaster}
+ * the search walks the stripes in order.
+ * @author James Pope
+ */
+public class StreamingSeamFinder
+{
+    // Backpointers are stored as step + 1
+    private static final int WEST     = 0;
+    private static final int STRAIGHT = 1;
+    private static final int EAST     = 2;
+
+    /**
+     * Finds the vertical seam with the least energy.
+     * @param p
+     * @param ws supplies the cost rows and backpointers
+     * @param seam receives the column for each row, of length p.height()
+     */
+    public static void findMinimumSeam(PackedRaster p, SeamWorkspace ws, int[] seam)
+    {
+        findSeam(p, ws, seam, false);
+    }
+
+    /**
+     * Finds the vertical seam with the greatest energy.
+     * @param p
+     * @param ws supplies the cost rows and backpointers
+     * @param seam receives the column for each row, of length p.height()
+     */
+    public static void findMaximumSeam(PackedRaster p, SeamWorkspace ws, int[] seam)
+    {
+        findSeam(p, ws, seam, true);
+    }
+
+    private static void findSeam(PackedRaster p, SeamWorkspace ws, int[] seam, boolean largest)
+    {
+        int w = p.width();
+        int h = p.height();
+        if( seam.length != h )
+        {
+            throw new IllegalArgumentException("Seam length "+seam.length+" != height "+h);
+        }
+        long[] back = ws.packedBackpointers(w*h);
+        long[] cost = ws.costs(w);
+        int prev = 0;
+        int curr = w;
+
+        for (int x = 0; x < w; x++)
+        {
+            cost[prev+x] = cost(SeamDoppelganger.energy(p, x, 0), largest);
+        }
+
+        for (int y = 1; y < h; y++)
+        {
+            int base = y*w;
+            long word = 0;
+            for (int x = 0; x < w; x++)
+            {
+                long best = cost[prev+x];
+                long step = STRAIGHT;
+                if( x > 0 && better(cost[prev+x-1], best, largest) )
+                {
+                    best = cost[prev+x-1];
+                    step = WEST;
+                }
+                if( x < w-1 && better(cost[prev+x+1], best, largest) )
+                {
+                    best = cost[prev+x+1];
+                    step = EAST;
+                }
+                cost[curr+x] = best + cost(SeamDoppelganger.energy(p, x, y), largest);
+
+                // Fill a word in a register, store it when full or at row end
+                int i = base + x;
+                word |= step << ((i & 31) << 1);
+                if( (i & 31) == 31 || x == w-1 )
+                {
+                    if( (i >>> 5) == (base >>> 5) && (base & 31) != 0 )
+                    {
+                        // Word shared with the end of the row above, keep its bits
+                        long above = (1L << ((base & 31) << 1)) - 1;
+                        back[i >>> 5] = (back[i >>> 5] & above) | word;
+                    }
+                    else
+                    {
+                        back[i >>> 5] = word;
+                    }
+                    word = 0;
+                }
+            }
+            int t = prev; prev = curr; curr = t;
+        }
+
+        // Best end point in the last row
+        int x = 0;
+        for (int i = 1; i < w; i++)
+        {
+            if( better(cost[prev+i], cost[prev+x], largest) ) x = i;
+        }
+
+        // Backtrack
+        for (int y = h-1; y > 0; y--)
+        {
+            seam[y] = x;
+            int i = y*w + x;
+            x += (int) ((back[i >>> 5] >>> ((i & 31) << 1)) & 3) - STRAIGHT;
+        }
+        seam[0] = x;
+    }
+
+    private static long cost(int energy, boolean largest)
+    {
+        if( largest && energy == SeamDoppelganger.BORDER_ENERGY ) return 0;
+        return energy;
+    }
+
+    private static boolean better(long a, long b, boolean largest)
+    {
+        return largest ? a > b : a < b;
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Summed-area table (integral image) of a {@link Matrix}, giving the sum
+ * or mean of any rectangle of it in O(1): entry (r, c) is the sum of all
+ * elements above and left of (r, c), so a rectangle is four lookups.
+ * Made by {@link Matrix#summedAreaTable()} in one pass over the matrix.
+ * <p>
+ * The table is exact, held as longs, while every element is a whole
+ * number of magnitude at most 2^31, as for matrices read from pictures.
+ * Otherwise each entry is held as an unevaluated sum of two doubles, and
+ * built and queried with error-free additions, so a small rectangle far
+ * down a large table does not lose its low bits to cancellation against
+ * the large sums around it.
+ * @author James Pope
+ */
+public class SummedAreaTable
+{
+    /** Largest magnitude of an element summed exactly */
+    private static final double EXACT_LIMIT = 2147483648.0;
+
+    private final int rows;
+    private final int cols;
+    private final int width;        // cols + 1, entries per row of the table
+
+    /* Exactly one of these is set, entry (r, c) at r*width + c */
+    private long[]   exact;
+    private double[] hi;
+    private double[] lo;
+
+    /**
+     * Builds the table of a rows-by-cols matrix whose element (r, c) is
+     * data[offset + r*stride + c].
+     */
+    SummedAreaTable(double[] data, int offset, int stride, int rows, int cols)
+    {
+        this.rows = rows;
+        this.cols = cols;
+        this.width = cols + 1;
+        if( !buildExact(data, offset, stride) )
+        {
+            this.exact = null;
+            buildCompensated(data, offset, stride);
+        }
+    }
+
+    /**
+     * @return number of rows of the matrix
+     */
+    public int rows()
+    {
+        return this.rows;
+    }
+
+    /**
+     * @return number of columns of the matrix
+     */
+    public int columns()
+    {
+        return this.cols;
+    }
+
+    /**
+     * @return whether sums are exact, every element being a small whole number
+     */
+    public boolean isExact()
+    {
+        return this.exact != null;
+    }
+
+    /**
+     * Sum of a rectangle, addressed as {@link Matrix#crop}.
+     * @param x first column
+     * @param y first row
+     * @param width columns
+     * @param height rows
+     * @return sum of the elements
+     */
+    public double sum(int x, int y, int width, int height)
+    {
+        if( x < 0 || y < 0 || width < 0 || height < 0 || x+width > cols || y+height > rows )
+        {
+            throw new IndexOutOfBoundsException("Region " + width + "x" + height + " at (" + x + ", " + y +
+                                                ") outside " + cols + "x" + rows);
+        }
+        return region(y, x, y+height, x+width);
+    }
+
+    /**
+     * Mean of a rectangle, addressed as {@link Matrix#crop}.
+     * @param x first column
+     * @param y first row
+     * @param width columns, at least 1
+     * @param height rows, at least 1
+     * @return mean of the elements
+     */
+    public double mean(int x, int y, int width, int height)
+    {
+        return sum(x, y, width, height) / ((double) width * height);
+    }
+
+    /**
+     * @return sum of the whole matrix
+     */
+    public double sum()
+    {
+        return region(0, 0, rows, cols);
+    }
+
+    /**
+     * Sum over rows [r0, r1) and columns [c0, c1), unchecked.
+     */
+    double region(int r0, int c0, int r1, int c1)
+    {
+        int a = r0*width + c0;
+        int b = r0*width + c1;
+        int c = r1*width + c0;
+        int d = r1*width + c1;
+        if( exact != null )
+        {
+            return (double) (exact[d] - exact[b] - exact[c] + exact[a]);
+        }
+
+        // (d - b) - (c - a), each difference carried as two doubles
+        double s1 = hi[d] - hi[b];
+        double e1 = twoSumError(hi[d], -hi[b], s1) + (lo[d] - lo[b]);
+        double s2 = hi[c] - hi[a];
+        double e2 = twoSumError(hi[c], -hi[a], s2) + (lo[c] - lo[a]);
+        double s = s1 - s2;
+        return s + (twoSumError(s1, -s2, s) + (e1 - e2));
+    }
+
+    /**
+     * Fills the long table, stopping at the first element that is not a
+     * small whole number.
+     * @return whether the table was filled
+     */
+    private boolean buildExact(double[] data, int offset, int stride)
+    {
+        long[] t = new long[(rows + 1) * width];
+        for (int r = 0; r < rows; r++)
+        {
+            int s = offset + r*stride;
+            int up = r*width;
+            int row = up + width;
+            long prefix = 0L;
+            for (int c = 0; c < cols; c++)
+            {
+                double v = data[s+c];
+                long l = (long) v;
+                if( l != v || Math.abs(v) > EXACT_LIMIT ) return false;
+                prefix += l;
+                t[row+c+1] = t[up+c+1] + prefix;
+            }
+        }
+        this.exact = t;
+        return true;
+    }
+
+    /**
+     * Fills the two double tables.  Each row prefix and each entry is
+     * carried as hi + lo, the rounding error of every addition going to lo.
+     */
+    private void buildCompensated(double[] data, int offset, int stride)
+    {
+        double[] h = new double[(rows + 1) * width];
+        double[] l = new double[(rows + 1) * width];
+        for (int r = 0; r < rows; r++)
+        {
+            int s = offset + r*stride;
+            int up = r*width;
+            int row = up + width;
+            double ph = 0.0;
+            double pl = 0.0;
+            for (int c = 0; c < cols; c++)
+            {
+                // Row prefix += element
+                double v = data[s+c];
+                double sum = ph + v;
+                pl += twoSumError(ph, v, sum);
+                ph = sum;
+
+                // Entry = entry above + row prefix, then renormalised
+                double uh = h[up+c+1];
+                double eh = uh + ph;
+                double el = twoSumError(uh, ph, eh) + (l[up+c+1] + pl);
+                double nh = eh + el;
+                h[row+c+1] = nh;
+                l[row+c+1] = el - (nh - eh);
+            }
+        }
+        this.hi = h;
+        this.lo = l;
+    }
+
+    /**
+     * @return the rounding error of sum = a + b, so that a + b == sum + error exactly
+     */
+    private static double twoSumError(double a, double b, double sum)
+    {
+        double bb = sum - a;
+        return (a - (sum - bb)) + (b - bb);
+    }
+}
@@ -1,7 +1,6 @@
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 import java.io.File;
-import java.util.TreeMap;
 import java.io.IOException;
 
 /*************************************************************************
@@ -20,9 +19,9 @@ public class SwapDemo
 {
     public static void main(String[] args) throws IOException
     {
-        if (args.length != 4)
+        if (args.length != 4 && args.length != 5)
         {
-            System.out.println("Usage:\njava ReplaceDemo <orig image> <swap image> <num columns to replace> <num rows to replace>");
+            System.out.println("Usage:\njava ReplaceDemo <orig image> <swap image> <num columns to replace> <num rows to replace> [oneshot]");
             return;
         }
 
@@ -31,6 +30,7 @@ public class SwapDemo
 
         int removeColumns = Integer.parseInt(args[2]);
         int removeRows    = Integer.parseInt(args[3]);
+        boolean oneShot   = args.length > 4 && args[4].equals("oneshot");
 
         // Resize swap to be same size as original
         BufferedImage swapOrigImage = ImageIO.read( new File(swapFilename) );
@@ -46,7 +46,8 @@ public class SwapDemo
         //--------------------------------------------------------------------//
         // Seam Carving
         //--------------------------------------------------------------------//
-        Picture seamPicture = processRecursive( origImg, swapImg, removeColumns, removeRows );
+        Picture seamPicture = oneShot ? process( origImg, swapImg, removeColumns, removeRows )
+                                      : processRecursive( origImg, swapImg, removeColumns, removeRows );
         // Determine roughly the number of pixels that will be modified
         System.out.printf("new image size is %d columns by %d rows\n", seamPicture.width(), seamPicture.height());
 
@@ -75,26 +76,37 @@ public class SwapDemo
         //randPicture.save( filename );
     }
 
+    /**
+     * One shot: every seam is chosen from the energy of the original
+     * picture, as the least energy seams that share no pixel, rather than
+     * finding each seam again after the previous one was swapped, see
+     * {@link SeamSet}.
+     */
     public static Picture process( Picture origImg, Picture swapImg, int removeCols, int removeRows )
     {
         SeamDoppelganger sc = new SeamDoppelganger(origImg);
         
-        TreeMap<Integer,int[]> hseams = sc.findSmallestHorizontalSeams();
-        int hcount = 0;
-        while( hcount < removeRows && !hseams.isEmpty() )
+        SeamSet hseams = sc.findSmallestHorizontalSeams(removeRows);
+        SeamSet vseams = sc.findSmallestVerticalSeams(removeCols);
+
+        int[] horizontalSeam = null;
+        for (int i = 0; i < hseams.size(); i++)
         {
-            int[] horizontalSeam = hseams.remove( hseams.firstKey() );
+            horizontalSeam = hseams.seam(i, horizontalSeam);
             sc.swapHorizontalSeamRandom(horizontalSeam, swapImg);
-            hcount++;
         }
 
-        TreeMap<Integer,int[]> vseams = sc.findSmallestVerticalSeams();
-        int vcount = 0 ;
-        while( vcount < removeCols && !vseams.isEmpty() )
+        int[] verticalSeam = null;
+        for (int i = 0; i < vseams.size(); i++)
         {
-            int[] verticalSeam = sc.findSmallestVerticalSeam();
+            verticalSeam = vseams.seam(i, verticalSeam);
             sc.swapVerticalSeamRandom(verticalSeam, swapImg);
-            vcount++;
+        }
+
+        if( hseams.size() < removeRows || vseams.size() < removeCols )
+        {
+            System.out.printf("Only %d rows and %d columns to swap\n",
+                              hseams.size(), vseams.size());
         }
         
         return sc.picture();
@@ -104,16 +116,20 @@ public class SwapDemo
     public static Picture processRecursive( Picture origImg, Picture swapImg, int removeCols, int removeRows )
     {
         SeamDoppelganger sc = new SeamDoppelganger(origImg);
+
+        // Seams are found into the same buffers every time
+        int[] horizontalSeam = new int[ origImg.width() ];
+        int[] verticalSeam   = new int[ origImg.height() ];
         
         for (int i = 0; i < removeRows; i++)
         {
-            int[] horizontalSeam = sc.findSmallestHorizontalSeam();
+            sc.findSmallestHorizontalSeam(horizontalSeam);
             sc.swapHorizontalSeamRandom(horizontalSeam, swapImg);
         }
 
         for (int i = 0; i < removeCols; i++)
         {
-            int[] verticalSeam = sc.findSmallestVerticalSeam();
+            sc.findSmallestVerticalSeam(verticalSeam);
             sc.swapVerticalSeamRandom(verticalSeam, swapImg);
         }
         
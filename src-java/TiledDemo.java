@@ -0,0 +1,79 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/*************************************************************************
+ *  Compilation:  javac TiledDemo.java
+ *  Execution:    java TiledDemo input.png percent [stripeRows [residentStripes]]
+ *  Dependencies: TiledDoppelganger.java TiledRaster.java ReplaceDemo.java
+ *
+ *  Read image (or .raw raster) from file specified as command line argument into a
+ *  memory-mapped, striped raster and replace the percentage of rows and
+ *  columns out of core.  The result is left in input_seam.raw (see
+ *  RawRaster), which loads as a Picture if it fits in memory.  Pictures
+ *  small enough are also processed in memory and the two results compared.
+ *
+ *************************************************************************/
+
+public class TiledDemo
+{
+    // Largest picture also processed in memory for comparison
+    private static final long CHECK_PIXELS = 16L << 20;
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 2 || args.length > 4)
+        {
+            System.out.println("Usage:\njava TiledDemo <image filename> <percent to replace> [stripe rows [resident stripes]]");
+            return;
+        }
+
+        File input = new File( args[0] );
+        float p    = Float.parseFloat( args[1] );
+        if( p < 0.0  || p > 1.0) throw new IllegalArgumentException("Invalid p " + p);
+
+        String name = input.getPath();
+        name = name.substring(0, name.lastIndexOf('.'));
+        File output  = new File( name + "_seam" + RawRaster.EXTENSION );
+        File scratch = new File( name + "_seam_transpose" + RawRaster.EXTENSION );
+
+        int stripeRows = (args.length > 2) ? Integer.parseInt(args[2]) : 0;
+        int resident   = (args.length > 3) ? Integer.parseInt(args[3]) : TiledRaster.RESIDENT_STRIPES;
+
+        long start = System.nanoTime();
+        TiledRaster r;
+        if( RawRaster.isRaw(input) )
+        {
+            Files.copy( input.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            r = TiledRaster.open(output, stripeRows, resident);
+        }
+        else
+        {
+            r = TiledRaster.read(input, output, stripeRows, resident);
+        }
+        try
+        {
+            int removeCols = Math.round( p * r.width()  );
+            int removeRows = Math.round( p * r.height() );
+            System.out.printf("Image is %d columns by %d rows, stripes of %d rows, %d resident\n",
+                              r.width(), r.height(), r.stripeRows(), resident);
+            System.out.printf("Replacing %d columns and %d rows\n", removeCols, removeRows);
+
+            new TiledDoppelganger().process( r, removeCols, removeRows, scratch );
+            System.out.printf("Out of core in %.2f s, written to %s\n", (System.nanoTime() - start) / 1e9, output);
+
+            if( (long) r.width() * r.height() <= CHECK_PIXELS )
+            {
+                start = System.nanoTime();
+                Picture expected = ReplaceDemo.process( new Picture(input), removeCols, removeRows );
+                System.out.printf("In memory in %.2f s, results %s\n", (System.nanoTime() - start) / 1e9,
+                                  expected.equals( r.toPicture() ) ? "identical" : "DIFFER");
+            }
+        }
+        finally
+        {
+            r.close();
+        }
+    }
+}
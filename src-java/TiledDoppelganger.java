@@ -0,0 +1,69 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Out-of-core seam doppelganger for pictures too large for the heap.  The
+ * picture is a {@link TiledRaster} and every pass walks its stripes in
+ * order, keeping only a few stripes mapped:
+ * <ul>
+ * <li>vertical seams are found by {@link StreamingSeamFinder}, which
+ *     computes energy row by row as it goes, and replaced row by row;</li>
+ * <li>horizontal seams are replaced as the vertical seams of the
+ *     transposed raster, which is written to a scratch file first and
+ *     transposed back afterwards.</li>
+ * </ul>
+ * Besides the stripes, the heap holds two rows of cost and 2-bit
+ * backpointers, about 0.25 bytes per pixel.
+ * <p>
+ * The result is the same as {@link ReplaceDemo#process(Picture, int, int)},
+ * which replaces rows and then columns with a {@link SeamDoppelganger} and
+ * {@link DynamicSeamFinder}.  Energy is recomputed in full for every seam
+ * rather than kept up to date, so for pictures that fit in memory that is
+ * the faster path.
+ * @author James Pope
+ */
+public class TiledDoppelganger
+{
+    private final SeamWorkspace ws = new SeamWorkspace();
+
+    /**
+     * Replaces the least energy rows and then columns of the raster in place.
+     * @param r
+     * @param removeCols number of vertical seams to replace
+     * @param removeRows number of horizontal seams to replace
+     * @param scratch backing file for the transpose, deleted afterwards
+     * @throws IOException
+     */
+    public void process(TiledRaster r, int removeCols, int removeRows, File scratch)
+        throws IOException
+    {
+        if( removeRows > 0 )
+        {
+            TiledRaster t = r.transpose(scratch);
+            try
+            {
+                replaceVerticalSeams(t, removeRows);
+                t.transposeInto(r);
+            }
+            finally
+            {
+                t.close();
+                scratch.delete();
+            }
+        }
+        replaceVerticalSeams(r, removeCols);
+    }
+
+    /**
+     * Finds and replaces n least energy vertical seams, one after another.
+     */
+    private void replaceVerticalSeams(TiledRaster r, int n)
+    {
+        int[] seam = new int[ r.height() ];
+        for (int i = 0; i < n; i++)
+        {
+            StreamingSeamFinder.findMinimumSeam(r, ws, seam);
+            SeamDoppelganger.replaceVerticalSeamRandom(r, seam);
+        }
+    }
+}
@@ -0,0 +1,460 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Out-of-core raster of packed ARGB pixels for pictures too large for the
+ * heap.  The pixels live in a backing file in the {@link RawRaster} format,
+ * and are cut into horizontal stripes of {@link #stripeRows()} rows.  A stripe
+ * is memory-mapped when first touched and at most a fixed number of
+ * stripes stay mapped, the least recently used being unmapped, so the
+ * resident set is bounded however large the file.
+ * <p>
+ * Access is fastest when rows are visited in order, as the energy pass,
+ * the streaming seam search and vertical seam replacement do.  Columns
+ * are reached by transposing into a second raster with
+ * {@link #transposeInto(TiledRaster)}, which fills the transpose a stripe
+ * at a time.
+ * <p>
+ * As for the copy held by {@link SeamDoppelganger}, every pixel is
+ * opaque.  A TiledRaster is not safe for use by several threads.
+ * @author James Pope
+ */
+public class TiledRaster implements PackedRaster, Closeable
+{
+    private static final int OPAQUE = 0xFF000000;
+
+    /** Default size of one stripe */
+    public static final int STRIPE_BYTES = 16 << 20;
+
+    /** Default number of stripes kept mapped */
+    public static final int RESIDENT_STRIPES = 4;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int stripeRows;
+    private final int maxResident;
+
+    // Mapped stripes, one per slot, the least recently used slot is reused
+    private final int[] slotStripe;                 // -1 if empty
+    private final MappedByteBuffer[] slotBytes;
+    private final IntBuffer[] slotInts;
+    private final long[] slotUse;
+    private long clock;
+
+    // Most recently used stripe, checked before the map
+    private int lastStripe = -1;
+    private IntBuffer lastBuffer;
+
+    /**
+     * Creates a raster backed by file, which is created or resized to hold
+     * a raw raster header and width*height pixels.  The header is written,
+     * existing pixels are kept.
+     * @param file
+     * @param width
+     * @param height
+     * @param stripeRows rows per stripe
+     * @param maxResident most stripes mapped at once, at least 3 since the
+     *        energy of a row reads the rows above and below
+     * @throws IOException
+     */
+    public TiledRaster(File file, int width, int height, int stripeRows, int maxResident)
+        throws IOException
+    {
+        this(file, new RandomAccessFile(file, "rw"), width, height, stripeRows, maxResident);
+        RawRaster.Header h = new RawRaster.Header(width, height, RawRaster.LAYOUT_XRGB);
+        ByteBuffer header = ByteBuffer.allocate(RawRaster.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        RawRaster.putHeader(header, h);
+        raf.setLength(h.fileBytes());
+        while( header.hasRemaining() ) channel.write(header, header.position());
+    }
+
+    private TiledRaster(File file, RandomAccessFile raf, int width, int height, int stripeRows, int maxResident)
+    {
+        if( width < 1 || height < 1 || stripeRows < 1 || maxResident < 3 )
+        {
+            closeQuietly(raf);
+            throw new IllegalArgumentException("Invalid tiled raster "+width+"x"+height
+                                               +" stripes of "+stripeRows+" rows, "+maxResident+" resident");
+        }
+        if( 4L * width * stripeRows > Integer.MAX_VALUE )
+        {
+            closeQuietly(raf);
+            throw new IllegalArgumentException("Stripe too large "+width+"x"+stripeRows);
+        }
+        this.file        = file;
+        this.width       = width;
+        this.height      = height;
+        this.stripeRows  = stripeRows;
+        this.maxResident = maxResident;
+        this.slotStripe  = new int[maxResident];
+        this.slotBytes   = new MappedByteBuffer[maxResident];
+        this.slotInts    = new IntBuffer[maxResident];
+        this.slotUse     = new long[maxResident];
+        Arrays.fill(this.slotStripe, -1);
+        this.raf     = raf;
+        this.channel = raf.getChannel();
+    }
+
+    /**
+     * Opens an existing raw raster file, for example one written by
+     * {@link Picture#save(File)} or left by an earlier out-of-core run.
+     * Its pixels are read as they are, but pixels written are opaque.
+     * @param file
+     * @param stripeRows rows per stripe, or 0 for stripes of about {@link #STRIPE_BYTES}
+     * @param maxResident most stripes mapped at once
+     * @return the raster
+     * @throws IOException
+     */
+    public static TiledRaster open(File file, int stripeRows, int maxResident) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        RawRaster.Header h;
+        try
+        {
+            h = RawRaster.readHeader(raf.getChannel(), file);
+        }
+        catch( IOException e )
+        {
+            closeQuietly(raf);
+            throw e;
+        }
+        if( stripeRows == 0 ) stripeRows = stripeRows(h.width);
+        return new TiledRaster(file, raf, h.width, h.height, stripeRows, maxResident);
+    }
+
+    private static void closeQuietly(RandomAccessFile raf)
+    {
+        try
+        {
+            raf.close();
+        }
+        catch( IOException e )
+        {
+            // Already failing
+        }
+    }
+
+    /**
+     * Creates a raster backed by file with the default stripe size and
+     * number of resident stripes.
+     * @param file
+     * @param width
+     * @param height
+     * @throws IOException
+     */
+    public TiledRaster(File file, int width, int height) throws IOException
+    {
+        this(file, width, height, stripeRows(width), RESIDENT_STRIPES);
+    }
+
+    /**
+     * @param width
+     * @return rows per stripe so that a stripe is about {@link #STRIPE_BYTES}
+     */
+    public static int stripeRows(int width)
+    {
+        return Math.max(1, STRIPE_BYTES / (4 * width));
+    }
+
+    /**
+     * Decodes an image into a new raster one stripe at a time, so that the
+     * whole image is never held in the heap.  Each stripe is a source region
+     * read, which for most formats decodes the image up to the end of the
+     * stripe again; this trades time for memory.
+     * @param image .png, .gif or .jpg file
+     * @param file backing file
+     * @param stripeRows rows per stripe, or 0 for stripes of about {@link #STRIPE_BYTES}
+     * @param maxResident most stripes mapped at once
+     * @return the raster
+     * @throws IOException
+     */
+    public static TiledRaster read(File image, File file, int stripeRows, int maxResident)
+        throws IOException
+    {
+        ImageInputStream in = ImageIO.createImageInputStream(image);
+        if( in == null )
+        {
+            throw new IOException("Could not open file: " + image);
+        }
+        try
+        {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if( !readers.hasNext() )
+            {
+                throw new IOException("Invalid image file: " + image);
+            }
+            ImageReader reader = readers.next();
+            try
+            {
+                reader.setInput(in);
+                int w = reader.getWidth(0);
+                int h = reader.getHeight(0);
+                if( stripeRows == 0 ) stripeRows = stripeRows(w);
+                TiledRaster r = new TiledRaster(file, w, h, stripeRows, maxResident);
+                int[] rgb = new int[w * stripeRows];
+                ImageReadParam param = reader.getDefaultReadParam();
+                for (int y0 = 0; y0 < h; y0 += stripeRows)
+                {
+                    int rows = Math.min(stripeRows, h - y0);
+                    param.setSourceRegion(new Rectangle(0, y0, w, rows));
+                    BufferedImage stripe = reader.read(0, param);
+                    stripe.getRGB(0, 0, w, rows, rgb, 0, w);
+                    r.putRows(y0, rows, rgb);
+                }
+                return r;
+            }
+            finally
+            {
+                reader.dispose();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies a picture into a new raster.
+     * @param p
+     * @param file backing file
+     * @param stripeRows rows per stripe
+     * @param maxResident most stripes mapped at once
+     * @return the raster
+     * @throws IOException
+     */
+    public static TiledRaster fromPicture(Picture p, File file, int stripeRows, int maxResident)
+        throws IOException
+    {
+        int w = p.width();
+        TiledRaster r = new TiledRaster(file, w, p.height(), stripeRows, maxResident);
+        int[] row = new int[w];
+        for (int y = 0; y < p.height(); y++)
+        {
+            r.putRows(y, 1, p.getRow(y, row));
+        }
+        return r;
+    }
+
+    /**
+     * Copies the raster into a new in-memory picture.
+     * @return the picture
+     */
+    public Picture toPicture()
+    {
+        Picture p = new Picture(width, height);
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                p.setPacked(x, y, getPacked(x, y));
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Writes the transpose of this raster into dst, dst(y, x) = this(x, y).
+     * The columns of this raster are taken a stripe of dst at a time, so
+     * each stripe of dst is mapped once and filled before the next.  Where
+     * it meets each stripe of this raster, the rows of this raster are read
+     * in bulk into a tile on the heap, no larger than a stripe, and the tile
+     * is written out transposed as runs along the rows of dst.
+     * @param dst raster of height() columns by width() rows
+     */
+    public void transposeInto(TiledRaster dst)
+    {
+        if( dst.width != this.height || dst.height != this.width )
+        {
+            throw new IllegalArgumentException("Transpose of "+width+"x"+height
+                                               +" does not fit "+dst.width+"x"+dst.height);
+        }
+        int tileRows = Math.min(stripeRows, height);
+        int tileCols = Math.min(dst.stripeRows, width);
+        int[] tile = new int[tileRows * tileCols];
+        int[] line = new int[tileRows];
+        for (int x0 = 0; x0 < width; x0 += dst.stripeRows)
+        {
+            int cols = Math.min(dst.stripeRows, width - x0);
+            for (int y0 = 0; y0 < height; y0 += stripeRows)
+            {
+                int rows = Math.min(stripeRows, height - y0);
+                IntBuffer src = stripe(y0 / stripeRows);
+                for (int k = 0; k < rows; k++)
+                {
+                    src.position(k*width + x0);
+                    src.get(tile, k*cols, cols);
+                }
+
+                // Row j of the dst stripe is column x0 + j of this raster
+                IntBuffer out = dst.stripe(x0 / dst.stripeRows);
+                for (int j = 0; j < cols; j++)
+                {
+                    for (int k = 0; k < rows; k++)
+                    {
+                        line[k] = tile[k*cols + j] | OPAQUE;
+                    }
+                    out.position(j*dst.width + y0);
+                    out.put(line, 0, rows);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the transpose of this raster, with stripes of the default
+     * size and the same number of resident stripes.
+     * @param file backing file of the transpose
+     * @return the transpose
+     * @throws IOException
+     */
+    public TiledRaster transpose(File file) throws IOException
+    {
+        TiledRaster t = new TiledRaster(file, height, width, stripeRows(height), maxResident);
+        transposeInto(t);
+        return t;
+    }
+
+    @Override
+    public int width()
+    {
+        return width;
+    }
+
+    @Override
+    public int height()
+    {
+        return height;
+    }
+
+    /**
+     * @return rows per stripe
+     */
+    public int stripeRows()
+    {
+        return stripeRows;
+    }
+
+    /**
+     * @return backing file
+     */
+    public File file()
+    {
+        return file;
+    }
+
+    @Override
+    public int getPacked(int col, int row)
+    {
+        int s = row / stripeRows;
+        IntBuffer b = (s == lastStripe) ? lastBuffer : stripe(s);
+        return b.get((row - s*stripeRows) * width + col);
+    }
+
+    @Override
+    public void setPacked(int col, int row, int argb)
+    {
+        int s = row / stripeRows;
+        IntBuffer b = (s == lastStripe) ? lastBuffer : stripe(s);
+        b.put((row - s*stripeRows) * width + col, argb | OPAQUE);
+    }
+
+    /**
+     * Copies n whole rows from src, row-major, starting at row y.
+     */
+    private void putRows(int y, int n, int[] src)
+    {
+        for (int k = 0; k < n; k++)
+        {
+            int row = y + k;
+            int s = row / stripeRows;
+            IntBuffer b = (s == lastStripe) ? lastBuffer : stripe(s);
+            int base = (row - s*stripeRows) * width;
+            for (int x = 0; x < width; x++)
+            {
+                b.put(base + x, src[k*width + x] | OPAQUE);
+            }
+        }
+    }
+
+    /**
+     * Gets stripe s, mapping it if it is not resident.
+     */
+    private IntBuffer stripe(int s)
+    {
+        int slot = -1;
+        int lru = 0;
+        for (int i = 0; i < slotStripe.length; i++)
+        {
+            if( slotStripe[i] == s )
+            {
+                slot = i;
+                break;
+            }
+            if( slotUse[i] < slotUse[lru] ) lru = i;
+        }
+        if( slot < 0 )
+        {
+            slot = lru;
+            if( slotStripe[slot] >= 0 ) RawRaster.unmap(slotBytes[slot]);
+            slotStripe[slot] = -1;
+
+            long start = RawRaster.HEADER_BYTES + 4L * width * s * stripeRows;
+            int rows = Math.min(stripeRows, height - s*stripeRows);
+            MappedByteBuffer m;
+            try
+            {
+                m = channel.map(FileChannel.MapMode.READ_WRITE, start, 4L * width * rows);
+            }
+            catch( IOException e )
+            {
+                throw new RuntimeException("Could not map stripe " + s + " of " + file, e);
+            }
+            slotStripe[slot] = s;
+            slotBytes[slot]  = m;
+            slotInts[slot]   = m.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+        slotUse[slot] = ++clock;
+        lastStripe = s;
+        lastBuffer = slotInts[slot];
+        return lastBuffer;
+    }
+
+    /**
+     * Drops all mapped stripes and closes the backing file.  Writes through
+     * a mapping go straight to the file, so nothing is lost.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        lastStripe = -1;
+        lastBuffer = null;
+        for (int i = 0; i < slotStripe.length; i++)
+        {
+            if( slotStripe[i] >= 0 ) RawRaster.unmap(slotBytes[i]);
+            slotStripe[i] = -1;
+            slotBytes[i]  = null;
+            slotInts[i]   = null;
+        }
+        channel.close();
+        raf.close();
+    }
+}